@@ -0,0 +1,76 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Latencia extremo a extremo de UsersClient.addUser (token en caché + POST) contra un API local.
+ * SampleTime da los percentiles en el JSON de resultados.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AddUserBenchmark {
+
+	private static final Map<String, Object> PAYLOAD = Map.of("firstName", "Ada", "lastName", "Lovelace", "age", 36);
+
+	@Param({ "0", "2" })
+	long apiLatencyMillis;
+
+	BenchmarkFixtures.StubServer stub;
+	UsersClient client;
+
+	@Setup
+	public void setUp() throws IOException {
+		stub = new BenchmarkFixtures.StubServer(apiLatencyMillis);
+		AuthProperties props = BenchmarkFixtures.authProperties(stub.url(BenchmarkFixtures.TOKEN_PATH));
+		UsersProperties users = new UsersProperties();
+		users.setAddUrl(stub.url(BenchmarkFixtures.USERS_PATH));
+
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		TokenService tokenService = BenchmarkFixtures.tokenService(props, cache);
+		client = new UsersClient(BenchmarkFixtures.webClient("bench-api"), props, users, tokenService,
+				new SimpleMeterRegistry());
+		tokenService.getValidToken().block(); // token en caché antes de medir
+	}
+
+	@Benchmark
+	@Threads(1)
+	public String addUser() {
+		return client.addUser(PAYLOAD).block();
+	}
+
+	@Benchmark
+	@Threads(16)
+	public String addUser16() {
+		return client.addUser(PAYLOAD).block();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		stub.close();
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+
+/**
+ * Piezas comunes de los benchmarks: IdP y API de usuarios simulados en local y el grafo de
+ * servicios montado sin Spring.
+ */
+final class BenchmarkFixtures {
+
+	static final String TOKEN_PATH = "/connect/token";
+	static final String USERS_PATH = "/users/add";
+
+	private BenchmarkFixtures() {
+	}
+
+	/** Servidor local que responde tokens en {@link #TOKEN_PATH} y altas en {@link #USERS_PATH}. */
+	static final class StubServer implements AutoCloseable {
+
+		final MockWebServer server = new MockWebServer();
+		final AtomicLong tokenRequests = new AtomicLong();
+
+		StubServer(long latencyMillis) throws IOException {
+			server.setDispatcher(new Dispatcher() {
+				@Override
+				public MockResponse dispatch(RecordedRequest request) {
+					MockResponse response = new MockResponse().setResponseCode(200)
+							.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE);
+					if (latencyMillis > 0) {
+						response.setHeadersDelay(latencyMillis, TimeUnit.MILLISECONDS);
+					}
+					if (request.getPath() != null && request.getPath().startsWith(TOKEN_PATH)) {
+						long n = tokenRequests.incrementAndGet();
+						return response.setBody("{\"access_token\":\"TOKEN-" + n + "\",\"expires_in\":3600}");
+					}
+					return response.setBody("{\"id\":1}");
+				}
+			});
+			server.start();
+		}
+
+		String url(String path) {
+			return server.url(path).toString();
+		}
+
+		@Override
+		public void close() throws IOException {
+			server.shutdown();
+		}
+	}
+
+	static AuthProperties authProperties(String tokenUrl) {
+		AuthProperties props = new AuthProperties();
+		props.setUrl(tokenUrl);
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+		return props;
+	}
+
+	static WebClient webClient(String name) {
+		return WebClientConfig.webClient(name, new HttpClientProperties().getApi());
+	}
+
+	static TokenService tokenService(AuthProperties props, Cache<String, TokenCacheValue> cache) {
+		return new TokenService(webClient("bench-token"), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+
+/**
+ * API bloqueante frente a la reactiva:
+ * <ul>
+ * <li>acierto de caché: fachada (sin suscripción) vs {@code getValidToken().block()} vs reactivo sin bloquear;</li>
+ * <li>ráfaga de {@code burst} altas contra un API con 2 ms de latencia: submitAddUser (hilos virtuales en
+ * Java 21+, pool de plataforma si no) vs el mismo número de altas con flatMap reactivo.</li>
+ * </ul>
+ *
+ * <pre>java -jar target/benchmarks.jar BlockingFacade -prof gc</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockingFacadeBenchmark {
+
+	private static final Map<String, Object> PAYLOAD = Map.of("firstName", "Ada", "lastName", "Lovelace", "age", 36);
+
+	@Param({ "true", "false" })
+	boolean virtualThreads;
+
+	@Param({ "64" })
+	int burst;
+
+	BenchmarkFixtures.StubServer stub;
+	TokenService tokenService;
+	UsersClient client;
+	BlockingTokenService blockingTokens;
+	BlockingUsersClient blockingUsers;
+
+	@Setup
+	public void setUp() throws IOException {
+		stub = new BenchmarkFixtures.StubServer(2);
+		AuthProperties props = BenchmarkFixtures.authProperties(stub.url(BenchmarkFixtures.TOKEN_PATH));
+		UsersProperties users = new UsersProperties();
+		users.setAddUrl(stub.url(BenchmarkFixtures.USERS_PATH));
+		BlockingProperties blocking = new BlockingProperties();
+		blocking.setVirtualThreads(virtualThreads);
+
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		cache.put(AuthProperties.DEFAULT_PROFILE, TokenCacheValue.builder()
+				.token("Bearer TOKEN").expires(Instant.now().plusSeconds(3600), Ticker.systemTicker()).build());
+		tokenService = BenchmarkFixtures.tokenService(props, cache);
+		client = new UsersClient(BenchmarkFixtures.webClient("bench-api"), props, users, tokenService,
+				new SimpleMeterRegistry());
+		blockingTokens = new BlockingTokenService(tokenService, blocking);
+		blockingUsers = new BlockingUsersClient(client, blocking);
+	}
+
+	@Benchmark
+	public String hitBlockingFacade() {
+		return blockingTokens.getValidToken();
+	}
+
+	@Benchmark
+	public String hitMonoBlock() {
+		return tokenService.getValidToken().block();
+	}
+
+	@Benchmark
+	public Object hitReactive() {
+		return tokenService.getValidToken();
+	}
+
+	@Benchmark
+	public List<String> burstBlockingSubmit() {
+		List<CompletableFuture<String>> calls = IntStream.range(0, burst)
+				.mapToObj(i -> blockingUsers.submitAddUser(PAYLOAD))
+				.toList();
+		return calls.stream().map(CompletableFuture::join).toList();
+	}
+
+	@Benchmark
+	public List<String> burstReactive() {
+		return Flux.range(0, burst).flatMap(i -> client.addUser(PAYLOAD)).collectList().block();
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		blockingUsers.close();
+		stub.close();
+	}
+
+}
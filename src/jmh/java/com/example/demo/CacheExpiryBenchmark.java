@@ -0,0 +1,69 @@
+package com.example.demo;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+/**
+ * Coste de las callbacks del Expiry de CaffeineConfig frente a una caché sin expiración por entrada.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheExpiryBenchmark {
+
+	Cache<String, TokenCacheValue> withExpiry;
+	Cache<String, TokenCacheValue> plain;
+	TokenCacheValue value;
+
+	@Setup
+	public void setUp() {
+		AuthProperties props = BenchmarkFixtures.authProperties("http://localhost:1/connect/token");
+		withExpiry = new CaffeineConfig().tokenCache(props);
+		plain = Caffeine.newBuilder().maximumSize(props.getCacheMaximumSize()).recordStats().build();
+		value = TokenCacheValue.builder().token("Bearer TOKEN")
+				.expires(Instant.now().plusSeconds(3600), Ticker.systemTicker()).build();
+		withExpiry.put(AuthProperties.DEFAULT_PROFILE, value);
+		plain.put(AuthProperties.DEFAULT_PROFILE, value);
+	}
+
+	/** expireAfterRead */
+	@Benchmark
+	public TokenCacheValue readWithExpiry() {
+		return withExpiry.getIfPresent(AuthProperties.DEFAULT_PROFILE);
+	}
+
+	@Benchmark
+	public TokenCacheValue readPlain() {
+		return plain.getIfPresent(AuthProperties.DEFAULT_PROFILE);
+	}
+
+	/** expireAfterUpdate (lo que paga cada refresco) */
+	@Benchmark
+	public void updateWithExpiry() {
+		withExpiry.put(AuthProperties.DEFAULT_PROFILE, value);
+	}
+
+	@Benchmark
+	public void updatePlain() {
+		plain.put(AuthProperties.DEFAULT_PROFILE, value);
+	}
+
+}
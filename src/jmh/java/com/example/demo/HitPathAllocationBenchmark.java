@@ -0,0 +1,64 @@
+package com.example.demo;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Memoria reservada por acierto de caché. Ejecutar con el profiler de GC:
+ *
+ * <pre>java -jar target/benchmarks.jar HitPathAllocation -prof gc</pre>
+ *
+ * "gc.alloc.rate.norm" de {@code getValidToken} debe ser ~0 B/op; {@code instantAndMonoJust}
+ * reproduce el camino anterior (Instant.now() + Mono.just) como referencia.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+public class HitPathAllocationBenchmark {
+
+	Cache<String, TokenCacheValue> cache;
+	TokenService tokenService;
+
+	@Setup
+	public void setUp() {
+		AuthProperties props = BenchmarkFixtures.authProperties("http://localhost:1/connect/token"); // nunca se llama
+		cache = new CaffeineConfig().tokenCache(props);
+		cache.put(AuthProperties.DEFAULT_PROFILE, TokenCacheValue.builder()
+				.token("Bearer TOKEN").expires(Instant.now().plusSeconds(3600), Ticker.systemTicker()).build());
+		tokenService = BenchmarkFixtures.tokenService(props, cache);
+	}
+
+	@Benchmark
+	public Mono<String> getValidToken() {
+		return tokenService.getValidToken();
+	}
+
+	@Benchmark
+	public Mono<String> instantAndMonoJust() {
+		TokenCacheValue cached = cache.getIfPresent(AuthProperties.DEFAULT_PROFILE);
+		if (cached != null && cached.getExpiresAt().isAfter(Instant.now())) {
+			return Mono.just(cached.getToken());
+		}
+		return Mono.empty();
+	}
+
+}
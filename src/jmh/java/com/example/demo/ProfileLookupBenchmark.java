@@ -0,0 +1,75 @@
+package com.example.demo;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Coste de getValidToken(perfil) con el token en caché según crece el número de perfiles.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ProfileLookupBenchmark {
+
+	@Param({ "1", "100", "1000", "10000", "100000" })
+	int profiles;
+
+	TokenService tokenService;
+	String[] names;
+
+	@Setup
+	public void setUp() {
+		AuthProperties props = new AuthProperties();
+		props.setUrl("http://localhost:1/connect/token"); // nunca se llama: todo está en caché
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setCacheMaximumSize(profiles);
+
+		names = new String[profiles];
+		for (int i = 0; i < profiles; i++) {
+			names[i] = "profile-" + i;
+			AuthProperties.Profile p = new AuthProperties.Profile();
+			p.setClientId(names[i]);
+			p.setClientSecret("secret");
+			props.getProfiles().put(names[i], p);
+		}
+
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		Instant expiresAt = Instant.now().plusSeconds(3600);
+		for (String name : names) {
+			cache.put(name, TokenCacheValue.builder().profile(name).token("Bearer " + name)
+					.expires(expiresAt, Ticker.systemTicker()).build());
+		}
+		tokenService = new TokenService(WebClient.create(), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+	}
+
+	@Benchmark
+	public Mono<String> cachedLookup() {
+		return tokenService.getValidToken(names[ThreadLocalRandom.current().nextInt(profiles)]);
+	}
+
+}
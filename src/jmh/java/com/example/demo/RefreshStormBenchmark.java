@@ -0,0 +1,143 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.Control;
+import org.openjdk.jmh.infra.ThreadParams;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * "Tormenta" de refresco: N llamadas concurrentes justo cuando el token ha caducado, contra un IdP
+ * local. Las llamadas se reparten entre varios hilos de JMH que comparten el mismo TokenService, así que
+ * compiten de verdad en joinOrStartRefresh; cada tormenta arranca a la vez en todos los hilos (el último
+ * en llegar caduca el token) y termina cuando todos tienen token. Mide lo que tarda una tormenta y cuántos
+ * POST de token provoca: los contadores tokenPosts y storms salen junto al resultado, y
+ * tokenPosts / storms debería ser 1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(8)
+@Fork(1)
+public class RefreshStormBenchmark {
+
+	/** Llamadas por tormenta, entre todos los hilos. */
+	@Param({ "16", "256", "4096" })
+	int callers;
+
+	@Param({ "0", "5" })
+	long idpLatencyMillis;
+
+	BenchmarkFixtures.StubServer stub;
+	Cache<String, TokenCacheValue> cache;
+	TokenService tokenService;
+	int threads;
+	int callersPerThread;
+
+	/** Fases pares: inicio de tormenta (caduca el token); impares: fin (cuenta sus POST). */
+	Phaser storms;
+	long postsBefore;
+	volatile long stormPosts;
+
+	/** Contadores auxiliares que JMH publica con cada iteración (totales, no por operación). */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Counters {
+
+		public long tokenPosts;
+		public long storms;
+		// cada tormenta la cuenta un solo hilo: JMH suma los contadores de todos
+		private boolean reporter;
+
+		@Setup(Level.Iteration)
+		public void reset(ThreadParams thread) {
+			tokenPosts = 0;
+			storms = 0;
+			reporter = thread.getThreadIndex() == 0;
+		}
+
+	}
+
+	@Setup
+	public void setUp(BenchmarkParams params) throws IOException {
+		stub = new BenchmarkFixtures.StubServer(idpLatencyMillis);
+		AuthProperties props = BenchmarkFixtures.authProperties(stub.url(BenchmarkFixtures.TOKEN_PATH));
+		cache = new CaffeineConfig().tokenCache(props);
+		tokenService = BenchmarkFixtures.tokenService(props, cache);
+		threads = params.getThreads();
+		callersPerThread = Math.max(1, callers / threads);
+	}
+
+	/** Un Phaser nuevo por iteración: los hilos que salieron a medias de la anterior no lo desfasan. */
+	@Setup(Level.Iteration)
+	public void newStorms() {
+		storms = new Phaser(threads) {
+			@Override
+			protected boolean onAdvance(int phase, int parties) {
+				if (phase % 2 == 0) {
+					cache.invalidateAll();
+					postsBefore = stub.tokenRequests.get();
+				} else {
+					stormPosts = stub.tokenRequests.get() - postsBefore;
+				}
+				return false;
+			}
+		};
+	}
+
+	@Benchmark
+	public String storm(Counters counters, Control control) {
+		if (!await(control)) {
+			return null;
+		}
+		String token = Flux.range(0, callersPerThread)
+				.flatMap(i -> tokenService.getValidToken(), callersPerThread)
+				.blockLast();
+		if (await(control) && counters.reporter) {
+			counters.tokenPosts += stormPosts;
+			counters.storms++;
+		}
+		return token;
+	}
+
+	/** Espera al resto de hilos; false si JMH da la iteración por terminada antes. */
+	private boolean await(Control control) {
+		int phase = storms.arrive();
+		while (storms.getPhase() == phase) {
+			if (control.stopMeasurement) {
+				return false;
+			}
+			Thread.yield();
+		}
+		return true;
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		stub.close();
+	}
+
+}
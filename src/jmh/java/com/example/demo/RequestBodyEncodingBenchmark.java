@@ -0,0 +1,100 @@
+package com.example.demo;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.codec.ByteArrayEncoder;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.FormHttpMessageWriter;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+/**
+ * Coste por petición de codificar el cuerpo: lo que hacía cada envío (formulario con el writer de
+ * Spring, Map con Jackson) frente a los bytes ya codificados. Con el profiler de GC:
+ *
+ * <pre>java -jar target/benchmarks.jar RequestBodyEncoding -prof gc</pre>
+ *
+ * Comparar "gc.alloc.rate.norm" y el tiempo de cada pareja (*Spring frente a *PreEncoded).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+public class RequestBodyEncodingBenchmark {
+
+	private static final Map<String, Object> PAYLOAD = Map.of("firstName", "Ada", "lastName", "Lovelace", "age", 36);
+	private static final ResolvableType MAP_TYPE = ResolvableType.forClass(Map.class);
+	private static final ResolvableType BYTES_TYPE = ResolvableType.forClass(byte[].class);
+
+	/** Expone la serialización del writer de formularios (lo que hacía BodyInserters.fromFormData). */
+	static final class FormSerializer extends FormHttpMessageWriter {
+		String serialize(MultiValueMap<String, String> form, Charset charset) {
+			return serializeForm(form, charset);
+		}
+	}
+
+	final DefaultDataBufferFactory buffers = DefaultDataBufferFactory.sharedInstance;
+	final Jackson2JsonEncoder jackson = new Jackson2JsonEncoder();
+	final ByteArrayEncoder byteArray = new ByteArrayEncoder();
+	final FormSerializer formSerializer = new FormSerializer();
+
+	AuthProperties props;
+	TokenService tokenService;
+	JsonBody preEncoded;
+
+	@Setup
+	public void setUp() {
+		props = BenchmarkFixtures.authProperties("http://localhost:1/connect/token"); // nunca se llama
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		tokenService = BenchmarkFixtures.tokenService(props, cache);
+		preEncoded = JsonBody.of(jackson.getObjectMapper(), PAYLOAD);
+	}
+
+	@Benchmark
+	public DataBuffer tokenFormSpring() {
+		AuthProfile profile = props.profile(AuthProperties.DEFAULT_PROFILE);
+		MultiValueMap<String, String> form = new LinkedMultiValueMap<>();
+		form.add("grant_type", "client_credentials");
+		form.add("client_id", profile.getClientId());
+		form.add("client_secret", profile.getClientSecret());
+		form.add("scope", profile.getScope());
+		return buffers.wrap(formSerializer.serialize(form, StandardCharsets.UTF_8).getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Benchmark
+	public DataBuffer tokenFormPreEncoded() {
+		return buffers.wrap(tokenService.formBody(props.profile(AuthProperties.DEFAULT_PROFILE)));
+	}
+
+	@Benchmark
+	public DataBuffer jsonPayloadSpring() {
+		return jackson.encodeValue(PAYLOAD, buffers, MAP_TYPE, MediaType.APPLICATION_JSON, null);
+	}
+
+	@Benchmark
+	public DataBuffer jsonPayloadPreEncoded() {
+		return byteArray.encodeValue(preEncoded.bytes(), buffers, BYTES_TYPE, MediaType.APPLICATION_JSON, null);
+	}
+
+}
@@ -0,0 +1,69 @@
+package com.example.demo;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Throughput de getValidToken() con el token en caché (camino caliente) de 1 a 64 hilos.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TokenHitPathBenchmark {
+
+	TokenService tokenService;
+
+	@Setup
+	public void setUp() {
+		AuthProperties props = BenchmarkFixtures.authProperties("http://localhost:1/connect/token"); // nunca se llama
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		cache.put(AuthProperties.DEFAULT_PROFILE, TokenCacheValue.builder()
+				.token("Bearer TOKEN").expires(Instant.now().plusSeconds(3600), Ticker.systemTicker()).build());
+		tokenService = BenchmarkFixtures.tokenService(props, cache);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public Mono<String> hit01() {
+		return tokenService.getValidToken();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public Mono<String> hit04() {
+		return tokenService.getValidToken();
+	}
+
+	@Benchmark
+	@Threads(16)
+	public Mono<String> hit16() {
+		return tokenService.getValidToken();
+	}
+
+	@Benchmark
+	@Threads(64)
+	public Mono<String> hit64() {
+		return tokenService.getValidToken();
+	}
+
+}
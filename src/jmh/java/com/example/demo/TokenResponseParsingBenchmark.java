@@ -0,0 +1,66 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Lectura de la respuesta del endpoint de token: data binding a AuthResponse (como antes, con el
+ * ObjectMapper de Spring) frente a {@link TokenResponseParser}. La respuesta lleva un id_token de
+ * {@code idTokenBytes}; {@code layout} pone los campos buscados antes o después de él.
+ *
+ * <pre>java -jar target/benchmarks.jar TokenResponseParsing -prof gc</pre>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-XX:+UseParallelGC")
+public class TokenResponseParsingBenchmark {
+
+	@Param({ "tokenFirst", "idTokenFirst" })
+	String layout;
+
+	@Param({ "0", "4096" })
+	int idTokenBytes;
+
+	final ObjectMapper mapper = Jackson2ObjectMapperBuilder.json().build();
+	final TokenResponseParser parser = new TokenResponseParser("access_token", "expires_in", "token_type");
+
+	byte[] body;
+
+	@Setup
+	public void setUp() {
+		String token = "\"access_token\":\"eyJhbGciOiJSUzI1NiJ9.payload.signature\",\"expires_in\":3600,\"token_type\":\"Bearer\"";
+		String other = "\"id_token\":\"" + "x".repeat(idTokenBytes) + "\",\"scope\":\"openid api\"";
+		String json = "tokenFirst".equals(layout) ? "{" + token + "," + other + "}" : "{" + other + "," + token + "}";
+		body = json.getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Benchmark
+	public AuthResponse dataBinding() throws IOException {
+		return mapper.readValue(body, AuthResponse.class);
+	}
+
+	@Benchmark
+	public AuthResponse streaming() {
+		return parser.parse(body);
+	}
+
+}
@@ -0,0 +1,138 @@
+package com.example.demo;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+
+/**
+ * Cada segundo imprime el throughput y los percentiles del intervalo (y las peticiones que llegaron
+ * al IdP y los 401 del API en ese intervalo, para ver el efecto de una expiración o de una tormenta
+ * de reintentos). Al final, el resumen de la fase medida.
+ */
+final class LoadReport implements AutoCloseable {
+
+	private static final String HEADER = String.format("%7s %8s %8s %7s %7s %8s %9s %9s %9s %9s %9s %6s %6s",
+			"t(s)", "sent/s", "ok/s", "err/s", "drop/s", "inflight", "p50(ms)", "p90(ms)", "p99(ms)", "p99.9(ms)",
+			"max(ms)", "idp", "401");
+
+	private final OpenLoadGenerator generator;
+	private final StubBackends stubs;
+	private final long measureFromNanos;
+	private final PrintStream out;
+	private final HistogramLogWriter log;
+	private final ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread t = new Thread(r, "loadtest-report");
+		t.setDaemon(true);
+		return t;
+	});
+
+	private final Histogram total = new Histogram(OpenLoadGenerator.HIGHEST_MICROS, 3);
+	private final long startNanos = System.nanoTime();
+	private long lastNanos = startNanos;
+	private long lastSent, lastOk, lastErrors, lastDropped, lastIdp, last401;
+	private long totalOk, totalErrors, totalDropped;
+	private Histogram interval;
+
+	LoadReport(OpenLoadGenerator generator, StubBackends stubs, long measureFromNanos, String hlog, PrintStream out)
+			throws FileNotFoundException {
+		this.generator = generator;
+		this.stubs = stubs;
+		this.measureFromNanos = measureFromNanos;
+		this.out = out;
+		this.log = hlog == null || hlog.isBlank() ? null : openLog(hlog);
+	}
+
+	private static HistogramLogWriter openLog(String hlog) throws FileNotFoundException {
+		Path path = Path.of(hlog);
+		try {
+			if (path.getParent() != null) {
+				Files.createDirectories(path.getParent());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("No se pudo crear " + path.getParent(), e);
+		}
+		HistogramLogWriter writer = new HistogramLogWriter(path.toFile());
+		writer.outputLogFormatVersion();
+		writer.outputStartTime(System.currentTimeMillis());
+		writer.outputLegend();
+		return writer;
+	}
+
+	void start() {
+		out.println(HEADER);
+		ticker.scheduleAtFixedRate(this::tick, 1, 1, TimeUnit.SECONDS);
+	}
+
+	private synchronized void tick() {
+		long now = System.nanoTime();
+		double seconds = (now - lastNanos) / 1e9;
+		lastNanos = now;
+		boolean measuring = now >= measureFromNanos;
+
+		interval = generator.latency.getIntervalHistogram(interval);
+		long sent = generator.sent.sum(), ok = generator.ok.sum(), errors = generator.errors.sum();
+		long dropped = generator.dropped.sum(), idp = stubs.tokenRequests.get(), unauthorized = stubs.apiUnauthorized.get();
+
+		out.println(String.format("%7.1f %8.0f %8.0f %7.0f %7.0f %8d %9.2f %9.2f %9.2f %9.2f %9.2f %6d %6d%s",
+				(now - startNanos) / 1e9, (sent - lastSent) / seconds, (ok - lastOk) / seconds,
+				(errors - lastErrors) / seconds, (dropped - lastDropped) / seconds, generator.inFlight.get(),
+				millis(interval, 50), millis(interval, 90), millis(interval, 99), millis(interval, 99.9),
+				interval.getMaxValue() / 1000.0, idp - lastIdp, unauthorized - last401,
+				measuring ? "" : "  (calentamiento)"));
+
+		if (measuring) {
+			total.add(interval);
+			totalOk += ok - lastOk;
+			totalErrors += errors - lastErrors;
+			totalDropped += dropped - lastDropped;
+			if (log != null) {
+				log.outputIntervalHistogram(interval);
+			}
+		}
+		lastSent = sent;
+		lastOk = ok;
+		lastErrors = errors;
+		lastDropped = dropped;
+		lastIdp = idp;
+		last401 = unauthorized;
+	}
+
+	private static double millis(Histogram h, double percentile) {
+		return h.getValueAtPercentile(percentile) / 1000.0;
+	}
+
+	/** Cierra el último intervalo e imprime el resumen de la fase medida. */
+	synchronized void summary(double measuredSeconds) {
+		tick();
+		ticker.shutdownNow();
+		out.println();
+		out.println(String.format("Resumen (%.0f s medidos): ok=%d (%.0f/s) errores=%d descartadas=%d",
+				measuredSeconds, totalOk, totalOk / measuredSeconds, totalErrors, totalDropped));
+		out.println(String.format("Latencia (ms) p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f p99.99=%.2f max=%.2f",
+				millis(total, 50), millis(total, 90), millis(total, 99), millis(total, 99.9), millis(total, 99.99),
+				total.getMaxValue() / 1000.0));
+		out.println(String.format("Stubs: idp=%d (503=%d) api=%d (401=%d, 503=%d)",
+				stubs.tokenRequests.get(), stubs.tokenErrors.get(), stubs.apiRequests.get(),
+				stubs.apiUnauthorized.get(), stubs.apiErrors.get()));
+		out.println();
+		out.println("Distribución completa (ms):");
+		total.outputPercentileDistribution(out, 5, 1000.0);
+	}
+
+	@Override
+	public synchronized void close() {
+		ticker.shutdownNow();
+		if (log != null) {
+			log.close();
+		}
+	}
+
+}
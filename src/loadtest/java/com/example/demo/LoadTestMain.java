@@ -0,0 +1,96 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Prueba de carga de {@code POST /api/users/add-rotating}: arranca la aplicación contra un IdP y un
+ * API de usuarios simulados en local y la ataca a un ritmo objetivo con llegadas de modelo abierto.
+ *
+ * <pre>
+ * mvn -Ploadtest spring-boot:run -Dspring-boot.run.arguments="--rate=10000 --duration=2m --token-ttl=70s"
+ * </pre>
+ *
+ * Ver {@link LoadTestOptions} para el resto de opciones (latencias y errores inyectados, 401 del API...).
+ * Los histogramas por segundo quedan en target/loadtest.hlog (HdrHistogram log) para compararlos o
+ * dibujarlos después.
+ */
+public final class LoadTestMain {
+
+	private static final String ADD_ROTATING = "/api/users/add-rotating";
+
+	private LoadTestMain() {
+	}
+
+	public static void main(String[] args) throws Exception {
+		// spring-boot:run añade devtools, y su reinicio volvería a ejecutar este main en otro hilo
+		System.setProperty("spring.devtools.restart.enabled", "false");
+		LoadTestOptions options = LoadTestOptions.parse(args);
+		System.out.println("Prueba de carga: " + options);
+
+		ConnectionProvider provider = ConnectionProvider.builder("loadtest")
+				.maxConnections(options.getConnections())
+				.pendingAcquireMaxCount(-1) // el límite lo pone --max-in-flight
+				.build();
+		try (StubBackends stubs = new StubBackends(options);
+				ConfigurableApplicationContext app = startApp(options, stubs)) {
+			int port = ((WebServerApplicationContext) app).getWebServer().getPort();
+			WebClient client = WebClient.builder()
+					.baseUrl("http://localhost:" + port)
+					.clientConnector(new ReactorClientHttpConnector(HttpClient.create(provider)))
+					.build();
+
+			OpenLoadGenerator generator = new OpenLoadGenerator(client, ADD_ROTATING, options);
+			long measureFrom = System.nanoTime() + options.getWarmup().toNanos();
+			try (LoadReport report = new LoadReport(generator, stubs, measureFrom, options.getHlog(), System.out)) {
+				report.start();
+				generator.run(options.getWarmup().plus(options.getDuration()), Duration.ofSeconds(30));
+				report.summary(Math.max(1, (System.nanoTime() - measureFrom) / 1e9));
+			}
+			printAppMetrics(app.getBean(MeterRegistry.class));
+		} finally {
+			provider.dispose();
+		}
+	}
+
+	private static ConfigurableApplicationContext startApp(LoadTestOptions options, StubBackends stubs) {
+		Map<String, String> properties = new LinkedHashMap<>();
+		properties.put("server.port", "0");
+		properties.put("spring.main.banner-mode", "off");
+		properties.put("app.auth.url", stubs.tokenUrl());
+		properties.put("app.users.addUrl", stubs.usersUrl());
+		properties.put("logging.level.com.example.demo", "WARN");
+		properties.putAll(options.getAppProperties());
+		// como argumentos de línea de comandos para que tengan prioridad sobre application.yml
+		String[] args = properties.entrySet().stream().map(e -> "--" + e.getKey() + "=" + e.getValue())
+				.toArray(String[]::new);
+		return new SpringApplicationBuilder(CachetokenApplication.class).run(args);
+	}
+
+	private static void printAppMetrics(MeterRegistry registry) {
+		System.out.println();
+		System.out.println(String.format("App: lookups hit=%.0f miss=%.0f stale=%.0f, reintentos por 401=%.0f",
+				count(registry, "auth.token.lookups", "result", "hit"),
+				count(registry, "auth.token.lookups", "result", "miss"),
+				count(registry, "auth.token.lookups", "result", "stale"),
+				count(registry, "users.client.unauthorized.retries")));
+	}
+
+	private static double count(MeterRegistry registry, String name, String... tags) {
+		Counter counter = registry.find(name).tags(tags).counter();
+		return counter != null ? counter.count() : 0;
+	}
+
+}
@@ -0,0 +1,115 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.convert.DurationStyle;
+
+import lombok.Getter;
+
+/**
+ * Opciones de la prueba de carga, en formato {@code --clave=valor}. Las que empiezan por
+ * {@code --app.}, {@code --spring.}, {@code --server.}, {@code --management.} o {@code --logging.}
+ * se pasan tal cual a la aplicación.
+ */
+@Getter
+final class LoadTestOptions {
+
+	/** Peticiones por segundo objetivo (llegadas, no respuestas: modelo abierto). */
+	private int rate = 1000;
+	/** Duración de la medición. */
+	private Duration duration = Duration.ofSeconds(60);
+	/** Calentamiento previo (no se mide). */
+	private Duration warmup = Duration.ofSeconds(10);
+	/** "constant" (intervalo fijo) o "poisson" (llegadas exponenciales). */
+	private String arrival = "poisson";
+	/** Máximo de peticiones en vuelo; por encima se descartan y cuentan como "dropped". */
+	private int maxInFlight = 20_000;
+	/** Conexiones del generador hacia la aplicación. */
+	private int connections = 2_000;
+
+	/** Latencia fija y variación aleatoria (0..jitter) del IdP simulado. */
+	private Duration idpLatency = Duration.ofMillis(50);
+	private Duration idpJitter = Duration.ofMillis(20);
+	/** Probabilidad de que el IdP responda 503. */
+	private double idpErrorRate = 0.0;
+	/** expires_in que devuelve el IdP: con un valor bajo se ven varias expiraciones durante la prueba. */
+	private Duration tokenTtl = Duration.ofSeconds(90);
+
+	/** Latencia fija y variación aleatoria del API de usuarios simulado. */
+	private Duration apiLatency = Duration.ofMillis(5);
+	private Duration apiJitter = Duration.ofMillis(5);
+	/** Probabilidad de que el API responda 503. */
+	private double apiErrorRate = 0.0;
+	/** Probabilidad de que el API responda 401 (fuerza el reintento con token refrescado de UsersClient). */
+	private double apiUnauthorizedRate = 0.0;
+
+	/** Histogramas por intervalo en formato HdrHistogram log (vacío = no se escribe). */
+	private String hlog = "target/loadtest.hlog";
+
+	private final Map<String, String> appProperties = new LinkedHashMap<>();
+
+	static LoadTestOptions parse(String[] args) {
+		LoadTestOptions o = new LoadTestOptions();
+		List<String> unknown = new ArrayList<>();
+		for (String arg : args) {
+			if (!arg.startsWith("--") || !arg.contains("=")) {
+				unknown.add(arg);
+				continue;
+			}
+			String key = arg.substring(2, arg.indexOf('='));
+			String value = arg.substring(arg.indexOf('=') + 1);
+			switch (key) {
+				case "rate" -> o.rate = Integer.parseInt(value);
+				case "duration" -> o.duration = duration(value);
+				case "warmup" -> o.warmup = duration(value);
+				case "arrival" -> o.arrival = value;
+				case "max-in-flight" -> o.maxInFlight = Integer.parseInt(value);
+				case "connections" -> o.connections = Integer.parseInt(value);
+				case "idp-latency" -> o.idpLatency = duration(value);
+				case "idp-jitter" -> o.idpJitter = duration(value);
+				case "idp-error-rate" -> o.idpErrorRate = Double.parseDouble(value);
+				case "token-ttl" -> o.tokenTtl = duration(value);
+				case "api-latency" -> o.apiLatency = duration(value);
+				case "api-jitter" -> o.apiJitter = duration(value);
+				case "api-error-rate" -> o.apiErrorRate = Double.parseDouble(value);
+				case "api-401-rate" -> o.apiUnauthorizedRate = Double.parseDouble(value);
+				case "hlog" -> o.hlog = value;
+				default -> {
+					if (key.startsWith("app.") || key.startsWith("spring.") || key.startsWith("server.")
+							|| key.startsWith("management.") || key.startsWith("logging.")) {
+						o.appProperties.put(key, value);
+					} else {
+						unknown.add(arg);
+					}
+				}
+			}
+		}
+		if (!unknown.isEmpty()) {
+			throw new IllegalArgumentException("Opciones desconocidas: " + unknown);
+		}
+		if (o.rate <= 0) {
+			throw new IllegalArgumentException("--rate debe ser > 0");
+		}
+		if (!"constant".equals(o.arrival) && !"poisson".equals(o.arrival)) {
+			throw new IllegalArgumentException("--arrival debe ser 'constant' o 'poisson': " + o.arrival);
+		}
+		return o;
+	}
+
+	private static Duration duration(String value) {
+		return DurationStyle.detectAndParse(value);
+	}
+
+	@Override
+	public String toString() {
+		return "rate=" + rate + "/s arrival=" + arrival + " duration=" + duration + " warmup=" + warmup
+				+ " | idp latency=" + idpLatency + "+" + idpJitter + " errors=" + idpErrorRate + " ttl=" + tokenTtl
+				+ " | api latency=" + apiLatency + "+" + apiJitter + " errors=" + apiErrorRate
+				+ " 401=" + apiUnauthorizedRate;
+	}
+
+}
@@ -0,0 +1,88 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.HdrHistogram.Recorder;
+import org.springframework.web.reactive.function.client.WebClient;
+
+/**
+ * Generador de carga de modelo abierto: las peticiones salen a su hora prevista aunque las
+ * anteriores no hayan terminado, y la latencia se mide desde esa hora prevista (no desde el envío
+ * real) para no caer en la "omisión coordinada" cuando el generador o el servicio se retrasan.
+ */
+final class OpenLoadGenerator {
+
+	/** Latencias en microsegundos, hasta 1 hora con 3 cifras significativas. */
+	static final long HIGHEST_MICROS = TimeUnit.HOURS.toMicros(1);
+
+	private final WebClient client;
+	private final String uri;
+	private final LoadTestOptions options;
+
+	final Recorder latency = new Recorder(HIGHEST_MICROS, 3);
+	final LongAdder sent = new LongAdder();
+	final LongAdder ok = new LongAdder();
+	final LongAdder errors = new LongAdder();
+	final LongAdder dropped = new LongAdder();
+	final AtomicLong inFlight = new AtomicLong();
+
+	OpenLoadGenerator(WebClient client, String uri, LoadTestOptions options) {
+		this.client = client;
+		this.uri = uri;
+		this.options = options;
+	}
+
+	/** Lanza peticiones durante {@code total} y espera (como mucho {@code drain}) a que acaben. */
+	void run(Duration total, Duration drain) {
+		double meanIntervalNanos = TimeUnit.SECONDS.toNanos(1) / (double) options.getRate();
+		boolean poisson = "poisson".equals(options.getArrival());
+
+		long start = System.nanoTime();
+		long end = start + total.toNanos();
+		double intended = start;
+		while (intended < end) {
+			long at = (long) intended;
+			long wait = at - System.nanoTime();
+			if (wait > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			// si vamos tarde no se duerme: se recuperan las llegadas pendientes con su hora prevista
+			fire(at);
+			intended += poisson
+					? -Math.log(1.0 - ThreadLocalRandom.current().nextDouble()) * meanIntervalNanos
+					: meanIntervalNanos;
+		}
+
+		long drainUntil = System.nanoTime() + drain.toNanos();
+		while (inFlight.get() > 0 && System.nanoTime() < drainUntil) {
+			LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10));
+		}
+	}
+
+	private void fire(long intendedNanos) {
+		if (inFlight.incrementAndGet() > options.getMaxInFlight()) {
+			inFlight.decrementAndGet();
+			dropped.increment();
+			return;
+		}
+		sent.increment();
+		client.post()
+				.uri(uri)
+				.retrieve()
+				.toBodilessEntity()
+				.subscribe(r -> done(intendedNanos, true), e -> done(intendedNanos, false));
+	}
+
+	private void done(long intendedNanos, boolean success) {
+		long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - intendedNanos);
+		latency.recordValue(Math.min(Math.max(micros, 0), HIGHEST_MICROS));
+		(success ? ok : errors).increment();
+		inFlight.decrementAndGet();
+	}
+
+}
@@ -0,0 +1,97 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+
+import io.netty.handler.codec.http.HttpResponseStatus;
+import reactor.core.publisher.Mono;
+import reactor.netty.DisposableServer;
+import reactor.netty.http.server.HttpServer;
+import reactor.netty.http.server.HttpServerResponse;
+
+/**
+ * IdP y API de usuarios simulados en local, con latencia y errores inyectados según
+ * {@link LoadTestOptions}. Son servidores Reactor Netty (no MockWebServer, que usa un hilo por
+ * conexión y se satura mucho antes que la aplicación). Cuentan las peticiones para poder cruzarlas
+ * con la latencia.
+ */
+final class StubBackends implements AutoCloseable {
+
+	static final String TOKEN_PATH = "/connect/token";
+	static final String USERS_PATH = "/users/add";
+
+	private final DisposableServer idp;
+	private final DisposableServer api;
+
+	final AtomicLong tokenRequests = new AtomicLong();
+	final AtomicLong tokenErrors = new AtomicLong();
+	final AtomicLong apiRequests = new AtomicLong();
+	final AtomicLong apiUnauthorized = new AtomicLong();
+	final AtomicLong apiErrors = new AtomicLong();
+
+	StubBackends(LoadTestOptions o) {
+		idp = HttpServer.create().host("localhost").port(0)
+				.route(routes -> routes.post(TOKEN_PATH, (request, response) -> request.receive().then(
+						delay(o.getIdpLatency(), o.getIdpJitter()).then(Mono.defer(() -> {
+							long n = tokenRequests.incrementAndGet();
+							if (chance(o.getIdpErrorRate())) {
+								tokenErrors.incrementAndGet();
+								return response.status(HttpResponseStatus.SERVICE_UNAVAILABLE).sendString(Mono.just("idp down")).then();
+							}
+							return json(response, "{\"access_token\":\"TOKEN-" + n + "\",\"expires_in\":"
+									+ o.getTokenTtl().toSeconds() + "}");
+						})))))
+				.bindNow();
+		api = HttpServer.create().host("localhost").port(0)
+				.route(routes -> routes.post(USERS_PATH, (request, response) -> request.receive().then(
+						delay(o.getApiLatency(), o.getApiJitter()).then(Mono.defer(() -> {
+							apiRequests.incrementAndGet();
+							if (chance(o.getApiUnauthorizedRate())) {
+								apiUnauthorized.incrementAndGet();
+								return response.status(HttpResponseStatus.UNAUTHORIZED).send().then();
+							}
+							if (chance(o.getApiErrorRate())) {
+								apiErrors.incrementAndGet();
+								return response.status(HttpResponseStatus.SERVICE_UNAVAILABLE).sendString(Mono.just("api down")).then();
+							}
+							return json(response, "{\"id\":1}");
+						})))))
+				.bindNow();
+	}
+
+	String tokenUrl() {
+		return "http://localhost:" + idp.port() + TOKEN_PATH;
+	}
+
+	String usersUrl() {
+		return "http://localhost:" + api.port() + USERS_PATH;
+	}
+
+	private static Mono<Long> delay(Duration latency, Duration jitter) {
+		long millis = latency.toMillis();
+		if (jitter.toMillis() > 0) {
+			millis += ThreadLocalRandom.current().nextLong(jitter.toMillis() + 1);
+		}
+		return millis > 0 ? Mono.delay(Duration.ofMillis(millis)) : Mono.just(0L);
+	}
+
+	private static Mono<Void> json(HttpServerResponse response, String body) {
+		return response.header(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+				.sendString(Mono.just(body)).then();
+	}
+
+	private static boolean chance(double probability) {
+		return probability > 0 && ThreadLocalRandom.current().nextDouble() < probability;
+	}
+
+	@Override
+	public void close() {
+		idp.disposeNow();
+		api.disposeNow();
+	}
+
+}
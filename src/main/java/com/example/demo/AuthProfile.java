@@ -0,0 +1,47 @@
+package com.example.demo;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+import lombok.Builder;
+import lombok.Value;
+
+/**
+ * Credenciales resueltas de un perfil (client_credentials). Cada perfil tiene su propio token en caché.
+ */
+@Value
+@Builder
+public class AuthProfile {
+
+	String name;
+
+	String url;
+
+	String clientId;
+
+	String clientSecret;
+
+	String scope;     // opcional
+
+	String audience;  // opcional
+
+	/**
+	 * Huella (SHA-256) de lo que decide para quién es el token: url, clientId, scope y audience. El
+	 * secreto no entra: cambiarlo no invalida los tokens ya emitidos para el mismo cliente.
+	 */
+	public String fingerprint() {
+		try {
+			MessageDigest sha = MessageDigest.getInstance("SHA-256");
+			for (String part : new String[] { url, clientId, scope, audience }) {
+				sha.update((part != null ? part : "").getBytes(StandardCharsets.UTF_8));
+				sha.update((byte) 0);
+			}
+			return HexFormat.of().formatHex(sha.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e); // SHA-256 es obligatorio en toda JVM
+		}
+	}
+
+}
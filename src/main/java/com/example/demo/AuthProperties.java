@@ -1,7 +1,11 @@
 package com.example.demo;
 
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
 import jakarta.validation.constraints.Min;
 import jakarta.validation.constraints.NotBlank;
+import jakarta.validation.constraints.NotNull;
 import lombok.Getter;
 import lombok.Setter;
 
@@ -9,6 +13,12 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
 @Getter
 @Setter
 @Configuration
@@ -16,6 +26,9 @@ import org.springframework.validation.annotation.Validated;
 @Validated
 public class AuthProperties {
 
+  /** Perfil que forman las credenciales de primer nivel (app.auth.url, clientId...). */
+  public static final String DEFAULT_PROFILE = "default";
+
   @NotBlank
   private String url;
 
@@ -27,11 +40,305 @@ public class AuthProperties {
 
   @NotBlank
   private String scope;
-  
-  @Min(1)
-  private int expiresInMins = 30;
 
+  /** Clave (o ruta con puntos, p. ej. "data.token") del token en la respuesta del IdP. */
+  @NotBlank
+  private String tokenJsonKey = "access_token";
+
+  /** Clave o ruta de la vida del token en segundos. */
   @NotBlank
-  private String tokenJsonKey = "accessToken";
+  private String expiresInJsonKey = "expires_in";
+
+  /** Clave o ruta del tipo de token (solo informativo: el header Authorization siempre es "Bearer"). */
+  @NotBlank
+  private String tokenTypeJsonKey = "token_type";
+
+  @Valid
+  private Ttl ttl = new Ttl();
+
+  @Valid
+  private RefreshAhead refreshAhead = new RefreshAhead();
+
+  @Valid
+  private Stale stale = new Stale();
+
+  @Valid
+  private Resilience resilience = new Resilience();
+
+  @Valid
+  private Snapshot snapshot = new Snapshot();
+
+  @Valid
+  private Store store = new Store();
+
+  @Valid
+  private Reload reload = new Reload();
+
+  /** Perfiles de credenciales adicionales (clientId/scope/audience), cada uno con su token. */
+  private Map<String, @Valid Profile> profiles = new LinkedHashMap<>();
+
+  /**
+   * Perfiles que llevan su nombre en el tag "profile" de las métricas y tienen sus propios gauges (TTL,
+   * circuito). "default" siempre; el resto se agrega en profile="other" sin gauges, para que las series
+   * no crezcan con el número de perfiles.
+   */
+  private Set<String> metricsProfiles = new LinkedHashSet<>();
+
+  /** Máximo de tokens (perfiles) en caché. */
+  @Min(1)
+  private int cacheMaximumSize = 10_000;
+
+  /**
+   * Resuelve las credenciales de un perfil. "default" son las de primer nivel; el resto
+   * heredan la url si no la definen.
+   */
+  public AuthProfile profile(String name) {
+    if (DEFAULT_PROFILE.equals(name)) {
+      return AuthProfile.builder().name(name).url(url).clientId(clientId).clientSecret(clientSecret)
+          .scope(scope).build();
+    }
+    Profile p = profiles.get(name);
+    if (p == null) {
+      throw new IllegalArgumentException("Perfil de credenciales desconocido: " + name);
+    }
+    return AuthProfile.builder()
+        .name(name)
+        .url(p.getUrl() != null && !p.getUrl().isBlank() ? p.getUrl() : url)
+        .clientId(p.getClientId())
+        .clientSecret(p.getClientSecret())
+        .scope(p.getScope())
+        .audience(p.getAudience())
+        .build();
+  }
+
+  /**
+   * Servir el último token bueno cuando ya ha caducado (según nuestro margen) y el IdP va lento o
+   * está caído: dentro de la ventana de gracia se devuelve el token viejo y se reintenta el refresco
+   * en segundo plano; solo se falla cuando se agota la ventana.
+   */
+  @Getter
+  @Setter
+  public static class Stale {
+
+    /** Ventana tras "expiresAt" en la que se sigue sirviendo el token anterior (0 = desactivado). */
+    @NotNull
+    private Duration grace = Duration.ZERO;
+
+    /** Mínimo entre reintentos de refresco en segundo plano mientras se sirve el token anterior. */
+    @NotNull
+    private Duration retryInterval = Duration.ofSeconds(1);
+
+  }
+
+  /**
+   * Protección de la llamada al endpoint de token: timeout por intento, reintentos con backoff
+   * exponencial y jitter solo para errores transitorios (5xx, 408, 429, timeout, E/S) y un circuit
+   * breaker por perfil que falla al momento mientras el IdP no responde.
+   */
+  @Getter
+  @Setter
+  public static class Resilience {
+
+    /** Tiempo máximo de cada intento (petición + respuesta). */
+    @NotNull
+    private Duration attemptTimeout = Duration.ofSeconds(10);
+
+    /** Reintentos tras el primer intento (0 = sin reintentos). */
+    @Min(0)
+    private int maxRetries = 0;
+
+    @NotNull
+    private Duration minBackoff = Duration.ofMillis(200);
+
+    @NotNull
+    private Duration maxBackoff = Duration.ofSeconds(2);
+
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double jitter = 0.5;
+
+    @Valid
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    @Getter
+    @Setter
+    public static class CircuitBreaker {
+
+      private boolean enabled = true;
+
+      /** Fallos transitorios seguidos que abren el circuito. */
+      @Min(1)
+      private int failureThreshold = 5;
+
+      /** Tiempo que el circuito permanece abierto antes de dejar pasar llamadas de prueba. */
+      @NotNull
+      private Duration openDuration = Duration.ofSeconds(30);
+
+      /** Llamadas de prueba permitidas en HALF_OPEN. */
+      @Min(1)
+      private int halfOpenCalls = 1;
+
+    }
+
+  }
+
+  /**
+   * Copia cifrada en disco de los tokens en caché: al reiniciar, un token aún válido se sirve sin ir
+   * al IdP y solo se refresca cerca de su expiración.
+   */
+  @Getter
+  @Setter
+  public static class Snapshot {
+
+    private boolean enabled = false;
+
+    /** Fichero de la copia (se reescribe de forma atómica en cada refresco). */
+    @NotBlank
+    private String path = "token-snapshot.bin";
+
+    /** Clave AES (128/192/256 bits) en Base64. Obligatoria si enabled. */
+    private String key;
+
+    /** Al cargar se descartan los tokens a los que les quede menos que esto. */
+    @NotNull
+    private Duration minRemaining = Duration.ofSeconds(30);
+
+  }
+
+  /**
+   * Almacén compartido (L2) entre réplicas: solo una pide cada token al IdP (la que consigue el
+   * lease) y el resto lo lee del almacén.
+   */
+  @Getter
+  @Setter
+  public static class Store {
+
+    public enum Type { NONE, MEMORY, FILE }
+
+    /** NONE = cada réplica con sus tokens; MEMORY = solo en este proceso (pruebas); FILE = directorio compartido. */
+    @NotNull
+    private Type type = Type.NONE;
+
+    /** Directorio del almacén FILE. */
+    private String dir = "token-store";
+
+    /** Clave AES en Base64 con la que se cifran los tokens del almacén FILE. */
+    private String key;
+
+    /** Duración máxima del lease de refresco (si el dueño muere, otro nodo refresca pasado este tiempo). */
+    @NotNull
+    private Duration leaseTtl = Duration.ofSeconds(10);
+
+    /** Cuánto espera una réplica sin lease al token de la que lo tiene antes de pedirlo ella misma. */
+    @NotNull
+    private Duration leaseWait = Duration.ofSeconds(5);
+
+    /** Cada cuánto se consulta el almacén mientras se espera. */
+    @NotNull
+    private Duration pollInterval = Duration.ofMillis(100);
+
+  }
+
+  /**
+   * Recarga en caliente de credenciales desde un fichero (YAML o .properties con la misma estructura
+   * app.auth.*: url, clientId, clientSecret, scope, profiles). Lo que no venga en el fichero conserva
+   * su valor. También se puede forzar con POST /actuator/authreload.
+   */
+  @Getter
+  @Setter
+  public static class Reload {
+
+    private boolean enabled = false;
+
+    /** Fichero vigilado (p. ej. un Secret montado en Kubernetes). */
+    private String file;
+
+    /** Cada cuánto se comprueba si el contenido del fichero ha cambiado. */
+    @NotNull
+    private Duration interval = Duration.ofSeconds(5);
+
+  }
+
+  @Getter
+  @Setter
+  public static class Profile {
+
+    /** Endpoint de token; si no se indica se usa app.auth.url. */
+    private String url;
+
+    @NotBlank
+    private String clientId;
+
+    @NotBlank
+    private String clientSecret;
+
+    private String scope;
+
+    private String audience;
+
+  }
+
+  /**
+   * Vida local de cada token (ver {@link DefaultTokenTtlPolicy}): la menor entre expires_in y el
+   * claim "exp" del JWT (o defaultLifetime si no viene ninguno), menos el margen y un jitter
+   * aleatorio para que las réplicas no refresquen todas a la vez.
+   */
+  @Getter
+  @Setter
+  public static class Ttl {
+
+    /** Leer el claim "exp" si el access token es un JWT (no se verifica la firma). */
+    private boolean jwtExp = true;
+
+    /** Vida supuesta si el IdP no manda expires_in y el token no es un JWT con "exp". */
+    @NotNull
+    private Duration defaultLifetime = Duration.ofMinutes(5);
+
+    /** Margen fijo antes de la expiración real. */
+    @NotNull
+    private Duration skew = Duration.ofSeconds(30);
+
+    /** Margen proporcional a la vida del token (0.1 = 10%); se aplica el mayor de los dos márgenes. */
+    @DecimalMin("0.0")
+    @DecimalMax("0.5")
+    private double skewRatio = 0.0;
+
+    /** Fracción máxima del TTL que se resta al azar en cada token (0 = sin jitter). */
+    @DecimalMin("0.0")
+    @DecimalMax("0.5")
+    private double jitter = 0.1;
+
+    /** TTL mínimo, aunque el token llegue casi caducado. */
+    @NotNull
+    private Duration min = Duration.ofSeconds(1);
+
+  }
+
+  /** Refresco anticipado: se pide el nuevo token en segundo plano antes de que caduque el actual. */
+  @Getter
+  @Setter
+  public static class RefreshAhead {
+
+    private boolean enabled = true;
+
+    /** Fracción del TTL a partir de la cual se refresca (0.8 = al 80% de la vida del token). */
+    @DecimalMin("0.1")
+    @DecimalMax("0.95")
+    private double ratio = 0.8;
+
+    /** Espera inicial entre reintentos si el refresco falla. */
+    @NotNull
+    private Duration minBackoff = Duration.ofSeconds(1);
+
+    /** Espera máxima entre reintentos. */
+    @NotNull
+    private Duration maxBackoff = Duration.ofSeconds(30);
+
+    /** Jitter aplicado al backoff (0 = sin jitter, 1 = hasta el 100%). */
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double jitter = 0.5;
+
+  }
 
 }
@@ -0,0 +1,33 @@
+package com.example.demo;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+
+/** API bloqueante ({@link BlockingTokenService}, {@link BlockingUsersClient}) para código no reactivo. */
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "app.blocking")
+@Validated
+public class BlockingProperties {
+
+  /** Espera máxima de cada llamada bloqueante. */
+  @NotNull
+  private Duration timeout = Duration.ofSeconds(30);
+
+  /** Ejecutar las tareas de submit* en hilos virtuales (si la JVM es 21+). */
+  private boolean virtualThreads = true;
+
+  /** Hilos de plataforma para submit* cuando no hay hilos virtuales. */
+  @Min(1)
+  private int platformThreads = 64;
+
+}
@@ -0,0 +1,56 @@
+package com.example.demo;
+
+import java.time.Duration;
+
+import org.springframework.stereotype.Component;
+
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Fachada bloqueante de {@link TokenService} para código no reactivo (jobs JDBC, etc.). Comparte la
+ * misma caché y el mismo refresco single-flight: un acierto se resuelve en el propio hilo sin
+ * suscribirse a nada y un fallo espera al refresco en curso. Pensada para hilos virtuales (esperar no
+ * ocupa un hilo de plataforma); desde un hilo del event loop se rechaza en vez de bloquearlo.
+ */
+@Component
+public class BlockingTokenService {
+
+	private final TokenService tokenService;
+	private final BlockingProperties props;
+
+	public BlockingTokenService(TokenService tokenService, BlockingProperties props) {
+		this.tokenService = tokenService;
+		this.props = props;
+	}
+
+	/** Header Authorization completo ("Bearer xxx") del perfil por defecto. */
+	public String getValidToken() {
+		return getValidToken(AuthProperties.DEFAULT_PROFILE);
+	}
+
+	public String getValidToken(String profile) {
+		return getValidTokenValue(profile).getToken();
+	}
+
+	public TokenCacheValue getValidTokenValue(String profile) {
+		requireBlockingAllowed("BlockingTokenService.getValidToken");
+		TokenCacheValue cached = tokenService.lookup(profile);
+		if (cached != null) {
+			return cached;
+		}
+		return tokenService.getValidTokenValue(profile).block(timeout());
+	}
+
+	private Duration timeout() {
+		return props.getTimeout();
+	}
+
+	/** Rechaza la llamada si el hilo actual no puede bloquear (event loop de Netty, Schedulers.parallel...). */
+	static void requireBlockingAllowed(String operation) {
+		if (Schedulers.isInNonBlockingThread()) {
+			throw new IllegalStateException(operation + " bloquea y se ha llamado desde un hilo que no puede bloquear ("
+					+ Thread.currentThread().getName() + "); usa la API reactiva");
+		}
+	}
+
+}
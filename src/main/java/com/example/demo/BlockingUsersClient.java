@@ -0,0 +1,59 @@
+package com.example.demo;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+
+/**
+ * Fachada bloqueante de {@link UsersClient} (mismo token en caché, mismo reintento tras 401). Las
+ * variantes submit* ejecutan la llamada en un hilo virtual (Java 21+, ver app.blocking) para que un
+ * job pueda lanzar miles de altas a la vez sin un pool de hilos de plataforma del mismo tamaño.
+ */
+@Slf4j
+@Component
+public class BlockingUsersClient {
+
+	private final UsersClient client;
+	private final BlockingProperties props;
+	private final ExecutorService executor;
+
+	public BlockingUsersClient(UsersClient client, BlockingProperties props) {
+		this.client = client;
+		this.props = props;
+		this.executor = VirtualThreads.newExecutor("users-blocking-", props.isVirtualThreads(), props.getPlatformThreads());
+		log.info("BlockingUsersClient con {}", props.isVirtualThreads() && VirtualThreads.available()
+				? "hilos virtuales" : props.getPlatformThreads() + " hilos de plataforma");
+	}
+
+	public String addUser(Object payload) {
+		return addUser(payload, null);
+	}
+
+	public String addUser(Object payload, String idempotencyKey) {
+		BlockingTokenService.requireBlockingAllowed("BlockingUsersClient.addUser");
+		return client.addUser(payload, idempotencyKey).block(props.getTimeout());
+	}
+
+	/** Alta en lote (un token y concurrencia limitada, como POST /api/users/batch); resultados en orden de llegada. */
+	public List<UserBatchResult> addUsers(List<?> payloads) {
+		BlockingTokenService.requireBlockingAllowed("BlockingUsersClient.addUsers");
+		return client.addUsers(Flux.fromIterable(payloads)).collectList().block(props.getTimeout());
+	}
+
+	/** {@link #addUser(Object)} en un hilo del ejecutor (virtual si se puede). */
+	public CompletableFuture<String> submitAddUser(Object payload) {
+		return CompletableFuture.supplyAsync(() -> addUser(payload), executor);
+	}
+
+	@PreDestroy
+	public void close() {
+		executor.shutdown();
+	}
+
+}
@@ -1,7 +1,9 @@
 package com.example.demo;
 
+import com.github.benmanes.caffeine.cache.AsyncCache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Ticker;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -9,54 +11,90 @@ import com.github.benmanes.caffeine.cache.Cache;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
-import java.time.Duration;
-import java.time.Instant;
-
 @Slf4j
 @Configuration
 public class CaffeineConfig {
 
   /**
-   * Cache con expiración por-entrada: cada token expira exactamente en su "expiresAt".
-   * Se fuerza un mínimo de 1 segundo y un pequeño margen de seguridad.
+   * Reloj monotónico único para las expiraciones de los tokens: lo usan la caché y {@link TokenService}
+   * (nunca Instant.now(), que salta si NTP corrige la hora). En las pruebas se sustituye por uno manual.
    */
   @Bean
-  Cache<String, TokenCacheValue> tokenCache() {
-	
-    Expiry<String, TokenCacheValue> expiry = new Expiry<>() {
-      private static final Duration SAFETY = Duration.ofSeconds(5);
-      
+  Ticker tokenTicker() {
+    return Ticker.systemTicker();
+  }
+
+  /**
+   * Política de TTL de los tokens (app.auth.ttl). Para usar otra basta con declarar un bean
+   * {@link TokenTtlPolicy} propio marcado como {@code @Primary}.
+   */
+  @Bean
+  TokenTtlPolicy tokenTtlPolicy(AuthProperties props) {
+    return new DefaultTokenTtlPolicy(props);
+  }
 
+  /**
+   * Cache con expiración por-entrada: cada token se conserva lo que diga la {@link TokenTtlPolicy}
+   * (hasta su "expiresAt", que ya incluye el margen, más la gracia de app.auth.stale.grace).
+   * La clave es el nombre del perfil de credenciales.
+   */
+  @Bean
+  Cache<String, TokenCacheValue> tokenCache(AuthProperties props, TokenTtlPolicy ttlPolicy, Ticker ticker) {
+
+    // currentTime es el tokenTicker, el mismo reloj con el que TokenService calcula expiresAtNanos
+    Expiry<String, TokenCacheValue> expiry = new Expiry<>() {
       @Override
       public long expireAfterCreate(String key, TokenCacheValue value, long currentTime) {
-        return nanosUntil(value);
+        return ttlPolicy.retainNanos(value, currentTime);
       }
 
       @Override
       public long expireAfterUpdate(String key, TokenCacheValue value, long currentTime, long currentDuration) {
-        return nanosUntil(value);
+        return ttlPolicy.retainNanos(value, currentTime);
       }
 
       @Override
       public long expireAfterRead(String key, TokenCacheValue value, long currentTime, long currentDuration) {
         return currentDuration;
       }
-
-      private long nanosUntil(TokenCacheValue value) {
-        Instant now = Instant.now();
-        Instant target = value.getExpiresAt().minus(SAFETY);
-        long nanos = Duration.between(now, target).toNanos();
-        if (nanos < Duration.ofSeconds(1).toNanos()) {
-          return Duration.ofSeconds(1).toNanos();
-        }
-        return nanos;
-      }
     };
 
     return Caffeine.newBuilder()
         .expireAfter(expiry)
-        .maximumSize(1) // solo necesitamos 1 entrada
+        .ticker(ticker)
+        .maximumSize(props.getCacheMaximumSize()) // una entrada por perfil de credenciales
+        .recordStats() // hit/miss/evictions, se publican en TokenMetrics
         .build();
   }
-  
+
+  /**
+   * Respuestas de las altas con Idempotency-Key (ver {@link IdempotentResponses}). Los valores son
+   * futuros: quien llega con una clave en vuelo espera ese mismo resultado. Expiran "ttl" después de
+   * guardarse y se pesan por bytes; cada entrada pesa al menos maximumWeight / maximumSize, así nunca
+   * hay más de maximumSize aunque las respuestas sean pequeñas.
+   */
+  @Bean
+  AsyncCache<String, IdempotentResponse> idempotencyCache(UsersProperties users, Ticker ticker) {
+    UsersProperties.Idempotency cfg = users.getIdempotency();
+    long maximumWeight = cfg.getMaximumWeight().toBytes();
+    int minWeight = (int) Math.min(Integer.MAX_VALUE, Math.max(1, maximumWeight / cfg.getMaximumSize()));
+
+    return Caffeine.newBuilder()
+        .expireAfterWrite(cfg.getTtl())
+        .maximumWeight(maximumWeight)
+        .weigher((String key, IdempotentResponse r) -> Math.max(minWeight, r.weight()))
+        .ticker(ticker)
+        .recordStats()
+        .buildAsync();
+  }
+
+  /** Con la política por defecto y el reloj del sistema (pruebas y benchmarks). */
+  Cache<String, TokenCacheValue> tokenCache(AuthProperties props) {
+    return tokenCache(props, Ticker.systemTicker());
+  }
+
+  Cache<String, TokenCacheValue> tokenCache(AuthProperties props, Ticker ticker) {
+    return tokenCache(props, new DefaultTokenTtlPolicy(props), ticker);
+  }
+
 }
@@ -0,0 +1,26 @@
+package com.example.demo;
+
+import java.time.Duration;
+
+import lombok.Getter;
+
+/**
+ * El circuito del endpoint de token está abierto: se falla sin llamar al IdP.
+ */
+@Getter
+public class CircuitOpenException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String profile;
+
+	/** Tiempo que falta para que se permita la siguiente llamada de prueba. */
+	private final Duration retryAfter;
+
+	public CircuitOpenException(String profile, Duration retryAfter) {
+		super("Circuito abierto para el endpoint de token [" + profile + "]; reintento en " + retryAfter.toMillis() + "ms");
+		this.profile = profile;
+		this.retryAfter = retryAfter;
+	}
+
+}
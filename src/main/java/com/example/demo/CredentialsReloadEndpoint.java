@@ -0,0 +1,31 @@
+package com.example.demo;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+import lombok.RequiredArgsConstructor;
+import reactor.core.publisher.Mono;
+
+/**
+ * POST /actuator/authreload: relee el fichero de credenciales y rota las que hayan cambiado.
+ * Es una operación de escritura sin autenticación propia, así que no está en la exposición web por
+ * defecto: se activa con management.endpoints.web.exposure.include=...,authreload solo detrás de un
+ * puerto de gestión interno o de Spring Security.
+ */
+@Component
+@Endpoint(id = "authreload")
+@RequiredArgsConstructor
+public class CredentialsReloadEndpoint {
+
+	private final CredentialsReloader reloader;
+
+	@WriteOperation
+	public Mono<Map<String, List<String>>> reload() {
+		return reloader.reload().map(rotated -> Map.of("rotated", rotated));
+	}
+
+}
@@ -0,0 +1,165 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.context.properties.source.ConfigurationPropertySources;
+import org.springframework.boot.env.PropertiesPropertySourceLoader;
+import org.springframework.boot.env.PropertySourceLoader;
+import org.springframework.boot.env.YamlPropertySourceLoader;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.env.PropertySource;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Recarga en caliente de las credenciales del IdP (app.auth.reload). Vigila el fichero comparando su
+ * contenido cada {@code interval} (sirve también para Secrets de Kubernetes, que se cambian con un
+ * enlace simbólico) y delega la rotación en {@link TokenService#rotateCredentials}: token nuevo antes
+ * del cambio y cambio atómico, o nada si falla.
+ */
+@Slf4j
+@Component
+public class CredentialsReloader {
+
+	private final AuthProperties props;
+	private final TokenService tokenService;
+	private final TokenMetrics metrics;
+
+	/** Huella del último contenido aplicado: si no cambia no se hace nada. */
+	private volatile byte[] appliedDigest;
+	private volatile Disposable subscription;
+
+	public CredentialsReloader(AuthProperties props, TokenService tokenService, TokenMetrics metrics) {
+		this.props = props;
+		this.tokenService = tokenService;
+		this.metrics = metrics;
+	}
+
+	@EventListener(ApplicationReadyEvent.class)
+	public synchronized void start() {
+		AuthProperties.Reload cfg = props.getReload();
+		if (!cfg.isEnabled() || cfg.getFile() == null || cfg.getFile().isBlank() || subscription != null) {
+			return;
+		}
+		// la primera comprobación aplica el fichero al arrancar; si una rotación tarda, se saltan ticks
+		subscription = Flux.interval(Duration.ZERO, cfg.getInterval(), Schedulers.boundedElastic())
+				.onBackpressureDrop()
+				.concatMap(t -> reloadIfChanged()
+						.onErrorResume(e -> {
+							log.warn("Recarga de credenciales fallida, se mantienen las actuales: {}", e.toString());
+							return Mono.empty();
+						}), 1)
+				.subscribe();
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		Disposable current = subscription;
+		if (current != null) {
+			current.dispose();
+			subscription = null;
+		}
+	}
+
+	/** Relee el fichero y rota lo que haya cambiado aunque el contenido sea el ya aplicado. */
+	public Mono<List<String>> reload() {
+		return read().flatMap(content -> apply(content.bytes(), content.digest()));
+	}
+
+	Mono<List<String>> reloadIfChanged() {
+		return read()
+				.filter(content -> !Arrays.equals(content.digest(), appliedDigest))
+				.flatMap(content -> apply(content.bytes(), content.digest()));
+	}
+
+	private Mono<List<String>> apply(byte[] bytes, byte[] digest) {
+		return Mono.fromCallable(() -> resolve(bytes))
+				.flatMap(tokenService::rotateCredentials)
+				.doOnNext(rotated -> {
+					appliedDigest = digest;
+					metrics.credentialsReload(rotated.isEmpty() ? "unchanged" : "rotated");
+				})
+				.doOnError(e -> metrics.credentialsReload("failed"));
+	}
+
+	private Mono<Content> read() {
+		return Mono.fromCallable(() -> {
+			String file = props.getReload().getFile();
+			if (file == null || file.isBlank()) {
+				throw new IllegalStateException("app.auth.reload.file no configurado");
+			}
+			byte[] bytes = Files.readAllBytes(Path.of(file));
+			return new Content(bytes, sha256(bytes));
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+
+	/**
+	 * Credenciales resultantes: las de la configuración con lo que traiga el fichero encima
+	 * (mismas claves que app.auth.*, con binding relajado).
+	 */
+	Map<String, AuthProfile> resolve(byte[] content) throws IOException {
+		String file = props.getReload().getFile();
+		PropertySourceLoader loader = file.endsWith(".properties")
+				? new PropertiesPropertySourceLoader()
+				: new YamlPropertySourceLoader();
+		List<PropertySource<?>> sources = loader.load("auth-credentials", new ByteArrayResource(content, file));
+
+		AuthProperties merged = credentialsOf(props);
+		new Binder(ConfigurationPropertySources.from(sources)).bind("app.auth", Bindable.ofInstance(merged));
+
+		Map<String, AuthProfile> resolved = new LinkedHashMap<>();
+		resolved.put(AuthProperties.DEFAULT_PROFILE, merged.profile(AuthProperties.DEFAULT_PROFILE));
+		merged.getProfiles().keySet().forEach(name -> resolved.put(name, merged.profile(name)));
+		return resolved;
+	}
+
+	/** Copia solo de las credenciales, para no tocar la configuración viva al aplicar el fichero. */
+	private static AuthProperties credentialsOf(AuthProperties source) {
+		AuthProperties copy = new AuthProperties();
+		copy.setUrl(source.getUrl());
+		copy.setClientId(source.getClientId());
+		copy.setClientSecret(source.getClientSecret());
+		copy.setScope(source.getScope());
+		source.getProfiles().forEach((name, p) -> {
+			AuthProperties.Profile c = new AuthProperties.Profile();
+			c.setUrl(p.getUrl());
+			c.setClientId(p.getClientId());
+			c.setClientSecret(p.getClientSecret());
+			c.setScope(p.getScope());
+			c.setAudience(p.getAudience());
+			copy.getProfiles().put(name, c);
+		});
+		return copy;
+	}
+
+	private static byte[] sha256(byte[] bytes) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(bytes);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private record Content(byte[] bytes, byte[] digest) {
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.web.server.ServerWebInputException;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+/**
+ * Plazo de una petición entrante, propagado por el Context de Reactor hasta las llamadas salientes
+ * (que se cortan al agotarlo y lo reenvían como tiempo restante en {@link #HEADER}).
+ */
+public final class Deadline {
+
+	/** Tiempo disponible para la petición: milisegundos ("1500") o duración ("2s"). */
+	public static final String HEADER = "X-Request-Timeout";
+
+	private static final Class<Deadline> KEY = Deadline.class;
+
+	private final long expiresAtNanos;
+
+	private Deadline(long expiresAtNanos) {
+		this.expiresAtNanos = expiresAtNanos;
+	}
+
+	public static Deadline after(Duration timeout) {
+		return new Deadline(System.nanoTime() + timeout.toNanos());
+	}
+
+	/**
+	 * Plazo indicado en la cabecera {@link #HEADER}; null si no viene. Un valor que no se entiende es
+	 * un error del cliente: {@link ServerWebInputException} (400).
+	 */
+	public static Deadline fromHeader(String value) {
+		if (value == null || value.isBlank()) {
+			return null;
+		}
+		try {
+			return after(DurationStyle.detectAndParse(value.trim()));
+		} catch (IllegalArgumentException e) {
+			throw new ServerWebInputException("Cabecera " + HEADER + " inválida: " + value, null, e);
+		}
+	}
+
+	/** Para {@code contextWrite}: añade el plazo de la cabecera (si viene) al Context. */
+	public static Function<Context, Context> propagate(String headerValue) {
+		Deadline deadline = fromHeader(headerValue);
+		return ctx -> deadline == null ? ctx : ctx.put(KEY, deadline);
+	}
+
+	public static Context put(Context ctx, Deadline deadline) {
+		return ctx.put(KEY, deadline);
+	}
+
+	/** Plazo del Context; null si la petición no tiene. */
+	public static Deadline from(ContextView ctx) {
+		return ctx.getOrDefault(KEY, null);
+	}
+
+	public Duration remaining() {
+		long nanos = expiresAtNanos - System.nanoTime();
+		return nanos > 0 ? Duration.ofNanos(nanos) : Duration.ZERO;
+	}
+
+	public boolean isExpired() {
+		return expiresAtNanos - System.nanoTime() <= 0;
+	}
+
+}
@@ -0,0 +1,113 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Base64;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Política de TTL configurada en app.auth.ttl:
+ * <ol>
+ * <li>vida = la menor entre expires_in y "exp" del JWT (decodificado en local, sin verificar la firma:
+ * solo sirve para saber cuándo pedir otro); si no hay ninguna, defaultLifetime;</li>
+ * <li>menos el margen, el mayor entre skew y skewRatio x vida, nunca más de la mitad de la vida;</li>
+ * <li>menos un jitter al azar de hasta jitter x TTL, para que las réplicas que pidieron el token a la
+ * vez no lo refresquen todas en el mismo instante.</li>
+ * </ol>
+ * Se leen las propiedades en cada token, así los cambios en AuthProperties se aplican al siguiente refresco.
+ */
+@Slf4j
+public class DefaultTokenTtlPolicy implements TokenTtlPolicy {
+
+	private static final JsonFactory JSON = new JsonFactory();
+	private static final long MIN_RETAIN_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final AuthProperties props;
+	private final DoubleSupplier random;
+
+	public DefaultTokenTtlPolicy(AuthProperties props) {
+		this(props, () -> ThreadLocalRandom.current().nextDouble());
+	}
+
+	/** {@code random} devuelve valores en [0, 1); en las pruebas se fija para que el jitter sea predecible. */
+	DefaultTokenTtlPolicy(AuthProperties props, DoubleSupplier random) {
+		this.props = props;
+		this.random = random;
+	}
+
+	@Override
+	public Duration ttl(String accessToken, Long expiresIn) {
+		AuthProperties.Ttl cfg = props.getTtl();
+		long lifetimeMillis = lifetimeMillis(cfg, accessToken, expiresIn);
+
+		long skewMillis = Math.max(cfg.getSkew().toMillis(), (long) (lifetimeMillis * cfg.getSkewRatio()));
+		long ttlMillis = lifetimeMillis - Math.min(skewMillis, lifetimeMillis / 2);
+		ttlMillis -= (long) (ttlMillis * cfg.getJitter() * random.getAsDouble());
+
+		return Duration.ofMillis(Math.max(cfg.getMin().toMillis(), ttlMillis));
+	}
+
+	@Override
+	public long retainNanos(TokenCacheValue value, long currentTime) {
+		// con ventana de gracia se conserva hasta expiresAt + gracia para poder servirlo caducado
+		long target = value.getExpiresAtNanos() + props.getStale().getGrace().toNanos();
+		return Math.max(MIN_RETAIN_NANOS, target - currentTime);
+	}
+
+	private static long lifetimeMillis(AuthProperties.Ttl cfg, String accessToken, Long expiresIn) {
+		Long jwt = cfg.isJwtExp() ? jwtLifetimeMillis(accessToken, System.currentTimeMillis()) : null;
+		Long declared = expiresIn != null ? TimeUnit.SECONDS.toMillis(expiresIn) : null;
+		if (declared == null && jwt == null) {
+			log.debug("Sin expires_in ni claim exp en el token; se supone una vida de {}", cfg.getDefaultLifetime());
+			return cfg.getDefaultLifetime().toMillis();
+		}
+		long lifetime = declared == null ? jwt : jwt == null ? declared : Math.min(declared, jwt);
+		return Math.max(0, lifetime);
+	}
+
+	/**
+	 * Milisegundos hasta el claim "exp" si el token es un JWT (header.payload.firma); null si no lo es o
+	 * no trae "exp". No se valida la firma: el token solo lo comprueba quien lo recibe.
+	 */
+	static Long jwtLifetimeMillis(String token, long nowMillis) {
+		if (token == null) {
+			return null;
+		}
+		int first = token.indexOf('.');
+		int second = first < 0 ? -1 : token.indexOf('.', first + 1);
+		if (second < 0) {
+			return null;
+		}
+		byte[] payload;
+		try {
+			payload = Base64.getUrlDecoder().decode(token.substring(first + 1, second));
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		try (JsonParser parser = JSON.createParser(payload)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				return null;
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String name = parser.currentName();
+				JsonToken value = parser.nextToken();
+				if ("exp".equals(name) && value.isNumeric()) {
+					return TimeUnit.SECONDS.toMillis(parser.getLongValue()) - nowMillis;
+				}
+				parser.skipChildren();
+			}
+		} catch (IOException e) {
+			log.debug("Payload JWT ilegible, se ignora el claim exp: {}", e.getMessage());
+		}
+		return null;
+	}
+
+}
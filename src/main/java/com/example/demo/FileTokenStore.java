@@ -0,0 +1,125 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * {@link TokenStore} en un directorio compartido por procesos de la misma máquina (o un volumen
+ * compartido). Cada perfil usa dos ficheros:
+ * <ul>
+ * <li>{@code <perfil>.token}: el token cifrado con el formato de {@link TokenSnapshotCodec}, reescrito
+ * con rename atómico;</li>
+ * <li>{@code <perfil>.lock}: el lease, un {@link FileLock} del sistema operativo. No caduca por tiempo
+ * pero el SO lo libera si el proceso muere, que es lo que importa aquí.</li>
+ * </ul>
+ */
+@Slf4j
+public class FileTokenStore implements TokenStore {
+
+	private final Path dir;
+	private final TokenSnapshotCodec codec;
+	private record Held(String owner, FileLock lock) {
+	}
+
+	private final ConcurrentMap<String, Held> held = new ConcurrentHashMap<>();
+
+	public FileTokenStore(Path dir, String base64Key) {
+		this.dir = dir;
+		this.codec = new TokenSnapshotCodec(base64Key);
+	}
+
+	@Override
+	public Mono<TokenCacheValue> get(String profile) {
+		return Mono.fromCallable(() -> {
+			try {
+				List<TokenSnapshotCodec.Entry> entries = codec.decode(Files.readAllBytes(file(profile, ".token")));
+				return entries.isEmpty() ? null : entries.get(0).value();
+			} catch (NoSuchFileException e) {
+				return null;
+			}
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+
+	@Override
+	public Mono<Void> put(TokenCacheValue value) {
+		return Mono.<Void>fromRunnable(() -> {
+			try {
+				Files.createDirectories(dir);
+				Path target = file(value.getProfile(), ".token");
+				Path tmp = Files.createTempFile(dir, target.getFileName().toString(), ".tmp");
+				try {
+					// sin huella de credenciales: TokenService solo adopta tokens más nuevos que el suyo
+					Files.write(tmp, codec.encode(List.of(new TokenSnapshotCodec.Entry(value, ""))));
+					try {
+						Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+					} catch (AtomicMoveNotSupportedException e) {
+						Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+					}
+				} finally {
+					Files.deleteIfExists(tmp);
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException("No se pudo publicar el token [" + value.getProfile() + "] en " + dir, e);
+			}
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+
+	/** El ttl no aplica: el lock del SO dura hasta {@link #release} o hasta que muere el proceso. */
+	@Override
+	public Mono<Boolean> tryLease(String profile, String owner, Duration ttl) {
+		return Mono.fromCallable(() -> {
+			Files.createDirectories(dir);
+			FileChannel channel = FileChannel.open(file(profile, ".lock"),
+					StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			boolean leased = false;
+			try {
+				FileLock lock = channel.tryLock();
+				leased = lock != null && held.putIfAbsent(profile, new Held(owner, lock)) == null;
+				// si no nos lo quedamos, cerrar el canal libera también el lock
+			} catch (OverlappingFileLockException e) {
+				// ya lo tiene otro TokenService de esta misma JVM
+			} finally {
+				if (!leased) {
+					channel.close(); // en todos los caminos sin lease, también si tryLock lanza IOException
+				}
+			}
+			return leased;
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+
+	@Override
+	public Mono<Void> release(String profile, String owner) {
+		return Mono.<Void>fromRunnable(() -> {
+			Held h = held.get(profile);
+			if (h != null && h.owner().equals(owner) && held.remove(profile, h)) {
+				try {
+					h.lock().release();
+					h.lock().channel().close();
+				} catch (IOException e) {
+					log.warn("No se pudo liberar el lease [{}]: {}", profile, e.toString());
+				}
+			}
+		}).subscribeOn(Schedulers.boundedElastic());
+	}
+
+	private Path file(String profile, String suffix) {
+		return dir.resolve(profile.replaceAll("[^A-Za-z0-9._-]", "_") + suffix);
+	}
+
+}
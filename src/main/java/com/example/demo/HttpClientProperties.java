@@ -0,0 +1,134 @@
+package com.example.demo;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.AssertTrue;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Pool de conexiones y timeouts por destino: el endpoint de token y el API de usuarios no
+ * comparten conexiones, así el POST de token no hace cola detrás del tráfico de usuarios.
+ */
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "app.http")
+@Validated
+public class HttpClientProperties {
+
+  @Valid
+  private Destination token = Destination.of(10, 100);
+
+  @Valid
+  private Destination api = Destination.of(500, 1000);
+
+  @Getter
+  @Setter
+  public static class Destination {
+
+    /** Conexiones máximas del pool. */
+    @Min(1)
+    private int maxConnections;
+
+    /** Peticiones que pueden esperar una conexión libre (-1 = sin límite; 0 no es válido). */
+    private int pendingAcquireMaxCount;
+
+    /** Espera máxima por una conexión libre del pool. */
+    @NotNull
+    private Duration pendingAcquireTimeout = Duration.ofSeconds(5);
+
+    /** Se cierra una conexión que lleve este tiempo ociosa. */
+    @NotNull
+    private Duration maxIdleTime = Duration.ofSeconds(30);
+
+    /** Vida máxima de una conexión (para repartir carga tras DNS/LB). */
+    @NotNull
+    private Duration maxLifeTime = Duration.ofMinutes(5);
+
+    /** Cada cuánto se revisan en segundo plano las conexiones ociosas/caducadas (0 = desactivado). */
+    @NotNull
+    private Duration evictInBackground = Duration.ofSeconds(30);
+
+    @NotNull
+    private Duration connectTimeout = Duration.ofSeconds(2);
+
+    /**
+     * Tiempo máximo sin recibir nada de la respuesta desde que se envía la petición (entre lecturas,
+     * también mientras llega el cuerpo). Solo se aplica durante la petición, no a conexiones ociosas.
+     */
+    @NotNull
+    private Duration responseTimeout = Duration.ofSeconds(5);
+
+    /** Tiempo máximo de cada escritura mientras se envía la petición. */
+    @NotNull
+    private Duration writeTimeout = Duration.ofSeconds(10);
+
+    private boolean keepAlive = true;
+
+    /** Negocia HTTP/2 (vía ALPN, solo con https) con vuelta a HTTP/1.1. */
+    private boolean http2 = false;
+
+    @Valid
+    private RateLimit rateLimit = new RateLimit();
+
+    @AssertTrue(message = "pendingAcquireMaxCount debe ser -1 (sin límite) o mayor que 0")
+    public boolean isPendingAcquireMaxCountValid() {
+      return pendingAcquireMaxCount == -1 || pendingAcquireMaxCount > 0;
+    }
+
+    static Destination of(int maxConnections, int pendingAcquireMaxCount) {
+      Destination d = new Destination();
+      d.setMaxConnections(maxConnections);
+      d.setPendingAcquireMaxCount(pendingAcquireMaxCount);
+      return d;
+    }
+
+  }
+
+  /**
+   * Límite de peticiones salientes al destino (ver {@link RateLimiter}): token bucket de
+   * {@code permitsPerSecond} con ráfagas de hasta {@code burst}. Lo que no cabe espera su turno hasta
+   * {@code maxWait} y, si no, se descarta con 429 sin llegar a enviarse. Aunque esté desactivado, un 429
+   * del destino con Retry-After frena todas las peticiones a ese destino hasta entonces.
+   */
+  @Getter
+  @Setter
+  public static class RateLimit {
+
+    private boolean enabled = false;
+
+    @DecimalMin(value = "0", inclusive = false)
+    private double permitsPerSecond = 100;
+
+    /** Peticiones que pueden salir de golpe tras un rato sin tráfico. */
+    @Min(1)
+    private int burst = 20;
+
+    /** Espera máxima por un permiso (en cola) antes de descartar la petición. */
+    @NotNull
+    private Duration maxWait = Duration.ofSeconds(1);
+
+    /** Pausa tras un 429 sin Retry-After. */
+    @NotNull
+    private Duration defaultRetryAfter = Duration.ofSeconds(1);
+
+    /** Tope de la pausa que se acepta de un Retry-After. */
+    @NotNull
+    private Duration maxRetryAfter = Duration.ofSeconds(60);
+
+    /** Reintentos tras un 429 del API de usuarios (el endpoint de token usa app.auth.resilience). */
+    @Min(0)
+    private int maxRetries = 1;
+
+  }
+
+}
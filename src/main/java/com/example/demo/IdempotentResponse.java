@@ -0,0 +1,72 @@
+package com.example.demo;
+
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatusCode;
+import org.springframework.http.ResponseEntity;
+
+import reactor.core.publisher.Flux;
+
+/**
+ * Respuesta de un alta ya leída entera (estado, cabeceras y bytes del cuerpo) para guardarla en la
+ * caché de idempotencia y reenviarla tal cual a los reintentos con la misma Idempotency-Key.
+ */
+record IdempotentResponse(HttpStatusCode status, HttpHeaders headers, byte[] body) {
+
+	/** Cabecera que marca una respuesta servida desde la caché en lugar de un POST nuevo. */
+	static final String REPLAYED = "Idempotent-Replayed";
+
+	/** Estimación fija de lo que ocupan el registro, la clave y las cabeceras además del cuerpo. */
+	private static final int OVERHEAD_BYTES = 256;
+
+	/** Respuesta con el cuerpo ya leído entero en {@code buffers} (que se liberan) y copia de las cabeceras. */
+	static IdempotentResponse of(ResponseEntity<?> entity, List<DataBuffer> buffers) {
+		HttpHeaders headers = HttpHeaders.readOnlyHttpHeaders(new HttpHeaders(entity.getHeaders()));
+		int size = 0;
+		for (DataBuffer buffer : buffers) {
+			size += buffer.readableByteCount();
+		}
+		byte[] bytes = new byte[size];
+		int offset = 0;
+		for (DataBuffer buffer : buffers) {
+			try {
+				int n = buffer.readableByteCount();
+				buffer.read(bytes, offset, n);
+				offset += n;
+			} finally {
+				DataBufferUtils.release(buffer);
+			}
+		}
+		return new IdempotentResponse(entity.getStatusCode(), headers, bytes);
+	}
+
+	/** Peso en la caché: bytes del cuerpo más una estimación de cabeceras. */
+	int weight() {
+		int headerBytes = 0;
+		for (Map.Entry<String, List<String>> h : headers.entrySet()) {
+			headerBytes += h.getKey().length();
+			for (String value : h.getValue()) {
+				headerBytes += value.length();
+			}
+		}
+		return OVERHEAD_BYTES + headerBytes + body.length;
+	}
+
+	/** Nueva respuesta con los mismos bytes; {@code replayed} añade {@value #REPLAYED}: true. */
+	ResponseEntity<Flux<DataBuffer>> toEntity(boolean replayed) {
+		HttpHeaders out = new HttpHeaders();
+		out.addAll(headers);
+		if (replayed) {
+			out.set(REPLAYED, "true");
+		}
+		// envoltura nueva por respuesta: el byte[] se comparte, la posición de lectura no
+		Flux<DataBuffer> content = Flux.defer(() -> Flux.just(DefaultDataBufferFactory.sharedInstance.wrap(body)));
+		return new ResponseEntity<>(content, out, status);
+	}
+
+}
@@ -0,0 +1,139 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Altas idempotentes por Idempotency-Key sobre la caché asíncrona de {@link CaffeineConfig}: la
+ * primera petición con una clave guarda el futuro de su respuesta, así las simultáneas se unen a esa
+ * misma llamada y los reintentos posteriores la reciben sin repetir el POST (con
+ * {@value IdempotentResponse#REPLAYED}: true). Si la llamada falla, Caffeine retira la entrada y el
+ * siguiente reintento vuelve a intentarlo. Solo se leen en memoria cuerpos de hasta maxBodySize.
+ *
+ * <p>Métricas de la caché (hit/miss, evicciones, tamaño) como {@code cache.*{cache=idempotencyCache}}.
+ */
+@Slf4j
+@Component
+public class IdempotentResponses {
+
+	private final AsyncCache<String, IdempotentResponse> cache;
+	private final UsersProperties props;
+	private final UsersProperties.Idempotency cfg;
+
+	public IdempotentResponses(AsyncCache<String, IdempotentResponse> idempotencyCache, UsersProperties props,
+			MeterRegistry registry) {
+		this.cache = idempotencyCache;
+		this.props = props;
+		this.cfg = props.getIdempotency();
+		CaffeineCacheMetrics.monitor(registry, idempotencyCache, "idempotencyCache");
+	}
+
+	/** true si la petición trae clave y la caché está activa. */
+	public boolean applies(String idempotencyKey) {
+		return cfg.isEnabled() && idempotencyKey != null && !idempotencyKey.isBlank();
+	}
+
+	/**
+	 * Respuesta guardada para la clave o, si no hay ninguna, la de {@code call}. La llamada se lanza
+	 * con el Context de quien llega primero (plazo incluido) y no se cancela aunque este se vaya:
+	 * justo entonces es cuando el cliente reintenta y la respuesta le tiene que estar esperando.
+	 * Quien espera una respuesta ajena lo hace como mucho hasta su propio plazo.
+	 *
+	 * <p>Solo se guardan cuerpos de hasta maxBodySize: uno mayor se reenvía en streaming a quien hizo
+	 * la llamada y no se guarda; quien estuviera esperándolo hace su propia llamada sin caché.
+	 */
+	public Mono<ResponseEntity<Flux<DataBuffer>>> execute(String idempotencyKey,
+			Supplier<Mono<ResponseEntity<Flux<DataBuffer>>>> call) {
+		return Mono.deferContextual(ctx -> {
+			boolean[] owner = { false };
+			AtomicReference<ResponseEntity<Flux<DataBuffer>>> streamed = new AtomicReference<>();
+			CompletableFuture<IdempotentResponse> response;
+			for (;;) {
+				response = cache.get(idempotencyKey, (key, executor) -> {
+					owner[0] = true;
+					return call.get()
+							.flatMap(entity -> read(entity, streamed))
+							.switchIfEmpty(Mono.error(NotReplayableException::new))
+							.contextWrite(ctx)
+							.toFuture();
+				});
+				if (owner[0] || !response.isCompletedExceptionally()) {
+					break;
+				}
+				// fallo que Caffeine aún no ha retirado (lo hace justo después de completarse): no se repite
+				cache.asMap().remove(idempotencyKey, response);
+			}
+			boolean replayed = !owner[0];
+			if (replayed) {
+				log.debug("Alta con Idempotency-Key repetida, se reutiliza la respuesta: {}", idempotencyKey);
+			}
+			Mono<ResponseEntity<Flux<DataBuffer>>> result = Mono.fromFuture(response, true)
+					.map(r -> r.toEntity(replayed))
+					.onErrorResume(NotReplayableException.class, e -> replayed ? call.get() : Mono.just(streamed.get()));
+			return withDeadline(result, Deadline.from(ctx));
+		});
+	}
+
+	/**
+	 * Lee el cuerpo hasta maxBodySize. Si cabe entero devuelve la respuesta para guardarla; si no, deja
+	 * en {@code streamed} la respuesta con lo ya leído seguido del resto (sin leerlo) y termina vacío.
+	 */
+	private Mono<IdempotentResponse> read(ResponseEntity<Flux<DataBuffer>> entity,
+			AtomicReference<ResponseEntity<Flux<DataBuffer>>> streamed) {
+		long maxBytes = cfg.getMaxBodySize().toBytes();
+		long[] size = { 0 };
+		Flux<DataBuffer> body = entity.getBody() != null ? entity.getBody() : Flux.empty();
+		return body
+				// un único lote al terminar si cabe; si no, el primero se cierra al pasar de maxBytes
+				.bufferUntil(buffer -> (size[0] += buffer.readableByteCount()) > maxBytes)
+				.switchOnFirst((first, batches) -> {
+					if (size[0] <= maxBytes) {
+						return Mono.just(IdempotentResponse.of(entity, first.hasValue() ? first.get() : List.of()));
+					}
+					log.debug("Respuesta de más de {} bytes: se reenvía sin guardarla", maxBytes);
+					streamed.set(new ResponseEntity<>(batches.concatMapIterable(Function.identity()),
+							entity.getHeaders(), entity.getStatusCode()));
+					return Mono.empty();
+				}, false) // el resto del cuerpo queda pendiente para quien lo reenvíe
+				.singleOrEmpty();
+	}
+
+	/** Acota la espera a su plazo: el de la petición o, si no trae, {@code defaultDeadline}. */
+	private <T> Mono<T> withDeadline(Mono<T> wait, Deadline inbound) {
+		Duration fallback = props.getDefaultDeadline();
+		if (inbound == null && (fallback == null || fallback.isZero())) {
+			return wait;
+		}
+		Deadline deadline = inbound != null ? inbound : Deadline.after(fallback);
+		return wait.timeout(deadline.remaining(),
+				Mono.error(() -> new DeadlineExceededException("Plazo agotado esperando la respuesta idempotente")));
+	}
+
+	/** La respuesta era demasiado grande para guardarla: cada uno la pide por su cuenta. */
+	private static final class NotReplayableException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+		NotReplayableException() {
+			super("Respuesta demasiado grande para la caché de idempotencia", null, false, false);
+		}
+
+	}
+
+}
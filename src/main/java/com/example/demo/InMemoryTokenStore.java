@@ -0,0 +1,48 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link TokenStore} en memoria del proceso: sustituto del almacén compartido para pruebas o para
+ * varios contextos en la misma JVM.
+ */
+public class InMemoryTokenStore implements TokenStore {
+
+	private record Lease(String owner, long expiresAtNanos) {
+	}
+
+	private final ConcurrentMap<String, TokenCacheValue> values = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Lease> leases = new ConcurrentHashMap<>();
+
+	@Override
+	public Mono<TokenCacheValue> get(String profile) {
+		return Mono.fromSupplier(() -> values.get(profile));
+	}
+
+	@Override
+	public Mono<Void> put(TokenCacheValue value) {
+		return Mono.fromRunnable(() -> values.merge(value.getProfile(), value,
+				(old, neu) -> neu.getIssuedAt().isBefore(old.getIssuedAt()) ? old : neu));
+	}
+
+	@Override
+	public Mono<Boolean> tryLease(String profile, String owner, Duration ttl) {
+		return Mono.fromSupplier(() -> {
+			long now = System.nanoTime();
+			Lease mine = new Lease(owner, now + ttl.toNanos());
+			Lease current = leases.compute(profile,
+					(k, l) -> l == null || l.owner().equals(owner) || l.expiresAtNanos() - now <= 0 ? mine : l);
+			return current == mine;
+		});
+	}
+
+	@Override
+	public Mono<Void> release(String profile, String owner) {
+		return Mono.fromRunnable(() -> leases.computeIfPresent(profile, (k, l) -> l.owner().equals(owner) ? null : l));
+	}
+
+}
@@ -0,0 +1,36 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Cuerpo JSON ya serializado, para payloads que se envían una y otra vez: se codifica una sola vez y
+ * cada POST envuelve los mismos bytes (solo lectura) sin volver a pasar por Jackson.
+ * Se serializa con el ObjectMapper de Spring para que apliquen {@code spring.jackson.*} y los módulos registrados.
+ */
+public final class JsonBody {
+
+	private final byte[] bytes;
+
+	private JsonBody(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	public static JsonBody of(ObjectMapper mapper, Object payload) {
+		try {
+			return new JsonBody(mapper.writeValueAsBytes(payload));
+		} catch (JsonProcessingException e) {
+			throw new IllegalArgumentException("Payload no serializable a JSON: " + payload.getClass().getName(), e);
+		}
+	}
+
+	/** Bytes compartidos: no se deben modificar. */
+	byte[] bytes() {
+		return bytes;
+	}
+
+	public int size() {
+		return bytes.length;
+	}
+
+}
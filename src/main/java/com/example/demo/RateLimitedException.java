@@ -0,0 +1,45 @@
+package com.example.demo;
+
+import java.time.Duration;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.server.ResponseStatusException;
+
+import lombok.Getter;
+
+/**
+ * Petición a un destino limitado que no se hizo (no había permiso dentro de maxWait) o que el destino
+ * rechazó con 429. Llega al cliente como 429 con Retry-After.
+ */
+@Getter
+public class RateLimitedException extends ResponseStatusException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final String destination;
+
+	/** Cuándo volver a intentarlo. */
+	private final Duration retryAfter;
+
+	/** true si el 429 lo devolvió el destino; false si se descartó aquí sin enviarla. */
+	private final boolean fromDestination;
+
+	public RateLimitedException(String destination, Duration retryAfter, boolean fromDestination) {
+		super(HttpStatus.TOO_MANY_REQUESTS, (fromDestination ? "429 de " : "Límite de peticiones a ") + destination
+				+ "; reintentar en " + retryAfter.toMillis() + " ms");
+		this.destination = destination;
+		this.retryAfter = retryAfter;
+		this.fromDestination = fromDestination;
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		HttpHeaders headers = new HttpHeaders();
+		// Retry-After va en segundos enteros: se redondea hacia arriba para no adelantarse
+		long seconds = (retryAfter.toMillis() + 999) / 1000;
+		headers.set(HttpHeaders.RETRY_AFTER, Long.toString(Math.max(1, seconds)));
+		return headers;
+	}
+
+}
@@ -0,0 +1,186 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.http.HttpHeaders;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+
+/**
+ * Token bucket sin bloqueos para las peticiones salientes a un destino (app.http.&lt;destino&gt;.rateLimit).
+ *
+ * <p>Se implementa como GCRA: en vez de un contador de fichas que se rellena, se guarda el instante
+ * teórico de la siguiente petición ({@code tat}) y cada permiso lo adelanta un intervalo (1 /
+ * permitsPerSecond) con un CAS. Una petición que llega antes de su turno espera con {@link Mono#delay}
+ * (no ocupa hilo) y, si tendría que esperar más de maxWait, se descarta con {@link RateLimitedException}.
+ *
+ * <p>Un 429 del destino adelanta {@code tat} hasta su Retry-After ({@link #pause}): todas las
+ * peticiones a ese destino esperan (o se descartan, si la pausa pasa de su maxWait) hasta entonces y
+ * luego salen a ritmo, sin ráfaga. El reintento de la petición que recibió el 429 puede esperar la
+ * pausa completa con {@link #acquireAfterRetryAfter()}.
+ */
+@Slf4j
+public class RateLimiter {
+
+	private final String destination;
+	private final HttpClientProperties.RateLimit cfg;
+	private final Ticker ticker;
+
+	/** Intervalo entre permisos (0 = sin límite, solo las pausas por 429). */
+	private final long intervalNanos;
+	/** Adelanto permitido sobre el ritmo: las burst - 1 peticiones que pueden salir de golpe además de la actual. */
+	private final long burstNanos;
+	/** Instante teórico (según el ticker) a partir del cual sale la siguiente petición sin ráfaga. */
+	private final AtomicLong tat;
+
+	private final Counter immediate;
+	private final Counter queued;
+	private final Counter shed;
+	private final Counter throttled;
+
+	public RateLimiter(String destination, HttpClientProperties.RateLimit cfg, Ticker ticker, MeterRegistry registry) {
+		this.destination = destination;
+		this.cfg = cfg;
+		this.ticker = ticker;
+		this.intervalNanos = cfg.isEnabled() ? (long) (1_000_000_000L / cfg.getPermitsPerSecond()) : 0;
+		this.burstNanos = intervalNanos * (cfg.getBurst() - 1);
+		this.tat = new AtomicLong(ticker.read());
+		this.immediate = counter(registry, "immediate");
+		this.queued = counter(registry, "queued");
+		this.shed = counter(registry, "shed");
+		this.throttled = counter(registry, "throttled");
+	}
+
+	/** Sin límite de ritmo: solo se respetan los Retry-After del destino. */
+	public static RateLimiter unlimited(String destination) {
+		return new RateLimiter(destination, new HttpClientProperties.RateLimit(), Ticker.systemTicker(),
+				new SimpleMeterRegistry());
+	}
+
+	private Counter counter(MeterRegistry registry, String result) {
+		return Counter.builder("http.client.ratelimit")
+				.description("Peticiones salientes según salgan al momento, esperen turno, se descarten o reciban 429")
+				.tag("destination", destination)
+				.tag("result", result)
+				.register(registry);
+	}
+
+	public String getDestination() {
+		return destination;
+	}
+
+	public HttpClientProperties.RateLimit getConfig() {
+		return cfg;
+	}
+
+	/** Permiso esperando como mucho maxWait. */
+	public Mono<Void> acquire() {
+		return acquire(cfg.getMaxWait());
+	}
+
+	/**
+	 * Completa cuando la petición puede salir; error {@link RateLimitedException} si tendría que esperar
+	 * más de {@code maxWait} (p. ej. lo que quede del plazo de la petición entrante).
+	 */
+	public Mono<Void> acquire(Duration maxWait) {
+		return acquire(Math.min(maxWait.toNanos(), cfg.getMaxWait().toNanos()));
+	}
+
+	/**
+	 * Permiso para reintentar una petición que recibió 429: espera lo que quede de la pausa del
+	 * Retry-After (acotada por maxRetryAfter) en lugar de descartarse por superar maxWait.
+	 */
+	public Mono<Void> acquireAfterRetryAfter() {
+		return acquire(cfg.getMaxRetryAfter().plus(cfg.getMaxWait()).toNanos());
+	}
+
+	private Mono<Void> acquire(long maxWaitNanos) {
+		return Mono.defer(() -> {
+			long wait = reserve(maxWaitNanos);
+			if (wait == 0) {
+				immediate.increment();
+				return Mono.empty();
+			}
+			if (wait > 0) {
+				queued.increment();
+				return Mono.delay(Duration.ofNanos(wait)).then();
+			}
+			shed.increment();
+			return Mono.error(new RateLimitedException(destination, Duration.ofNanos(-wait), false));
+		});
+	}
+
+	/**
+	 * Reserva el siguiente turno. Devuelve la espera en nanos (0 = ya), o menos la espera si pasa de
+	 * {@code maxWaitNanos}, en cuyo caso no se reserva nada.
+	 */
+	long reserve(long maxWaitNanos) {
+		for (;;) {
+			long now = ticker.read();
+			long current = tat.get();
+			if (intervalNanos == 0 && current - now <= 0) {
+				return 0; // sin límite ni pausa: ni siquiera se escribe
+			}
+			long base = current - now > 0 ? current : now;
+			long wait = Math.max(0, base - burstNanos - now);
+			if (wait > maxWaitNanos) {
+				return -wait;
+			}
+			if (intervalNanos == 0 || tat.compareAndSet(current, base + intervalNanos)) {
+				return wait;
+			}
+		}
+	}
+
+	/**
+	 * El destino respondió 429: nadie sale hasta pasado {@code retryAfter} (acotado por maxRetryAfter)
+	 * y después se vuelve al ritmo configurado.
+	 */
+	public void pause(Duration retryAfter) {
+		throttled.increment();
+		long pause = Math.min(retryAfter.toNanos(), cfg.getMaxRetryAfter().toNanos());
+		long target = ticker.read() + pause + burstNanos;
+		tat.accumulateAndGet(target, (a, b) -> a - b > 0 ? a : b);
+		log.warn("429 de {}: peticiones en pausa {} ms", destination, pause / 1_000_000);
+	}
+
+	/**
+	 * Retry-After de una respuesta 429: segundos o fecha HTTP; {@code defaultRetryAfter} si no viene o
+	 * no se entiende.
+	 */
+	public Duration retryAfter(HttpHeaders headers) {
+		String value = headers.getFirst(HttpHeaders.RETRY_AFTER);
+		if (value == null || value.isBlank()) {
+			return cfg.getDefaultRetryAfter();
+		}
+		try {
+			return Duration.ofSeconds(Math.max(0, Long.parseLong(value.trim())));
+		} catch (NumberFormatException e) {
+			try {
+				Duration until = Duration.between(ZonedDateTime.now(),
+						ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+				return until.isNegative() ? Duration.ZERO : until;
+			} catch (DateTimeParseException ignored) {
+				return cfg.getDefaultRetryAfter();
+			}
+		}
+	}
+
+	/** Pausa el destino según el Retry-After de la respuesta y devuelve el error que se propaga. */
+	public RateLimitedException throttled(HttpHeaders headers) {
+		Duration retryAfter = retryAfter(headers);
+		pause(retryAfter);
+		return new RateLimitedException(destination, retryAfter, true);
+	}
+
+}
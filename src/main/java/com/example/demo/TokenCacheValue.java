@@ -1,25 +1,74 @@
 package com.example.demo;
 
+import java.time.Duration;
 import java.time.Instant;
+import java.util.Objects;
+
+import com.github.benmanes.caffeine.cache.Ticker;
 
 import io.micrometer.common.lang.NonNull;
 import lombok.Builder;
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.Value;
-import lombok.With;
+import reactor.core.publisher.Mono;
 
 //Si la vas a deserializar con Jackson vía builder, añade:
 //import lombok.extern.jackson.Jacksonized;
 
 @Value			// genera: privados + final, getters, equals/hashCode, toString
-@Builder		// genera builder
-@With		// genera "withToken(...)", "withExpiresAt(...)" (útil para copiar con cambios)
 //@Jacksonized  // <-- descomenta si usas Jackson con el builder
 public class TokenCacheValue {
 
-	@Builder.Default
-	String token = ""; // valor por defecto si no lo pasas al builder
+	String profile; // perfil de credenciales al que pertenece (por defecto "default")
+
+	String token; // valor por defecto "" si no lo pasas al builder
 
-	@NonNull
 	Instant expiresAt; // requerido por el builder
 
-}
\ No newline at end of file
+	Instant issuedAt; // cuándo se obtuvo; base para el refresco anticipado (por defecto, ahora)
+
+	/**
+	 * Generación del token: crece con cada petición al IdP (se asigna al empezarla). Permite invalidar
+	 * solo el token que rechazó un 401 y que un token más antiguo no pise a uno más nuevo.
+	 */
+	long generation;
+
+	/**
+	 * Expiración en el reloj monotónico de la caché (el Ticker de CaffeineConfig): es lo que se compara
+	 * en el camino caliente, sin crear Instant/Duration en cada consulta. Obligatoria: se indica con
+	 * {@code expiresAtNanos} o con {@link TokenCacheValueBuilder#expires(Instant, Ticker)}.
+	 */
+	@EqualsAndHashCode.Exclude
+	@ToString.Exclude
+	long expiresAtNanos;
+
+	/** Mono reutilizable con el header: un acierto de caché no crea objetos nuevos. */
+	@EqualsAndHashCode.Exclude
+	@ToString.Exclude
+	Mono<String> header;
+
+	@Builder(toBuilder = true) // genera builder
+	private TokenCacheValue(String profile, String token, @NonNull Instant expiresAt, Instant issuedAt,
+			long generation, Long expiresAtNanos) {
+		this.profile = profile != null ? profile : AuthProperties.DEFAULT_PROFILE;
+		this.token = token != null ? token : "";
+		this.expiresAt = Objects.requireNonNull(expiresAt, "expiresAt");
+		this.issuedAt = issuedAt != null ? issuedAt : Instant.now();
+		this.generation = generation;
+		this.expiresAtNanos = Objects.requireNonNull(expiresAtNanos, "expiresAtNanos");
+		this.header = Mono.just(this.token);
+	}
+
+	public static class TokenCacheValueBuilder {
+
+		/** expiresAt y, a partir de ella, expiresAtNanos en el reloj {@code ticker}. */
+		public TokenCacheValueBuilder expires(Instant expiresAt, Ticker ticker) {
+			this.expiresAt = expiresAt;
+			this.expiresAtNanos = ticker.read() + Duration.between(Instant.now(), expiresAt).toNanos();
+			return this;
+		}
+
+	}
+
+}
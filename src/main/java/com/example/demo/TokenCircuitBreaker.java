@@ -0,0 +1,149 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Circuit breaker de un perfil frente al endpoint de token.
+ * <ul>
+ * <li>CLOSED: se llama normalmente; {@code failureThreshold} fallos seguidos lo abren.</li>
+ * <li>OPEN: se falla al momento con {@link CircuitOpenException} durante {@code openDuration}.</li>
+ * <li>HALF_OPEN: se dejan pasar {@code halfOpenCalls} llamadas de prueba; si salen bien se cierra,
+ * si falla alguna se vuelve a abrir.</li>
+ * </ul>
+ * Solo cuentan como fallo los errores que indican que el IdP no está sano (ver el predicado de
+ * {@link #protect}); un 400/401 por credenciales es una respuesta válida del IdP.
+ * <p>
+ * Se usa desde el event loop: bajo el monitor solo se actualizan contadores y estado, y el listener
+ * (log, métricas, sink) se avisa después de soltarlo, con el cambio ya aplicado.
+ */
+public class TokenCircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/** Cambio de estado, publicado en {@link TokenService#circuitTransitions()} y en métricas. */
+	public record Transition(String profile, State from, State to) {
+	}
+
+	private final String profile;
+	private final AuthProperties.Resilience.CircuitBreaker cfg;
+	private final Consumer<Transition> listener;
+
+	/** Se escribe bajo el monitor; se lee sin él (gauge, circuitState). */
+	private volatile State state = State.CLOSED;
+	private int failures;
+	private long openedAtNanos;
+	private int trialCalls;
+
+	public TokenCircuitBreaker(String profile, AuthProperties.Resilience.CircuitBreaker cfg, Consumer<Transition> listener) {
+		this.profile = profile;
+		this.cfg = cfg;
+		this.listener = listener;
+	}
+
+	public State getState() {
+		return state;
+	}
+
+	/** Ejecuta {@code call} si el circuito lo permite y registra su resultado. */
+	public <T> Mono<T> protect(Mono<T> call, Predicate<Throwable> isFailure) {
+		if (!cfg.isEnabled()) {
+			return call;
+		}
+		return Mono.defer(() -> {
+			Duration wait = tryAcquire();
+			if (wait != null) {
+				return Mono.error(new CircuitOpenException(profile, wait));
+			}
+			return call
+					.doOnSuccess(v -> onSuccess())
+					.doOnError(e -> {
+						if (isFailure.test(e)) {
+							onFailure();
+						} else {
+							onSuccess();
+						}
+					})
+					.doOnCancel(this::onCancel);
+		});
+	}
+
+	/** null si se permite la llamada; si no, lo que falta para la siguiente prueba. */
+	private Duration tryAcquire() {
+		Transition changed = null;
+		Duration wait = null;
+		synchronized (this) {
+			long now = System.nanoTime();
+			if (state == State.OPEN) {
+				long remaining = openedAtNanos + cfg.getOpenDuration().toNanos() - now;
+				if (remaining > 0) {
+					return Duration.ofNanos(remaining);
+				}
+				changed = transition(State.HALF_OPEN);
+				trialCalls = 0;
+			}
+			if (state == State.HALF_OPEN) {
+				if (trialCalls >= cfg.getHalfOpenCalls()) {
+					wait = Duration.ZERO;
+				} else {
+					trialCalls++;
+				}
+			}
+		}
+		publish(changed);
+		return wait;
+	}
+
+	private void onSuccess() {
+		Transition changed = null;
+		synchronized (this) {
+			failures = 0;
+			if (state == State.HALF_OPEN) {
+				changed = transition(State.CLOSED);
+			}
+		}
+		publish(changed);
+	}
+
+	private void onFailure() {
+		Transition changed = null;
+		synchronized (this) {
+			if (state == State.HALF_OPEN || ++failures >= cfg.getFailureThreshold()) {
+				changed = open();
+			}
+		}
+		publish(changed);
+	}
+
+	private synchronized void onCancel() {
+		if (state == State.HALF_OPEN && trialCalls > 0) {
+			trialCalls--;
+		}
+	}
+
+	/** Con el monitor: abre (o reabre) el circuito. */
+	private Transition open() {
+		failures = 0;
+		openedAtNanos = System.nanoTime();
+		return state != State.OPEN ? transition(State.OPEN) : null;
+	}
+
+	/** Con el monitor: cambia el estado y devuelve el cambio para avisarlo fuera. */
+	private Transition transition(State to) {
+		State from = state;
+		state = to;
+		return new Transition(profile, from, to);
+	}
+
+	private void publish(Transition changed) {
+		if (changed != null) {
+			listener.accept(changed);
+		}
+	}
+
+}
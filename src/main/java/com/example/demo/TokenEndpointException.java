@@ -0,0 +1,20 @@
+package com.example.demo;
+
+import lombok.Getter;
+
+/**
+ * Respuesta de error (4xx/5xx) del endpoint de token. Conserva el status para métricas y reintentos.
+ */
+@Getter
+public class TokenEndpointException extends IllegalStateException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int status;
+
+	public TokenEndpointException(int status, String message) {
+		super(message);
+		this.status = status;
+	}
+
+}
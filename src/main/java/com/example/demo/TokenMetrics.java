@@ -0,0 +1,208 @@
+package com.example.demo;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+/**
+ * Métricas de la caché de tokens y del refresco contra el IdP (expuestas en /actuator/prometheus).
+ * El tag "profile" solo lleva el nombre de los perfiles de app.auth.metricsProfiles (y "default"); el
+ * resto cuenta como "other" y no tiene gauges propios.
+ */
+@Component
+public class TokenMetrics {
+
+	private static final String OTHER_PROFILES = "other";
+
+	private final MeterRegistry registry;
+	private final Cache<String, TokenCacheValue> cache;
+	private final Ticker ticker;
+	private final Set<String> taggedProfiles;
+
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter stale;
+	private final Counter expiring;
+
+	public TokenMetrics(MeterRegistry registry, Cache<String, TokenCacheValue> cache) {
+		this(registry, cache, Ticker.systemTicker());
+	}
+
+	public TokenMetrics(MeterRegistry registry, Cache<String, TokenCacheValue> cache, Ticker ticker) {
+		this(registry, cache, ticker, new AuthProperties());
+	}
+
+	/** {@code ticker}: el mismo reloj monotónico que la caché y TokenService (ver CaffeineConfig#tokenTicker). */
+	@Autowired
+	public TokenMetrics(MeterRegistry registry, Cache<String, TokenCacheValue> cache, Ticker ticker, AuthProperties props) {
+		this.registry = registry;
+		this.cache = cache;
+		this.ticker = ticker;
+		Set<String> tagged = new HashSet<>(props.getMetricsProfiles());
+		tagged.add(AuthProperties.DEFAULT_PROFILE);
+		this.taggedProfiles = Set.copyOf(tagged);
+		this.hits = lookups("hit");
+		this.misses = lookups("miss");
+		this.stale = lookups("stale");
+		this.expiring = lookups("expiring");
+		CaffeineCacheMetrics.monitor(registry, cache, "tokenCache");
+	}
+
+	private Counter lookups(String result) {
+		return Counter.builder("auth.token.lookups")
+				.description("Consultas de getValidToken() según se sirvan de caché, caducadas o vayan al IdP")
+				.tag("result", result)
+				.register(registry);
+	}
+
+	public void hit() {
+		hits.increment();
+	}
+
+	public void miss() {
+		misses.increment();
+	}
+
+	public void stale() {
+		stale.increment();
+	}
+
+	/** Token vigente pero con menos vida que la pedida (minTtl): se refresca antes de usarlo. */
+	public void expiring() {
+		expiring.increment();
+	}
+
+	public long staleCount() {
+		return (long) stale.count();
+	}
+
+	public Timer.Sample startFetch() {
+		return Timer.start(registry);
+	}
+
+	/**
+	 * Cierra la medición del POST al endpoint de token y cuenta el refresco con su resultado. El timer
+	 * no lleva el perfil (el histograma por perfil multiplica las series); el contador sí.
+	 */
+	public void fetchFinished(Timer.Sample sample, String profile, Throwable error) {
+		String outcome = error == null ? "success" : "failure";
+		String status = error == null ? "200" : status(error);
+		sample.stop(Timer.builder("auth.token.fetch")
+				.description("Latencia del POST al endpoint de token")
+				.tag("outcome", outcome)
+				.publishPercentiles(0.5, 0.95, 0.99)
+				.publishPercentileHistogram()
+				.register(registry));
+		Counter.builder("auth.token.refresh")
+				.description("Refrescos de token por resultado y status HTTP")
+				.tag("profile", profileTag(profile))
+				.tag("outcome", outcome)
+				.tag("status", status)
+				.register(registry)
+				.increment();
+	}
+
+	/** Recargas de credenciales: "rotated", "unchanged" o "failed" (se siguen usando las anteriores). */
+	public void credentialsReload(String result) {
+		Counter.builder("auth.credentials.reloads")
+				.description("Recargas en caliente de las credenciales del IdP")
+				.tag("result", result)
+				.register(registry)
+				.increment();
+	}
+
+	/** Reintentos de la petición al endpoint de token tras un error transitorio. */
+	public void retry(String profile) {
+		Counter.builder("auth.token.retries")
+				.description("Reintentos de la petición de token tras un error transitorio")
+				.tag("profile", profileTag(profile))
+				.register(registry)
+				.increment();
+	}
+
+	public void circuitTransition(TokenCircuitBreaker.Transition t) {
+		Counter.builder("auth.token.circuit.transitions")
+				.description("Cambios de estado del circuit breaker del endpoint de token")
+				.tag("profile", profileTag(t.profile()))
+				.tag("from", t.from().name())
+				.tag("to", t.to().name())
+				.register(registry)
+				.increment();
+	}
+
+	/** Gauge con el estado del circuito: 0 = CLOSED, 1 = OPEN, 2 = HALF_OPEN. */
+	public void trackCircuit(String profile, TokenCircuitBreaker breaker) {
+		if (!taggedProfiles.contains(profile)) {
+			return;
+		}
+		Gauge.builder("auth.token.circuit.state", breaker, b -> b.getState().ordinal())
+				.description("Estado del circuit breaker del endpoint de token (0 cerrado, 1 abierto, 2 semiabierto)")
+				.tag("profile", profile)
+				.register(registry);
+	}
+
+	/**
+	 * Refrescos resueltos con el almacén compartido: "adopted" (token de otra réplica), "fetched"
+	 * (pedido al IdP con el lease) o "fallback" (pedido al IdP sin lease porque el dueño no publicó).
+	 */
+	public void store(String result) {
+		Counter.builder("auth.token.store")
+				.description("Refrescos de token resueltos a través del almacén compartido")
+				.tag("result", result)
+				.register(registry)
+				.increment();
+	}
+
+	/** Registra (una vez por perfil) el gauge con los segundos que le quedan al token en caché. */
+	public void trackTtl(String profile) {
+		if (!taggedProfiles.contains(profile)) {
+			return;
+		}
+		// lectura "quieta" para no alterar las estadísticas hit/miss de la caché
+		Gauge.builder("auth.token.ttl.remaining", cache, c -> remainingSeconds(c.policy().getIfPresentQuietly(profile)))
+				.description("Segundos hasta la expiración del token en caché")
+				.tag("profile", profile)
+				.baseUnit("seconds")
+				.register(registry);
+	}
+
+	private double remainingSeconds(TokenCacheValue value) {
+		if (value == null) {
+			return 0;
+		}
+		long remaining = value.getExpiresAtNanos() - ticker.read();
+		return Math.max(0, remaining / (double) TimeUnit.SECONDS.toNanos(1));
+	}
+
+	private String profileTag(String profile) {
+		return taggedProfiles.contains(profile) ? profile : OTHER_PROFILES;
+	}
+
+	private static String status(Throwable error) {
+		if (error instanceof TokenEndpointException e) {
+			return String.valueOf(e.getStatus());
+		}
+		if (error instanceof TimeoutException) {
+			return "timeout";
+		}
+		if (error instanceof WebClientRequestException) {
+			return "io_error";
+		}
+		return "error";
+	}
+
+}
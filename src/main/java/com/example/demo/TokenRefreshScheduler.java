@@ -0,0 +1,88 @@
+package com.example.demo;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+@Slf4j
+@Component
+public class TokenRefreshScheduler {
+
+	private final TokenService tokenService;
+	private final AuthProperties.RefreshAhead cfg;
+
+	private volatile Disposable subscription;
+
+	/** Refresco programado por perfil. */
+	private final ConcurrentMap<String, Disposable> timers = new ConcurrentHashMap<>();
+
+	public TokenRefreshScheduler(TokenService tokenService, AuthProperties props) {
+		this.tokenService = tokenService;
+		this.cfg = props.getRefreshAhead();
+	}
+
+	/**
+	 * Programa el refresco anticipado de cada token nuevo. Si llega otro token del mismo perfil
+	 * antes de tiempo (refresco bajo demanda, reintento...), se reprograma a partir de ese.
+	 */
+	@EventListener(ApplicationReadyEvent.class)
+	public synchronized void start() {
+		if (!cfg.isEnabled() || subscription != null) {
+			return;
+		}
+		subscription = tokenService.refreshes().subscribe(this::schedule); // importante: NO block(), suscríbete
+		// los que ya estaban en caché antes de suscribirnos
+		tokenService.cachedTokens().forEach(this::schedule);
+	}
+
+	@PreDestroy
+	public synchronized void stop() {
+		Disposable current = subscription;
+		if (current != null) {
+			current.dispose();
+			subscription = null;
+		}
+		timers.values().forEach(Disposable::dispose);
+		timers.clear();
+	}
+
+	private void schedule(TokenCacheValue value) {
+		String profile = value.getProfile();
+		timers.compute(profile, (k, previous) -> {
+			if (previous != null) {
+				previous.dispose();
+			}
+			return Mono.delay(delayFor(value, tokenService.remainingNanos(value)))
+					.then(tokenService.forceRefresh(profile)
+							.retryWhen(Retry.backoff(Long.MAX_VALUE, cfg.getMinBackoff())
+									.maxBackoff(cfg.getMaxBackoff())
+									.jitter(cfg.getJitter())
+									.doBeforeRetry(s -> log.warn("Refresco anticipado fallido [{}] (intento {}): {}",
+											profile, s.totalRetries() + 1, s.failure().toString()))))
+					.subscribe(t -> log.debug("Token [{}] refrescado en segundo plano", profile),
+							e -> log.warn("Refresco anticipado abandonado [{}]: {}", profile, e.toString()));
+		});
+	}
+
+	/**
+	 * Tiempo que falta hasta alcanzar la fracción configurada de la vida del token. Se cuenta desde lo
+	 * que le queda en el reloj monotónico del servicio: un salto de la hora del sistema no lo adelanta
+	 * ni lo retrasa (la vida total sí sale de issuedAt/expiresAt, que se tomaron a la vez).
+	 */
+	Duration delayFor(TokenCacheValue value, long remainingNanos) {
+		long lifetime = Duration.between(value.getIssuedAt(), value.getExpiresAt()).toNanos();
+		long delay = remainingNanos - lifetime + (long) (lifetime * cfg.getRatio());
+		return Duration.ofNanos(Math.max(0, delay));
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.regex.Pattern;
+
+import org.springframework.core.io.buffer.DataBuffer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Extrae token, expiración y tipo de la respuesta del endpoint de token en una sola pasada con el
+ * JsonParser de streaming de Jackson: sin POJO ni árbol, saltando sin leer lo que no interesa
+ * (id_token y demás) y parando en cuanto tiene los tres campos. Cada campo se localiza por clave o por
+ * ruta con puntos ("data.access_token"); ver app.auth.tokenJsonKey / expiresInJsonKey / tokenTypeJsonKey.
+ */
+final class TokenResponseParser {
+
+	private static final JsonFactory JSON = new JsonFactory();
+	private static final Pattern DOT = Pattern.compile("\\.");
+
+	private static final int TOKEN = 0;
+	private static final int EXPIRES_IN = 1;
+	private static final int TOKEN_TYPE = 2;
+	private static final int ALL = 0b111;
+
+	private final String[][] paths;
+
+	TokenResponseParser(String tokenKey, String expiresInKey, String tokenTypeKey) {
+		this.paths = new String[][] { DOT.split(tokenKey), DOT.split(expiresInKey), DOT.split(tokenTypeKey) };
+	}
+
+	static TokenResponseParser of(AuthProperties props) {
+		return new TokenResponseParser(props.getTokenJsonKey(), props.getExpiresInJsonKey(), props.getTokenTypeJsonKey());
+	}
+
+	/** Campos que falten quedan a null; lo que no sea JSON válido lanza IllegalStateException. */
+	AuthResponse parse(DataBuffer body) {
+		try (InputStream in = body.asInputStream()) {
+			return parse(JSON.createParser(in));
+		} catch (IOException e) {
+			throw new IllegalStateException("Respuesta del endpoint de token no es JSON válido: " + e.getMessage(), e);
+		}
+	}
+
+	AuthResponse parse(byte[] body) {
+		try {
+			return parse(JSON.createParser(body));
+		} catch (IOException e) {
+			throw new IllegalStateException("Respuesta del endpoint de token no es JSON válido: " + e.getMessage(), e);
+		}
+	}
+
+	private AuthResponse parse(JsonParser parser) throws IOException {
+		try (parser) {
+			AuthResponse out = new AuthResponse();
+			if (parser.nextToken() == JsonToken.START_OBJECT) {
+				readObject(parser, 0, ALL, out, new int[1]);
+			}
+			return out;
+		}
+	}
+
+	/**
+	 * Recorre un objeto. {@code candidates}: campos cuya ruta coincide hasta esta profundidad.
+	 * Devuelve true cuando ya están los tres (el resto del documento no se lee).
+	 */
+	private boolean readObject(JsonParser parser, int depth, int candidates, AuthResponse out, int[] found)
+			throws IOException {
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String name = parser.currentName();
+			JsonToken value = parser.nextToken();
+			int leaves = 0;
+			int branches = 0;
+			for (int i = 0; i < paths.length; i++) {
+				String[] path = paths[i];
+				if ((candidates & (1 << i)) != 0 && (found[0] & (1 << i)) == 0 && path.length > depth
+						&& path[depth].equals(name)) {
+					if (path.length == depth + 1) {
+						leaves |= 1 << i;
+					} else {
+						branches |= 1 << i;
+					}
+				}
+			}
+			if (leaves != 0 && value.isScalarValue()) {
+				assign(parser, leaves, out, found);
+				if (found[0] == ALL) {
+					return true;
+				}
+			} else if (branches != 0 && value == JsonToken.START_OBJECT) {
+				if (readObject(parser, depth + 1, branches, out, found)) {
+					return true;
+				}
+			} else {
+				parser.skipChildren(); // objetos/arrays ajenos; un escalar no se llega a decodificar
+			}
+		}
+		return false;
+	}
+
+	private static void assign(JsonParser parser, int leaves, AuthResponse out, int[] found) throws IOException {
+		if ((leaves & (1 << TOKEN)) != 0) {
+			out.setAccessToken(parser.getValueAsString());
+		}
+		if ((leaves & (1 << EXPIRES_IN)) != 0) {
+			long expiresIn = parser.getValueAsLong(-1); // admite también "3600" como texto
+			out.setExpiresIn(expiresIn >= 0 ? expiresIn : null);
+		}
+		if ((leaves & (1 << TOKEN_TYPE)) != 0) {
+			out.setTokenType(parser.getValueAsString());
+		}
+		found[0] |= leaves;
+	}
+
+}
@@ -1,109 +1,704 @@
 package com.example.demo;
 
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
 
 import io.micrometer.common.lang.NonNull;
+import io.micrometer.core.instrument.Timer;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
-import org.springframework.web.reactive.function.BodyInserters;
-import org.springframework.web.reactive.function.BodyInserters.FormInserter;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
 
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 @Slf4j
 @Service
-@RequiredArgsConstructor // genera el constructor con los campos final/@NonNull
+@RequiredArgsConstructor(onConstructor_ = @Autowired) // genera el constructor con los campos final/@NonNull
 public class TokenService {
-	
-	private static final String CACHE_KEY = "authToken";	
+
 	private static final String BEARER = "Bearer ";
+	/** Reintentos de un aviso que coincide con otro en el mismo sink (se emiten desde el event loop). */
+	private static final int EMIT_SPINS = 8;
+	/** Mismo Content-Type que pondría el writer de formularios de Spring. */
+	private static final MediaType FORM_UTF8 = new MediaType(MediaType.APPLICATION_FORM_URLENCODED, StandardCharsets.UTF_8);
 
-    private final @NonNull WebClient webClient;
+    private final @NonNull @Qualifier("tokenWebClient") WebClient webClient;
     private final @NonNull AuthProperties props;
     private final @NonNull Cache<String, TokenCacheValue> cache;
+    private final @NonNull TokenMetrics metrics;
+    private final @NonNull TokenStore store; // L2 compartida entre réplicas (TokenStore.NONE si no hay)
+    private final @NonNull TokenTtlPolicy ttlPolicy; // vida local de cada token nuevo (app.auth.ttl)
+    private final @NonNull Ticker ticker; // reloj monotónico de las expiraciones, el mismo que el de la caché
+    private final @NonNull @Qualifier("tokenRateLimiter") RateLimiter limiter; // peticiones al endpoint de token
+
+	/** Dueño de los leases de este nodo en el almacén compartido. */
+	private final String nodeId = UUID.randomUUID().toString();
+
+	/** Último token rechazado (401) por perfil: no se adopta del almacén compartido aunque siga allí. */
+	private final ConcurrentMap<String, String> rejectedTokens = new ConcurrentHashMap<>();
+
+	/** Refrescos en curso por perfil (single-flight): quien llega mientras tanto comparte ese Mono. */
+	private final ConcurrentMap<String, Mono<TokenCacheValue>> inflight = new ConcurrentHashMap<>();
+
+	/** Próximo instante (nanoTime) en que se permite otro refresco en segundo plano por perfil mientras se sirve caducado. */
+	private final ConcurrentMap<String, Long> nextRevalidation = new ConcurrentHashMap<>();
+
+	/** Generación de la próxima petición al IdP (ver {@link TokenCacheValue#getGeneration()}). */
+	private final AtomicLong generations = new AtomicLong();
+
+	/** Credenciales recargadas en caliente por perfil; tienen prioridad sobre AuthProperties (ver {@link #rotateCredentials}). */
+	private volatile Map<String, AuthProfile> credentials = Map.of();
+
+	/** Cuerpo client_credentials ya codificado por perfil (ver {@link #formBody(AuthProfile)}). */
+	private final ConcurrentMap<String, EncodedForm> forms = new ConcurrentHashMap<>();
+
+	/** Circuit breaker del endpoint de token por perfil. */
+	private final ConcurrentMap<String, TokenCircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+	private final Sinks.Many<TokenCircuitBreaker.Transition> circuit = Sinks.many().multicast().directBestEffort();
+
+	/** Cada token nuevo que se guarda en la caché (de cualquier perfil). */
+	private final Sinks.Many<TokenCacheValue> refreshed = Sinks.many().multicast().directBestEffort();
+
+	/** Sin almacén compartido: cada instancia pide sus propios tokens. */
+	public TokenService(WebClient webClient, AuthProperties props, Cache<String, TokenCacheValue> cache,
+			TokenMetrics metrics) {
+		this(webClient, props, cache, metrics, TokenStore.NONE);
+	}
+
+	/**
+	 * Con la política de TTL por defecto ({@link DefaultTokenTtlPolicy}), el reloj del sistema y sin
+	 * límite de peticiones al IdP (salvo los Retry-After de sus 429).
+	 */
+	public TokenService(WebClient webClient, AuthProperties props, Cache<String, TokenCacheValue> cache,
+			TokenMetrics metrics, TokenStore store) {
+		this(webClient, props, cache, metrics, store, new DefaultTokenTtlPolicy(props), Ticker.systemTicker(),
+				RateLimiter.unlimited("token"));
+	}
 
     /** Devuelve SIEMPRE el valor completo del header Authorization (p. ej., "Bearer xxx") */
 	public Mono<String> getValidToken() {
-		TokenCacheValue cached = cache.getIfPresent(CACHE_KEY);
-		if (cached != null && cached.getExpiresAt().isAfter(Instant.now())) {
-			return Mono.just(cached.getToken()); // ya viene con "Bearer "
-		}
-		return refreshToken();
-	}
-
-	/** Refresca y devuelve SIEMPRE "Bearer xxx" */
-	public synchronized Mono<String> refreshToken() {
-		// doble check por si otro hilo refrescó
-		TokenCacheValue again = cache.getIfPresent(CACHE_KEY);
-		if (again != null && again.getExpiresAt().isAfter(Instant.now())) {
-			return Mono.just(again.getToken());
-		}
-		
-		FormInserter<String> body = BodyInserters
-		.fromFormData("grant_type", "client_credentials")
-                .with("client_id", props.getClientId())
-                .with("client_secret", props.getClientSecret());
-		
-	     if (props.getScope() != null && !props.getScope().isBlank()) {
-	            body = body.with("scope", props.getScope());
-	       }
+		return getValidToken(AuthProperties.DEFAULT_PROFILE);
+	}
+
+	/**
+	 * Igual que {@link #getValidToken()} pero para un perfil de credenciales concreto.
+	 * Un acierto de caché no reserva memoria: se compara el nanoTime primitivo y se devuelve el Mono
+	 * ya construido del token.
+	 */
+	public Mono<String> getValidToken(String profile) {
+		TokenCacheValue cached = lookup(profile);
+		return cached != null ? cached.getHeader() : refreshToken(profile); // ya viene con "Bearer "
+	}
+
+	/**
+	 * Como {@link #getValidToken(String)} pero devuelve el valor completo de la caché, con su
+	 * generación, para poder informar después con {@link #refreshRejected(String, long)} de que fue rechazado.
+	 */
+	public Mono<TokenCacheValue> getValidTokenValue(String profile) {
+		return Mono.defer(() -> {
+			TokenCacheValue cached = lookup(profile);
+			return cached != null ? Mono.just(cached) : refreshValue(profile);
+		});
+	}
+
+	/**
+	 * Token al que le quede al menos {@code minTtl} de vida (p. ej. la latencia esperada de la llamada
+	 * que lo va a usar): si el de la caché caduca antes, se refresca ahora (compartiendo el refresco en
+	 * vuelo) en lugar de descubrirlo con un 401. Nunca se pide más de media vida del token: con tokens
+	 * cortos y latencias altas, si no, cada llamada iría al IdP. Si el IdP falla se usa el actual mientras
+	 * no haya caducado (o dentro de la gracia); si el nuevo tampoco llega a minTtl se devuelve igualmente.
+	 */
+	public Mono<String> getValidToken(String profile, Duration minTtl) {
+		return getValidTokenValue(profile, minTtl).map(TokenCacheValue::getToken);
+	}
+
+	public Mono<TokenCacheValue> getValidTokenValue(String profile, Duration minTtl) {
+		long minNanos = minTtl.toNanos();
+		if (minNanos <= 0) {
+			return getValidTokenValue(profile);
+		}
+		return Mono.defer(() -> {
+			TokenCacheValue cached = cache.getIfPresent(profile);
+			if (cached != null) {
+				long remaining = cached.getExpiresAtNanos() - ticker.read();
+				long wanted = Math.min(minNanos, lifetimeNanos(cached) / 2);
+				if (remaining > wanted) {
+					metrics.hit();
+					return Mono.just(cached);
+				}
+				if (remaining > 0) {
+					metrics.expiring();
+					return refreshValue(profile, wanted);
+				}
+			}
+			// caducado o ausente: como sin minTtl (gracia con revalidación en segundo plano, o el IdP)
+			TokenCacheValue current = lookup(profile);
+			return current != null ? Mono.just(current) : refreshValue(profile);
+		});
+	}
+
+	/** Vida total con la que se guardó el token (de issuedAt a expiresAt), sin crear objetos. */
+	private static long lifetimeNanos(TokenCacheValue value) {
+		return TimeUnit.MILLISECONDS.toNanos(value.getExpiresAt().toEpochMilli() - value.getIssuedAt().toEpochMilli());
+	}
+
+	public Mono<String> refreshToken() {
+		return refreshToken(AuthProperties.DEFAULT_PROFILE);
+	}
+
+	/**
+	 * Refresca y devuelve SIEMPRE "Bearer xxx".
+	 * Sin bloqueos: las llamadas concurrentes del mismo perfil se unen al mismo refresco en vuelo,
+	 * de modo que solo sale una petición al endpoint OAuth y todas reciben el mismo resultado o error.
+	 */
+	public Mono<String> refreshToken(String profile) {
+		return refreshValue(profile).map(TokenCacheValue::getToken);
+	}
+
+	public Mono<String> forceRefresh() {
+		return forceRefresh(AuthProperties.DEFAULT_PROFILE);
+	}
+
+	/**
+	 * Pide un token nuevo aunque el de la caché siga siendo válido (el actual se sigue sirviendo
+	 * hasta que llega el nuevo). Comparte el refresco en vuelo si ya hay uno.
+	 */
+	public Mono<String> forceRefresh(String profile) {
+		return Mono.defer(() -> joinOrStartRefresh(profile)).map(TokenCacheValue::getToken);
+	}
+
+	/**
+	 * El servidor de recursos rechazó (401) el token de esa generación. Solo se invalida esa
+	 * generación: si en la caché ya hay una más nueva se devuelve esa sin ir al IdP, y si no se
+	 * retira el token rechazado y se comparte un único refresco entre todos los rechazos simultáneos.
+	 */
+	public Mono<TokenCacheValue> refreshRejected(String profile, long rejectedGeneration) {
+		return Mono.defer(() -> {
+			TokenCacheValue current = cache.asMap().computeIfPresent(profile, (k, v) -> {
+				if (v.getGeneration() != rejectedGeneration) {
+					return v;
+				}
+				rejectedTokens.put(profile, v.getToken());
+				return null;
+			});
+			if (current != null && current.getGeneration() > rejectedGeneration) {
+				return Mono.just(current);
+			}
+			return joinOrStartRefresh(profile);
+		});
+	}
+
+	/** Emite cada token nuevo que se guarda en la caché. */
+	public Flux<TokenCacheValue> refreshes() {
+		return refreshed.asFlux();
+	}
+
+	/** Cambios de estado de los circuit breakers del endpoint de token. */
+	public Flux<TokenCircuitBreaker.Transition> circuitTransitions() {
+		return circuit.asFlux();
+	}
+
+	/** Estado del circuit breaker del perfil (CLOSED si aún no se ha llamado al IdP). */
+	public TokenCircuitBreaker.State circuitState(String profile) {
+		TokenCircuitBreaker breaker = breakers.get(profile);
+		return breaker != null ? breaker.getState() : TokenCircuitBreaker.State.CLOSED;
+	}
+
+	/** Peticiones atendidas con el token anterior dentro de la ventana de gracia. */
+	public long staleServedCount() {
+		return metrics.staleCount();
+	}
+
+	/** Tokens actualmente en caché (uno por perfil). */
+	public Collection<TokenCacheValue> cachedTokens() {
+		return List.copyOf(cache.asMap().values());
+	}
+
+	/**
+	 * Token de la caché si sigue vigente, o si está dentro de la ventana de gracia (lanzando la
+	 * revalidación en segundo plano); null si hay que ir al IdP.
+	 */
+	TokenCacheValue lookup(String profile) {
+		TokenCacheValue cached = cache.getIfPresent(profile);
+		if (cached != null) {
+			long now = ticker.read();
+			if (cached.getExpiresAtNanos() - now > 0) {
+				metrics.hit();
+				return cached;
+			}
+			if (withinGrace(cached, now)) {
+				// stale-while-revalidate: se sirve el anterior y se refresca en segundo plano
+				revalidate(profile);
+				metrics.stale();
+				return cached;
+			}
+		}
+		metrics.miss();
+		return null;
+	}
+
+	private Mono<TokenCacheValue> refreshValue(String profile) {
+		return refreshValue(profile, 0);
+	}
+
+	/** Refresco si el token de la caché no llega a {@code minNanos} de vida restante. */
+	private Mono<TokenCacheValue> refreshValue(String profile, long minNanos) {
+		return Mono.defer(() -> {
+			// doble check por si otro refresco ya terminó
+			TokenCacheValue again = cache.getIfPresent(profile);
+			if (again != null && again.getExpiresAtNanos() - ticker.read() > minNanos) {
+				return Mono.just(again);
+			}
+			return joinOrStartRefresh(profile).onErrorResume(e -> serveStale(profile, e));
+		});
+	}
+
+	private Mono<TokenCacheValue> joinOrStartRefresh(String profile) {
+		for (;;) {
+			Mono<TokenCacheValue> current = inflight.get(profile);
+			if (current != null) {
+				return current;
+			}
+			Sinks.One<TokenCacheValue> sink = Sinks.one();
+			Mono<TokenCacheValue> shared = sink.asMono();
+			if (inflight.putIfAbsent(profile, shared) == null) {
+				// La petición vive fuera de los suscriptores: si uno cancela, el resto sigue esperando el mismo resultado.
+				// Se libera el slot antes de emitir para que los siguientes lean ya de la caché.
+				loadOrFetch(profile).subscribe(
+						tok -> {
+							inflight.remove(profile, shared);
+							sink.tryEmitValue(tok);
+						},
+						e -> {
+							inflight.remove(profile, shared);
+							sink.tryEmitError(e);
+						},
+						() -> {
+							inflight.remove(profile, shared);
+							sink.tryEmitEmpty();
+						});
+				return shared;
+			}
+		}
+	}
+
+	private boolean withinGrace(TokenCacheValue value, long nowNanos) {
+		long grace = props.getStale().getGrace().toNanos();
+		return grace > 0 && value.getExpiresAtNanos() + grace - nowNanos > 0;
+	}
+
+	/** stale-if-error: si el refresco falla y el último token sigue en la ventana de gracia, se sirve ese. */
+	private Mono<TokenCacheValue> serveStale(String profile, Throwable error) {
+		TokenCacheValue stale = cache.getIfPresent(profile);
+		long now = ticker.read();
+		if (stale != null && stale.getExpiresAtNanos() - now > 0) {
+			// se pidió con minTtl y aún no ha caducado: mejor el actual que fallar
+			log.warn("Refresco anticipado de token [{}] fallido, se usa el actual: {}", profile, error.toString());
+			return Mono.just(stale);
+		}
+		if (stale != null && withinGrace(stale, now)) {
+			log.warn("Refresco de token [{}] fallido, se sirve el anterior: {}", profile, error.toString());
+			metrics.stale();
+			return Mono.just(stale);
+		}
+		return Mono.error(error);
+	}
+
+	/** Lanza (como mucho una vez por intervalo) un refresco en segundo plano sin bloquear a quien llama. */
+	private void revalidate(String profile) {
+		long now = ticker.read();
+		long interval = props.getStale().getRetryInterval().toNanos();
+		Long next = nextRevalidation.get(profile);
+		if (next != null && now - next < 0) {
+			return;
+		}
+		boolean claimed = next == null
+				? nextRevalidation.putIfAbsent(profile, now + interval) == null
+				: nextRevalidation.replace(profile, next, now + interval);
+		if (claimed) {
+			joinOrStartRefresh(profile).subscribe(
+					t -> log.info("Token [{}] revalidado en segundo plano", profile),
+					e -> log.warn("Revalidación de token [{}] fallida, se sigue sirviendo el anterior: {}", profile, e.toString()));
+		}
+	}
+
+	/**
+	 * Petición al IdP con la protección de app.auth.resilience: cada intento con su timeout y pasando
+	 * por el circuit breaker del perfil; los errores transitorios se reintentan con backoff y jitter.
+	 * El token se guarda en la caché con {@link #store(AuthProfile, TokenCacheValue)}.
+	 */
+	private Mono<TokenCacheValue> fetchToken(String profile) {
+		return Mono.fromCallable(() -> profile(profile))
+				.flatMap(p -> requestToken(p).flatMap(v -> store(p, v)));
+	}
+
+	/**
+	 * Token pedido con {@code credentials}, salvo que entretanto se hayan rotado las del perfil: en ese
+	 * caso la rotación ya dejó en la caché uno de las nuevas y el de las anteriores se descarta.
+	 */
+	private Mono<TokenCacheValue> store(AuthProfile credentials, TokenCacheValue value) {
+		String profile = credentials.getName();
+		if (!credentials.equals(profile(profile))) {
+			log.info("Token [{}] pedido con credenciales ya rotadas: se descarta", profile);
+			TokenCacheValue current = cache.getIfPresent(profile);
+			return current != null ? Mono.just(current) : fetchToken(profile);
+		}
+		return Mono.just(storeNew(value));
+	}
+
+	/** Guarda un token recién pedido al IdP (ver {@link #storeLocal}) y lo anota en el log. */
+	private TokenCacheValue storeNew(TokenCacheValue value) {
+		TokenCacheValue stored = storeLocal(value);
+		if (stored == value) {
+			// No expongas secretos en logs. Si necesitas log, usa nivel debug e imprime el TTL.
+			log.debug("Nuevo access token [{}]; expira en {}s; token = {} ",
+					value.getProfile(),
+					Duration.between(value.getIssuedAt(), value.getExpiresAt()).toSeconds(),
+					mask(value.getToken()));
+		}
+		return stored;
+	}
+
+	/**
+	 * Petición al IdP con estas credenciales, con timeout por intento, reintentos y circuit breaker.
+	 * No toca la caché: quien llama decide si y cuándo se guarda el token.
+	 */
+	private Mono<TokenCacheValue> requestToken(AuthProfile credentials) {
+		String profile = credentials.getName();
+		AuthProperties.Resilience cfg = props.getResilience();
+		TokenCircuitBreaker breaker = breakers.computeIfAbsent(profile, this::newBreaker);
+		return Mono.just(credentials)
+				.flatMap(p -> {
+					// tras un 429 el reintento espera a que pase su Retry-After (hasta maxRetryAfter), no solo maxWait
+					boolean[] throttled = { false };
+					// cada intento espera antes su turno en el límite del endpoint, fuera de attemptTimeout y del
+					// circuit breaker: un permiso descartado aquí no ha llegado al IdP y no cuenta ni a favor ni en contra
+					return Mono.defer(() -> throttled[0] ? limiter.acquireAfterRetryAfter() : limiter.acquire())
+						.then(breaker.protect(Mono.defer(() -> {
+							Timer.Sample sample = metrics.startFetch();
+							return requestToken(p, generations.incrementAndGet())
+									.timeout(cfg.getAttemptTimeout())
+									.doOnSuccess(t -> metrics.fetchFinished(sample, profile, null))
+									.doOnError(e -> metrics.fetchFinished(sample, profile, e));
+						}), TokenService::isTransient))
+						.doOnError(e -> throttled[0] = e instanceof TokenEndpointException te && te.getStatus() == 429)
+						.retryWhen(Retry.backoff(cfg.getMaxRetries(), cfg.getMinBackoff())
+								.maxBackoff(cfg.getMaxBackoff())
+								.jitter(cfg.getJitter())
+								.filter(TokenService::isTransient)
+								.doBeforeRetry(s -> {
+									metrics.retry(profile);
+									log.warn("Reintento {} del token [{}]: {}", s.totalRetries() + 1, profile, s.failure().toString());
+								})
+								.onRetryExhaustedThrow((spec, s) -> s.failure()));
+				});
+	}
+
+	/** Credenciales vigentes del perfil: las recargadas en caliente o, si no hay, las de AuthProperties. */
+	AuthProfile profile(String name) {
+		AuthProfile reloaded = credentials.get(name);
+		return reloaded != null ? reloaded : props.profile(name);
+	}
+
+	/**
+	 * Rotación de credenciales sin corte. Para cada perfil que cambia se pide antes un token con las
+	 * credenciales nuevas, sin guardarlo (mientras, se sigue sirviendo el anterior); solo si todos lo
+	 * consiguen se cambian las credenciales de golpe (una escritura volátil del mapa completo) y se
+	 * guardan los tokens nuevos, en la caché y en el almacén compartido. Si alguno falla no se cambia
+	 * nada y el error sale tal cual. Devuelve los perfiles que han cambiado.
+	 *
+	 * <p>Un refresco con las credenciales anteriores que siga en vuelo no pisa al token nuevo: se
+	 * guarda con una generación posterior y {@link #store(AuthProfile, TokenCacheValue)} descarta los
+	 * tokens de credenciales ya rotadas.
+	 */
+	public Mono<List<String>> rotateCredentials(Map<String, AuthProfile> next) {
+		return Mono.defer(() -> {
+			List<AuthProfile> changed = next.values().stream().filter(p -> !p.equals(currentOrNull(p.getName()))).toList();
+			if (changed.isEmpty()) {
+				return Mono.just(List.<String>of());
+			}
+			return Flux.fromIterable(changed)
+					.flatMap(this::requestToken)
+					.collectList()
+					.flatMap(tokens -> {
+						credentials = Map.copyOf(next);
+						List<TokenCacheValue> stored = tokens.stream()
+								.map(v -> storeNew(v.toBuilder().generation(generations.incrementAndGet()).build()))
+								.toList();
+						List<String> names = changed.stream().map(AuthProfile::getName).toList();
+						log.info("Credenciales rotadas: {}", names);
+						return Flux.fromIterable(stored).concatMap(this::publish).then(Mono.just(names));
+					});
+		});
+	}
+
+	private AuthProfile currentOrNull(String name) {
+		try {
+			return profile(name);
+		} catch (IllegalArgumentException e) {
+			return null; // perfil nuevo
+		}
+	}
+
+	/** Errores que indican un IdP caído o lento (se reintentan y cuentan para el circuit breaker). */
+	static boolean isTransient(Throwable e) {
+		if (e instanceof TokenEndpointException te) {
+			int status = te.getStatus();
+			return status >= 500 || status == 408 || status == 429;
+		}
+		return e instanceof TimeoutException || e instanceof WebClientRequestException;
+	}
+
+	private TokenCircuitBreaker newBreaker(String profile) {
+		TokenCircuitBreaker breaker = new TokenCircuitBreaker(profile, props.getResilience().getCircuitBreaker(), t -> {
+			log.warn("Circuit breaker del token [{}]: {} -> {}", t.profile(), t.from(), t.to());
+			metrics.circuitTransition(t);
+			emit(circuit, t, t.profile());
+		});
+		metrics.trackCircuit(profile, breaker);
+		return breaker;
+	}
+
+	private Mono<TokenCacheValue> requestToken(AuthProfile profile, long generation) {
+		byte[] body = formBody(profile);
 
 	    return webClient
 	            .post()
-	            .uri(props.getUrl())
-	            .contentType(MediaType.APPLICATION_FORM_URLENCODED)
+	            .uri(profile.getUrl())
+	            .contentType(FORM_UTF8)
 	            .accept(MediaType.APPLICATION_JSON)
-	            .body(body)
+	            .bodyValue(body) // byte[]: se envuelve sin copiar en cada envío
 	            .retrieve()
+	            // 429: se pausa el límite del endpoint hasta Retry-After; el reintento espera ese turno
+	            .onStatus(s -> s.value() == 429, resp -> {
+	                limiter.pause(limiter.retryAfter(resp.headers().asHttpHeaders()));
+	                return resp.bodyToMono(String.class)
+	                    .defaultIfEmpty("")
+	                    .flatMap(b -> Mono.error(new TokenEndpointException(429, "Endpoint de token saturado (429): " + b)));
+	            })
 	            .onStatus(s -> s.is4xxClientError() || s.is5xxServerError(),
 	                resp -> resp.bodyToMono(String.class)
 	                    .defaultIfEmpty("")
-	                    .flatMap(b -> Mono.error(new IllegalStateException(
+	                    .flatMap(b -> Mono.error(new TokenEndpointException(resp.statusCode().value(),
 	                        "Fallo autenticando (" + resp.statusCode() + "): " + b))))
-	            .bodyToMono(AuthResponse.class)
+	            // una pasada de streaming sobre los bytes (ver TokenResponseParser), sin data binding
+	            .bodyToMono(DataBuffer.class)
+	            .map(buffer -> {
+	                try {
+	                    return TokenResponseParser.of(props).parse(buffer);
+	                } finally {
+	                    DataBufferUtils.release(buffer);
+	                }
+	            })
 	            .flatMap(ar -> {
-	            	
+
 	                String token = ar.getAccessToken();
 	                if (token == null || token.isBlank()) {
-	                    return Mono.error(new IllegalStateException("No se encontró 'access_token' en la respuesta OAuth"));
+	                    return Mono.error(new IllegalStateException(
+	                            "No se encontró '" + props.getTokenJsonKey() + "' en la respuesta OAuth"));
 	                }
 
-	                long skew = Math.max(0L, props.getExpiresInMins()); // p. ej., 60
-	                long expiresInSec = (ar.getExpiresIn() != null && ar.getExpiresIn() > skew)
-	                    ? ar.getExpiresIn() - skew
-	                    : 60L; // fallback mínimo
-
-	                Duration ttl = Duration.ofSeconds(expiresInSec);
-	                Instant expiresAt = Instant.now().plus(ttl);
+	                // expires_in / claim exp del JWT, menos el margen y el jitter (ver TokenTtlPolicy)
+	                Duration ttl = ttlPolicy.ttl(token, ar.getExpiresIn());
+	                long issuedAtNanos = ticker.read();
+	                Instant issuedAt = Instant.now();
+	                Instant expiresAt = issuedAt.plus(ttl);
 
 	                String bearer = BEARER + token;        // opcional
 	                // Guarda solo el valor del token o "Bearer <token>" si te resulta más cómodo
-	                cache.put(CACHE_KEY, TokenCacheValue.builder()
+	                return Mono.just(TokenCacheValue.builder()
+	                	    .profile(profile.getName())
 	                	    .token(bearer)
 	                	    .expiresAt(expiresAt)
+	                	    .issuedAt(issuedAt)
+	                	    .generation(generation)
+	                	    .expiresAtNanos(issuedAtNanos + ttl.toNanos())
 	                	    .build());
-	                
-	                // No expongas secretos en logs. Si necesitas log, usa nivel debug e imprime el TTL.
-	                log.error("Nuevo access token; expira en {}s; token = {} ",
-	                    Duration.between(Instant.now(), expiresAt).toSeconds(),
-	                    mask(bearer));
-	             
-	                return Mono.just(token);
 	            });
-	    
+
 		}
-	
+
+	/**
+	 * Cuerpo client_credentials del perfil ya codificado. Se calcula una vez y se reutiliza mientras
+	 * las credenciales sean las mismas (si cambian en AuthProperties, el siguiente refresco lo recodifica).
+	 */
+	byte[] formBody(AuthProfile profile) {
+		EncodedForm cached = forms.get(profile.getName());
+		if (cached != null && cached.profile().equals(profile)) {
+			return cached.body();
+		}
+		StringBuilder form = new StringBuilder(128)
+				.append("grant_type=client_credentials");
+		appendParam(form, "client_id", profile.getClientId());
+		appendParam(form, "client_secret", profile.getClientSecret());
+		if (profile.getScope() != null && !profile.getScope().isBlank()) {
+			appendParam(form, "scope", profile.getScope());
+		}
+		if (profile.getAudience() != null && !profile.getAudience().isBlank()) {
+			appendParam(form, "audience", profile.getAudience());
+		}
+		byte[] body = form.toString().getBytes(StandardCharsets.UTF_8);
+		forms.put(profile.getName(), new EncodedForm(profile, body));
+		return body;
+	}
+
+	private static void appendParam(StringBuilder form, String name, String value) {
+		form.append('&').append(name).append('=');
+		if (value != null) {
+			form.append(URLEncoder.encode(value, StandardCharsets.UTF_8));
+		}
+	}
+
+	/** Formulario codificado junto con las credenciales de las que sale (para detectar cambios). */
+	private record EncodedForm(AuthProfile profile, byte[] body) {
+	}
+
+	/**
+	 * Guarda en la caché local (L1) y avisa a los suscriptores de {@link #refreshes()}. Un token de
+	 * una generación anterior nunca pisa a uno más nuevo: en ese caso se devuelve el que ya estaba.
+	 */
+	private TokenCacheValue storeLocal(TokenCacheValue value) {
+		String profile = value.getProfile();
+		TokenCacheValue stored = cache.asMap().merge(profile, value,
+				(old, neu) -> neu.getGeneration() >= old.getGeneration() ? neu : old);
+		if (stored != value) {
+			log.info("Token [{}] de generación {} descartado: ya hay uno más nuevo ({})",
+					profile, value.getGeneration(), stored.getGeneration());
+			return stored;
+		}
+		rejectedTokens.remove(profile);
+		metrics.trackTtl(profile);
+		emit(refreshed, value, profile);
+		return value;
+	}
+
+	/**
+	 * Aviso best-effort a los suscriptores: si otro hilo está emitiendo a la vez se reintenta unas pocas
+	 * veces y, si sigue ocupado, se descarta. El token ya está guardado; un aviso perdido (el refresco
+	 * programado o el snapshot lo recuperan en el siguiente) nunca hace fallar a quien lo pidió.
+	 */
+	private static <T> void emit(Sinks.Many<T> sink, T value, String profile) {
+		for (int i = 0; i < EMIT_SPINS; i++) {
+			// OK, sin suscriptores o suscriptor lento (directBestEffort lo salta): nada más que hacer
+			if (sink.tryEmitNext(value) != Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+				return;
+			}
+			Thread.onSpinWait();
+		}
+		log.warn("Aviso [{}] descartado: emisión concurrente en curso", profile);
+	}
+
+	/**
+	 * Refresco del líder local (el único en vuelo de este nodo para el perfil). Sin almacén compartido
+	 * va directo al IdP; con él:
+	 * <ol>
+	 * <li>si el almacén ya tiene un token más nuevo que el nuestro, se adopta sin ir al IdP;</li>
+	 * <li>si no, quien consigue el lease lo pide al IdP y lo publica;</li>
+	 * <li>el resto espera (hasta leaseWait) a que aparezca en el almacén y, si no llega, lo pide él.</li>
+	 * </ol>
+	 * Un fallo del almacén nunca impide pedir el token: se trata como si no hubiera almacén.
+	 */
+	private Mono<TokenCacheValue> loadOrFetch(String profile) {
+		if (store == TokenStore.NONE) {
+			return fetchToken(profile);
+		}
+		AuthProperties.Store cfg = props.getStore();
+		TokenCacheValue baseline = cache.getIfPresent(profile);
+		String rejected = rejectedTokens.get(profile);
+		Predicate<TokenCacheValue> newer = v -> v.getExpiresAt().isAfter(Instant.now())
+				&& (baseline == null || v.getIssuedAt().isAfter(baseline.getIssuedAt()))
+				&& !v.getToken().equals(rejected);
+
+		Mono<TokenCacheValue> shared = Mono.defer(() -> store.get(profile))
+				.filter(newer)
+				.onErrorResume(e -> {
+					log.warn("Almacén de tokens no disponible [{}]: {}", profile, e.toString());
+					return Mono.empty();
+				});
+		Mono<TokenCacheValue> fetchAndPublish = fetchToken(profile).flatMap(this::publish);
+		Mono<TokenCacheValue> waitForLeader = shared
+				.map(this::adopt)
+				.repeatWhenEmpty(attempts -> attempts.delayElements(cfg.getPollInterval()))
+				.timeout(cfg.getLeaseWait(), Mono.defer(() -> {
+					log.warn("Token [{}] no publicado por el dueño del lease en {}; se pide directamente",
+							profile, cfg.getLeaseWait());
+					metrics.store("fallback");
+					return fetchAndPublish;
+				}));
+
+		return shared
+				.map(this::adopt)
+				.switchIfEmpty(Mono.usingWhen(
+						store.tryLease(profile, nodeId, cfg.getLeaseTtl()).onErrorReturn(true),
+						leader -> leader
+								// con el lease, se vuelve a mirar por si el anterior dueño acaba de publicar
+								? shared.map(this::adopt).switchIfEmpty(fetchAndPublish.doOnNext(v -> metrics.store("fetched")))
+								: waitForLeader,
+						leader -> leader ? store.release(profile, nodeId).onErrorResume(e -> Mono.empty()) : Mono.empty()));
+	}
+
+	/** Publica el token en el almacén compartido; si falla, se sigue con el token igualmente. */
+	private Mono<TokenCacheValue> publish(TokenCacheValue value) {
+		return store.put(value)
+				.onErrorResume(e -> {
+					log.warn("No se pudo publicar el token [{}] en el almacén: {}", value.getProfile(), e.toString());
+					return Mono.empty();
+				})
+				.thenReturn(value);
+	}
+
+	/** Guarda en L1 un token leído del almacén compartido, con una generación local nueva. */
+	private TokenCacheValue adopt(TokenCacheValue shared) {
+		metrics.store("adopted");
+		return storeLocal(onLocalClock(shared.toBuilder()
+				.generation(generations.incrementAndGet())
+				.build()));
+	}
+
+	/**
+	 * Token persistido o de otra réplica con la expiración pasada a nuestro reloj monotónico: solo
+	 * "expiresAt" (reloj de pared) viaja entre procesos, así que se convierte una vez al cargarlo.
+	 */
+	TokenCacheValue onLocalClock(TokenCacheValue value) {
+		return value.toBuilder().expires(value.getExpiresAt(), ticker).build();
+	}
+
+	/** Nanosegundos de vida que le quedan al token según el reloj del servicio (negativo si ya caducó). */
+	long remainingNanos(TokenCacheValue value) {
+		return value.getExpiresAtNanos() - ticker.read();
+	}
+
 		//	Helper para enmascarar:
 		private static String mask(String token) {
 		    if (token == null || token.length() < 10) return "****";
 		    int n = token.length();
 		    return token.substring(0, 6) + " …" + token.substring(n - 4);
 		}
-		
+
 }
@@ -0,0 +1,143 @@
+package com.example.demo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+
+/**
+ * Formato binario de la copia de tokens en disco, cifrada con AES-GCM (confidencialidad + integridad).
+ *
+ * <pre>
+ * "TKSN" | versión (1 byte) | IV (12 bytes) | AES-GCM( n | n x (perfil, credenciales, token, expiresAt, issuedAt) )
+ * </pre>
+ *
+ * La cabecera va como datos autenticados, así que cualquier byte alterado hace fallar la lectura.
+ * Los textos van como longitud (int) + UTF-8, sin el límite de 64 KB de writeUTF (un JWT con muchos
+ * claims puede pasarlo). Las fechas se guardan en milisegundos epoch; la generación no se guarda: un token restaurado es
+ * siempre más antiguo que cualquiera que se pida después. "credenciales" es la
+ * {@link AuthProfile#fingerprint() huella} de las credenciales con las que se emitió el token, para no
+ * restaurarlo si la configuración ha cambiado entretanto. Un fichero de otra versión se ignora.
+ */
+final class TokenSnapshotCodec {
+
+	private static final byte[] MAGIC = { 'T', 'K', 'S', 'N' };
+	private static final byte VERSION = 3;
+	private static final int IV_BYTES = 12;
+	private static final int TAG_BITS = 128;
+	private static final int HEADER_BYTES = MAGIC.length + 1;
+
+	private final SecretKeySpec key;
+	private final SecureRandom random = new SecureRandom();
+
+	TokenSnapshotCodec(String base64Key) {
+		if (base64Key == null || base64Key.isBlank()) {
+			throw new IllegalStateException("app.auth.snapshot.key es obligatorio si app.auth.snapshot.enabled=true");
+		}
+		byte[] raw = Base64.getDecoder().decode(base64Key.trim());
+		if (raw.length != 16 && raw.length != 24 && raw.length != 32) {
+			throw new IllegalStateException("app.auth.snapshot.key debe ser una clave AES de 128, 192 o 256 bits en Base64");
+		}
+		this.key = new SecretKeySpec(raw, "AES");
+	}
+
+	/** Token guardado junto con la huella de las credenciales con las que se emitió. */
+	record Entry(TokenCacheValue value, String credentials) {
+	}
+
+	byte[] encode(Collection<Entry> entries) {
+		try {
+			ByteArrayOutputStream plain = new ByteArrayOutputStream(64 + entries.size() * 1024);
+			DataOutputStream out = new DataOutputStream(plain);
+			out.writeInt(entries.size());
+			for (Entry e : entries) {
+				TokenCacheValue v = e.value();
+				writeString(out, v.getProfile());
+				writeString(out, e.credentials());
+				writeString(out, v.getToken());
+				out.writeLong(v.getExpiresAt().toEpochMilli());
+				out.writeLong(v.getIssuedAt().toEpochMilli());
+			}
+			out.flush();
+
+			byte[] iv = new byte[IV_BYTES];
+			random.nextBytes(iv);
+			byte[] header = header();
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, iv));
+			cipher.updateAAD(header);
+			byte[] sealed = cipher.doFinal(plain.toByteArray());
+
+			return ByteBuffer.allocate(HEADER_BYTES + IV_BYTES + sealed.length)
+					.put(header).put(iv).put(sealed).array();
+		} catch (IOException | GeneralSecurityException e) {
+			throw new IllegalStateException("No se pudo cifrar el snapshot de tokens", e);
+		}
+	}
+
+	List<Entry> decode(byte[] data) {
+		byte[] header = header();
+		if (data.length < HEADER_BYTES + IV_BYTES
+				|| !ByteBuffer.wrap(data, 0, HEADER_BYTES).equals(ByteBuffer.wrap(header))) {
+			throw new IllegalStateException("Snapshot de tokens con formato o versión desconocidos");
+		}
+		try {
+			Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+			cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_BITS, data, HEADER_BYTES, IV_BYTES));
+			cipher.updateAAD(header);
+			byte[] plain = cipher.doFinal(data, HEADER_BYTES + IV_BYTES, data.length - HEADER_BYTES - IV_BYTES);
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(plain));
+			int n = in.readInt();
+			List<Entry> entries = new ArrayList<>(n);
+			for (int i = 0; i < n; i++) {
+				String profile = readString(in);
+				String credentials = readString(in);
+				entries.add(new Entry(TokenCacheValue.builder()
+						.profile(profile)
+						.token(readString(in))
+						// reloj provisional: TokenService#onLocalClock lo pasa al suyo antes de cachearlo
+						.expires(Instant.ofEpochMilli(in.readLong()), Ticker.systemTicker())
+						.issuedAt(Instant.ofEpochMilli(in.readLong()))
+						.build(), credentials));
+			}
+			return entries;
+		} catch (IOException | GeneralSecurityException e) {
+			// clave distinta, fichero truncado o manipulado
+			throw new IllegalStateException("Snapshot de tokens ilegible: " + e, e);
+		}
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static byte[] header() {
+		return ByteBuffer.allocate(HEADER_BYTES).put(MAGIC).put(VERSION).array();
+	}
+
+}
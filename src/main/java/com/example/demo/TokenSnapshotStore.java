@@ -0,0 +1,144 @@
+package com.example.demo;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Instant;
+import java.util.List;
+
+import org.springframework.stereotype.Component;
+
+import com.github.benmanes.caffeine.cache.Cache;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Copia cifrada de la caché de tokens en disco (app.auth.snapshot). Se carga al crear el bean, antes
+ * de ApplicationReadyEvent, así el warm-up y el refresco anticipado ya encuentran el token restaurado;
+ * y se reescribe tras cada refresco.
+ */
+@Slf4j
+@Component
+public class TokenSnapshotStore {
+
+	private final AuthProperties.Snapshot cfg;
+	private final Cache<String, TokenCacheValue> cache;
+	private final TokenService tokenService;
+
+	private TokenSnapshotCodec codec;
+	private Disposable subscription;
+
+	public TokenSnapshotStore(AuthProperties props, Cache<String, TokenCacheValue> cache, TokenService tokenService) {
+		this.cfg = props.getSnapshot();
+		this.cache = cache;
+		this.tokenService = tokenService;
+	}
+
+	@PostConstruct
+	public void start() {
+		if (!cfg.isEnabled()) {
+			return;
+		}
+		codec = new TokenSnapshotCodec(cfg.getKey());
+		load();
+		// la escritura (E/S de disco) fuera de los hilos del event loop; si se acumulan refrescos
+		// basta con escribir el último estado
+		subscription = tokenService.refreshes()
+				.onBackpressureLatest()
+				.concatMap(v -> Mono.fromRunnable(this::save).subscribeOn(Schedulers.boundedElastic()), 1)
+				.subscribe(null, e -> log.warn("Escritura del snapshot de tokens detenida: {}", e.toString()));
+	}
+
+	@PreDestroy
+	public void stop() {
+		if (subscription != null) {
+			subscription.dispose();
+		}
+	}
+
+	/**
+	 * Restaura en la caché los tokens del fichero a los que aún les quede al menos minRemaining y que
+	 * se emitieron con las credenciales que tiene ahora su perfil (url, clientId, scope, audience).
+	 */
+	int load() {
+		Path path = Path.of(cfg.getPath());
+		if (!Files.exists(path)) {
+			return 0;
+		}
+		List<TokenSnapshotCodec.Entry> entries;
+		try {
+			entries = codec.decode(Files.readAllBytes(path));
+		} catch (IOException | IllegalStateException e) {
+			log.warn("Se ignora el snapshot de tokens {}: {}", path, e.toString());
+			return 0;
+		}
+		Instant minExpiry = Instant.now().plus(cfg.getMinRemaining());
+		int restored = 0;
+		for (TokenSnapshotCodec.Entry e : entries) {
+			TokenCacheValue v = e.value();
+			if (!e.credentials().equals(fingerprint(v.getProfile()))) {
+				log.info("Token [{}] del snapshot emitido con otras credenciales: no se restaura", v.getProfile());
+				continue;
+			}
+			if (v.getExpiresAt().isAfter(minExpiry)) {
+				// putIfAbsent: nunca pisa un token que ya se haya pedido en este arranque
+				if (cache.asMap().putIfAbsent(v.getProfile(), tokenService.onLocalClock(v)) == null) {
+					restored++;
+				}
+			}
+		}
+		log.info("Snapshot de tokens {}: {} restaurado(s) de {}", path, restored, entries.size());
+		return restored;
+	}
+
+	/** Huella de las credenciales actuales del perfil; null si el perfil ya no existe. */
+	private String fingerprint(String profile) {
+		try {
+			return tokenService.profile(profile).fingerprint();
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+	/** Escribe el contenido actual de la caché (fichero temporal + rename atómico, permisos 600). */
+	void save() {
+		Path path = Path.of(cfg.getPath()).toAbsolutePath();
+		try {
+			Files.createDirectories(path.getParent());
+			Path tmp = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+			try {
+				restrictPermissions(tmp);
+				Files.write(tmp, codec.encode(tokenService.cachedTokens().stream()
+						.map(v -> new TokenSnapshotCodec.Entry(v, fingerprint(v.getProfile())))
+						.filter(e -> e.credentials() != null)
+						.toList()));
+				try {
+					Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				} catch (AtomicMoveNotSupportedException e) {
+					Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+				}
+			} finally {
+				Files.deleteIfExists(tmp);
+			}
+		} catch (IOException | IllegalStateException e) {
+			log.warn("No se pudo guardar el snapshot de tokens {}: {}", path, e.toString());
+		}
+	}
+
+	private static void restrictPermissions(Path file) throws IOException {
+		try {
+			Files.setPosixFilePermissions(file, PosixFilePermissions.fromString("rw-------"));
+		} catch (UnsupportedOperationException e) {
+			// sistema de ficheros sin permisos POSIX (p. ej. Windows)
+		}
+	}
+
+}
@@ -0,0 +1,56 @@
+package com.example.demo;
+
+import java.time.Duration;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Almacén compartido (L2) de tokens entre réplicas, detrás de la caché local Caffeine (L1) de
+ * {@link TokenService}. Con él solo una réplica pide el token al IdP por perfil y el resto lo lee de aquí.
+ *
+ * <p>El "lease" es un cerrojo con caducidad entre nodos: quien lo obtiene refresca y publica con
+ * {@link #put}; los demás esperan a ver el resultado con {@link #get}. Si el dueño muere, el lease
+ * caduca solo y otro nodo toma el relevo.
+ *
+ * <p>Una implementación sobre Redis encaja directamente: {@code get}/{@code put} = GET/SET con PX
+ * hasta la expiración del token, {@code tryLease} = SET NX PX y {@code release} = borrado
+ * condicionado al dueño (script Lua).
+ */
+public interface TokenStore {
+
+	/** Sin almacén compartido: cada réplica pide sus propios tokens. */
+	TokenStore NONE = new TokenStore() {
+		@Override
+		public Mono<TokenCacheValue> get(String profile) {
+			return Mono.empty();
+		}
+
+		@Override
+		public Mono<Void> put(TokenCacheValue value) {
+			return Mono.empty();
+		}
+
+		@Override
+		public Mono<Boolean> tryLease(String profile, String owner, Duration ttl) {
+			return Mono.just(true);
+		}
+
+		@Override
+		public Mono<Void> release(String profile, String owner) {
+			return Mono.empty();
+		}
+	};
+
+	/** Último token publicado para el perfil (vacío si no hay). */
+	Mono<TokenCacheValue> get(String profile);
+
+	/** Publica el token para el resto de réplicas. */
+	Mono<Void> put(TokenCacheValue value);
+
+	/** Intenta quedarse el lease de refresco del perfil durante {@code ttl}; true si lo consigue. */
+	Mono<Boolean> tryLease(String profile, String owner, Duration ttl);
+
+	/** Suelta el lease si sigue siendo de {@code owner}. */
+	Mono<Void> release(String profile, String owner);
+
+}
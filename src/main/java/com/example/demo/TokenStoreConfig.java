@@ -0,0 +1,22 @@
+package com.example.demo;
+
+import java.nio.file.Path;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class TokenStoreConfig {
+
+	/** L2 compartida según app.auth.store.type (la L1 es la caché de {@link CaffeineConfig}). */
+	@Bean
+	public TokenStore tokenStore(AuthProperties props) {
+		AuthProperties.Store cfg = props.getStore();
+		return switch (cfg.getType()) {
+			case NONE -> TokenStore.NONE;
+			case MEMORY -> new InMemoryTokenStore();
+			case FILE -> new FileTokenStore(Path.of(cfg.getDir()), cfg.getKey());
+		};
+	}
+
+}
@@ -0,0 +1,26 @@
+package com.example.demo;
+
+import java.time.Duration;
+
+/**
+ * Decide cuánto vive localmente cada token: tanto la expiración que usa {@link TokenService} (y con
+ * ella el refresco anticipado) como cuánto lo conserva la caché Caffeine (ver {@link CaffeineConfig}).
+ * Se puede sustituir declarando otro bean {@code @Primary}; por defecto es {@link DefaultTokenTtlPolicy}.
+ */
+public interface TokenTtlPolicy {
+
+	/**
+	 * TTL local de un token recién emitido, ya con margen y jitter.
+	 *
+	 * @param accessToken token tal cual lo devuelve el IdP (sin "Bearer ")
+	 * @param expiresIn   expires_in de la respuesta en segundos, o null si no viene
+	 */
+	Duration ttl(String accessToken, Long expiresIn);
+
+	/**
+	 * Nanosegundos que la caché conserva la entrada a partir de {@code currentTime} (mismo reloj que
+	 * {@link TokenCacheValue#getExpiresAtNanos()}).
+	 */
+	long retainNanos(TokenCacheValue value, long currentTime);
+
+}
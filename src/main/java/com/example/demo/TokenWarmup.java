@@ -17,13 +17,15 @@ public class TokenWarmup {
 	}
 
 	/**
-	 * Se ejecuta cuando la app está lista: precarga el token sin bloquear el hilo.
+	 * Se ejecuta cuando la app está lista: precarga el token sin bloquear el hilo. Si ya hay uno
+	 * válido en caché (restaurado del snapshot) no se va al IdP.
 	 */
 	@EventListener(ApplicationReadyEvent.class)
 	public void onReady() {
-		tokenService.refreshToken().doOnSuccess(t -> log.info("Token precargado correctamente")).doOnError(
-				e -> log.warn("No se pudo precargar el token (se intentará cuando haga falta): {}", e.toString()))
-				.subscribe(); // importante: NO block(), suscríbete
+		// importante: NO block(), suscríbete (con consumidor de error para que no acabe en onErrorDropped)
+		tokenService.getValidToken().subscribe(
+				t -> log.info("Token precargado correctamente"),
+				e -> log.warn("No se pudo precargar el token (se intentará cuando haga falta): {}", e.toString()));
 	}
 
 }
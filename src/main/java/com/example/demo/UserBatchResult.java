@@ -0,0 +1,28 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Value;
+
+/** Resultado de un elemento de POST /api/users/batch; se emiten según terminan, no en orden. */
+@Value
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class UserBatchResult {
+
+	long index; // posición del payload en el lote (0..n-1)
+
+	boolean ok;
+
+	String response; // cuerpo devuelto por el API de usuarios si ok
+
+	String error; // motivo del fallo si !ok
+
+	static UserBatchResult ok(long index, String response) {
+		return new UserBatchResult(index, true, response, null);
+	}
+
+	static UserBatchResult failed(long index, Throwable error) {
+		return new UserBatchResult(index, false, null, error.getMessage() != null ? error.getMessage() : error.toString());
+	}
+
+}
@@ -1,49 +1,393 @@
 package com.example.demo;
 
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Component;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientResponseException;
 
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
 import lombok.NonNull;
-import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
 
 @Slf4j
 @Component
-@RequiredArgsConstructor
 public class UsersClient {
 
     private final @NonNull WebClient webClient;
     private final @NonNull AuthProperties authProperties; // elimínalo si no lo usas
+    private final @NonNull UsersProperties usersProperties;
     private final @NonNull TokenService tokenService;
+    private final @NonNull MeterRegistry registry;
+    private final @NonNull RateLimiter limiter; // peticiones al API de usuarios (app.http.api.rateLimit)
+
+    private final Counter unauthorizedRetries;
+    private final Counter hedgesFired;
+    private final Counter hedgesWon;
+
+    /** p95 observado del POST (nanos) y cuándo se calculó: se recalcula como mucho una vez por segundo. */
+    private volatile long observedP95Nanos;
+    private volatile long observedP95At = System.nanoTime() - TimeUnit.SECONDS.toNanos(1);
+
+    /** Latencia media del POST (EWMA, bits de un double en nanos; 0 = sin muestras). */
+    private final AtomicLong latencyEwma = new AtomicLong();
+
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+	/** Sin límite de peticiones al API (salvo los Retry-After de sus 429). */
+	public UsersClient(WebClient webClient, AuthProperties authProperties, UsersProperties usersProperties,
+			TokenService tokenService, MeterRegistry registry) {
+		this(webClient, authProperties, usersProperties, tokenService, registry, RateLimiter.unlimited("api"));
+	}
+
+	@Autowired
+	public UsersClient(@Qualifier("apiWebClient") WebClient webClient, AuthProperties authProperties,
+			UsersProperties usersProperties, TokenService tokenService, MeterRegistry registry,
+			@Qualifier("apiRateLimiter") RateLimiter limiter) {
+		this.webClient = webClient;
+		this.limiter = limiter;
+		this.authProperties = authProperties;
+		this.usersProperties = usersProperties;
+		this.tokenService = tokenService;
+		this.registry = registry;
+		this.unauthorizedRetries = Counter.builder("users.client.unauthorized.retries")
+				.description("Reintentos del POST tras un 401 con token refrescado")
+				.register(registry);
+		this.hedgesFired = Counter.builder("users.client.hedges")
+				.description("POST de cobertura lanzados / ganados")
+				.tag("event", "fired")
+				.register(registry);
+		this.hedgesWon = Counter.builder("users.client.hedges")
+				.description("POST de cobertura lanzados / ganados")
+				.tag("event", "won")
+				.register(registry);
+	}
 
 	public Mono<String> addUser(Object payload) {
+		return addUser(payload, null);
+	}
+
+	/**
+	 * Alta de un usuario. Con {@code idempotencyKey} el alta es idempotente: la clave se reenvía en
+	 * {@value #IDEMPOTENCY_KEY} y, si hay hedging, un POST lento se cubre con un segundo.
+	 * Respeta el {@link Deadline} del Context (o {@code defaultDeadline}).
+	 */
+	public Mono<String> addUser(Object payload, String idempotencyKey) {
+		return add(payload, idempotencyKey, spec -> spec.bodyToMono(String.class), body -> {
+		});
+	}
+
+	/**
+	 * Como {@link #addUser(Object, String)}, pero sin leer la respuesta: devuelve el estado, las cabeceras
+	 * y el cuerpo como los {@link DataBuffer} que llegan del API, para reenviarlos tal cual (sin
+	 * acumularlos en memoria ni pasar por String). El cuerpo hay que consumirlo o cancelarlo.
+	 * El plazo y el hedging cubren hasta recibir las cabeceras.
+	 */
+	public Mono<ResponseEntity<Flux<DataBuffer>>> addUserStreaming(Object payload, String idempotencyKey) {
+		return add(payload, idempotencyKey, spec -> spec.toEntityFlux(DataBuffer.class),
+				// respuesta de un intento descartado: se drena para liberar buffers y conexión
+				entity -> entity.getBody().subscribe(DataBufferUtils::release));
+	}
+
+	private <T> Mono<T> add(Object payload, String idempotencyKey,
+			Function<WebClient.ResponseSpec, Mono<T>> extract, Consumer<T> discard) {
 		// Obtiene token válido de cache (o refresca si hizo falta), hace POST y
 		// reintenta 1 vez si 401
-		// 1) Usa token válido
-		return tokenService
-				.getValidToken()
-				.flatMap(tok -> sendPost(authProperties.getUrl(), payload, tok))
-				// 2) Si 401, refresca y reintenta una sola vez
+		// 1) Usa token válido (con su generación)
+		return withDeadline(Mono.deferContextual(ctx -> tokenService
+				.getValidTokenValue(AuthProperties.DEFAULT_PROFILE, minTokenTtl(Deadline.from(ctx))))
+				.flatMap(tok -> post(addUrl(), payload, tok.getToken(), idempotencyKey, extract, discard)
+						// 2) Si 401, se invalida solo esa generación y se reintenta una sola vez con el token vigente:
+						// una ráfaga de 401 con el mismo token comparte un único refresco
+						.onErrorResume(WebClientResponseException.Unauthorized.class,
+								e -> {
+									unauthorizedRetries.increment();
+									return tokenService.refreshRejected(tok.getProfile(), tok.getGeneration())
+											.flatMap(fresh -> post(addUrl(), payload, fresh.getToken(), idempotencyKey,
+													extract, discard));
+								})));
+	}
+
+	/**
+	 * Alta en lote: un solo token para todo el lote y como mucho {@code batchConcurrency} POST en vuelo
+	 * (flatMap con límite, así solo se piden al origen tantos payloads como caben). Cada elemento
+	 * produce un {@link UserBatchResult} en cuanto termina; un fallo no corta el lote. Si el token se
+	 * rechaza a mitad de lote, el resto sigue con el nuevo.
+	 */
+	public Flux<UserBatchResult> addUsers(Flux<?> payloads) {
+		return Mono.deferContextual(ctx -> tokenService
+				.getValidTokenValue(AuthProperties.DEFAULT_PROFILE, minTokenTtl(Deadline.from(ctx))))
+				.flatMapMany(first -> {
+					AtomicReference<TokenCacheValue> current = new AtomicReference<>(first);
+					String url = addUrl();
+					return payloads.index()
+							.flatMap(item -> withDeadline(addOne(url, item.getT2(), current))
+									.map(body -> UserBatchResult.ok(item.getT1(), body))
+									.onErrorResume(e -> Mono.just(UserBatchResult.failed(item.getT1(), e))),
+									usersProperties.getBatchConcurrency());
+				});
+	}
+
+	private Mono<String> addOne(String url, Object payload, AtomicReference<TokenCacheValue> current) {
+		return Mono.deferContextual(ctx -> {
+			TokenCacheValue tok = current.get();
+			Duration minTtl = minTokenTtl(Deadline.from(ctx));
+			if (tokenService.remainingNanos(tok) > minTtl.toNanos()) {
+				return postOne(url, payload, tok, current);
+			}
+			// lote largo: el token del lote caducaría durante este POST, se cambia antes
+			return tokenService.getValidTokenValue(tok.getProfile(), minTtl)
+					.doOnNext(fresh -> current.accumulateAndGet(fresh,
+							(a, b) -> b.getGeneration() > a.getGeneration() ? b : a))
+					.flatMap(fresh -> postOne(url, payload, fresh, current));
+		});
+	}
+
+	private Mono<String> postOne(String url, Object payload, TokenCacheValue tok, AtomicReference<TokenCacheValue> current) {
+		return sendPost(url, payload, tok.getToken(), null)
 				.onErrorResume(WebClientResponseException.Unauthorized.class,
-						e -> tokenService.refreshToken().flatMap(tok -> sendPost(authProperties.getUrl(), payload, tok)));
-	}
-
-	private Mono<String> sendPost(String url, Object body, String authHeaderValue) {
-		return webClient
-				.post()
-				.uri(url)
-				.contentType(MediaType.APPLICATION_JSON)
-				.accept(MediaType.APPLICATION_JSON)
-				.header(HttpHeaders.AUTHORIZATION, authHeaderValue) // ya viene "Bearer …"
-				.retrieve()
-				.onStatus(s -> s.isError(), resp -> resp.bodyToMono(String.class).defaultIfEmpty("")
-						.flatMap(b -> Mono.error(
-								new IllegalStateException("POST " + url + " -> " + resp.statusCode() + " : " + b))))
-				.bodyToMono(String.class);
+						e -> {
+							unauthorizedRetries.increment();
+							return tokenService.refreshRejected(tok.getProfile(), tok.getGeneration())
+									.doOnNext(fresh -> current.accumulateAndGet(fresh,
+											(a, b) -> b.getGeneration() > a.getGeneration() ? b : a))
+									.flatMap(fresh -> sendPost(url, payload, fresh.getToken(), null));
+						});
+	}
+
+	/**
+	 * Vida mínima del token para una llamada: latencia esperada x latencyFactor, acotada por
+	 * {@code max} y por lo que quede del plazo (la llamada no puede durar más). Cero si está desactivado
+	 * o aún no hay muestras.
+	 */
+	Duration minTokenTtl(Deadline deadline) {
+		UsersProperties.MinTokenTtl cfg = usersProperties.getMinTokenTtl();
+		if (!cfg.isEnabled()) {
+			return Duration.ZERO;
+		}
+		long nanos = Math.min((long) (expectedLatencyNanos() * cfg.getLatencyFactor()), cfg.getMax().toNanos());
+		if (deadline != null) {
+			nanos = Math.min(nanos, deadline.remaining().toNanos());
+		}
+		return Duration.ofNanos(Math.max(0, nanos));
+	}
+
+	/** Latencia esperada del POST: media móvil exponencial de las llamadas correctas. */
+	double expectedLatencyNanos() {
+		return Double.longBitsToDouble(latencyEwma.get());
+	}
+
+	private void recordLatency(long nanos) {
+		double alpha = usersProperties.getMinTokenTtl().getEwmaAlpha();
+		latencyEwma.getAndUpdate(bits -> {
+			double prev = Double.longBitsToDouble(bits);
+			double next = prev == 0 ? nanos : prev + alpha * (nanos - prev);
+			return Double.doubleToRawLongBits(next);
+		});
+	}
+
+	private String addUrl() {
+		String url = usersProperties.getAddUrl();
+		return url != null && !url.isBlank() ? url : authProperties.getUrl();
+	}
+
+	/**
+	 * Corta la llamada al agotarse el plazo del Context; sin plazo en el Context usa
+	 * {@code defaultDeadline} y lo deja en el Context para que sendPost lo reenvíe.
+	 */
+	private <T> Mono<T> withDeadline(Mono<T> call) {
+		return Mono.deferContextual(ctx -> {
+			Deadline inbound = Deadline.from(ctx);
+			Duration fallback = usersProperties.getDefaultDeadline();
+			if (inbound == null && (fallback == null || fallback.isZero())) {
+				return call;
+			}
+			Deadline deadline = inbound != null ? inbound : Deadline.after(fallback);
+			Mono<T> exceeded = Mono.error(() -> new DeadlineExceededException("Plazo agotado en POST " + addUrl()));
+			if (deadline.isExpired()) {
+				return exceeded;
+			}
+			Mono<T> bounded = call.timeout(deadline.remaining(), exceeded);
+			return inbound != null ? bounded : bounded.contextWrite(c -> Deadline.put(c, deadline));
+		});
+	}
+
+	private <T> Mono<T> post(String url, Object body, String authHeaderValue, String idempotencyKey,
+			Function<WebClient.ResponseSpec, Mono<T>> extract, Consumer<T> discard) {
+		if (idempotencyKey == null || !usersProperties.getHedge().isEnabled()) {
+			return sendPost(url, body, authHeaderValue, idempotencyKey, extract);
+		}
+		return hedged(() -> sendPost(url, body, authHeaderValue, idempotencyKey, extract), discard);
+	}
+
+	/**
+	 * Lanza el POST y, si no ha respondido tras {@link #hedgeDelay()}, otro igual. Gana la primera
+	 * respuesta correcta y la otra se cancela. Si el primero falla antes de lanzar el segundo, el error
+	 * sale tal cual (un 401 o un 4xx no se cubren); con los dos en vuelo solo falla si fallan ambos.
+	 */
+	private <T> Mono<T> hedged(Supplier<Mono<T>> attempt, Consumer<T> discard) {
+		AtomicBoolean fired = new AtomicBoolean();
+		AtomicInteger failures = new AtomicInteger();
+		Mono<Attempt<T>> primary = attempt(attempt.get(), false);
+		Mono<Attempt<T>> backup = Mono.delay(hedgeDelay())
+				.then(Mono.defer(() -> {
+					fired.set(true);
+					hedgesFired.increment();
+					return attempt(attempt.get(), true);
+				}));
+		return Flux.merge(primary, backup)
+				.<Attempt<T>>handle((a, sink) -> {
+					if (a.error() == null) {
+						sink.next(a);
+					} else if ((!a.hedge() && !fired.get()) || failures.incrementAndGet() == 2) {
+						sink.error(a.error());
+					}
+				})
+				.next() // cancela el intento perdedor (o el delay si aún no se lanzó)
+				.doOnDiscard(Attempt.class, a -> discardBody(a, discard))
+				.doOnNext(a -> {
+					if (a.hedge()) {
+						hedgesWon.increment();
+					}
+				})
+				.mapNotNull(Attempt::body);
+	}
+
+	private static <T> Mono<Attempt<T>> attempt(Mono<T> call, boolean hedge) {
+		return call.map(b -> new Attempt<>(hedge, b, null))
+				.defaultIfEmpty(new Attempt<>(hedge, null, null))
+				.onErrorResume(e -> Mono.just(new Attempt<>(hedge, null, e)));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void discardBody(Attempt<?> attempt, Consumer<T> discard) {
+		if (attempt.body() != null) {
+			discard.accept((T) attempt.body());
+		}
+	}
+
+	private record Attempt<T>(boolean hedge, T body, Throwable error) {
+	}
+
+	/** Espera antes del POST de cobertura: fija, o el p95 observado acotado entre minDelay y delay. */
+	Duration hedgeDelay() {
+		UsersProperties.Hedge cfg = usersProperties.getHedge();
+		if (!cfg.isAdaptive()) {
+			return cfg.getDelay();
+		}
+		long now = System.nanoTime();
+		if (now - observedP95At >= TimeUnit.SECONDS.toNanos(1)) {
+			observedP95Nanos = observedP95();
+			observedP95At = now;
+		}
+		long p95 = observedP95Nanos;
+		if (p95 <= 0) {
+			return cfg.getDelay();
+		}
+		return Duration.ofNanos(Math.max(cfg.getMinDelay().toNanos(), Math.min(cfg.getDelay().toNanos(), p95)));
+	}
+
+	private long observedP95() {
+		Timer timer = registry.find("users.client.post").tag("outcome", "success").timer();
+		if (timer != null) {
+			for (ValueAtPercentile v : timer.takeSnapshot().percentileValues()) {
+				if (v.percentile() == 0.95) {
+					return (long) v.value(TimeUnit.NANOSECONDS);
+				}
+			}
+		}
+		return 0;
+	}
+
+	private Mono<String> sendPost(String url, Object body, String authHeaderValue, String idempotencyKey) {
+		return sendPost(url, body, authHeaderValue, idempotencyKey, spec -> spec.bodyToMono(String.class));
+	}
+
+	/**
+	 * POST al API pasando por el {@link RateLimiter}: se espera turno (como mucho maxWait o lo que quede
+	 * del plazo) o se descarta con 429 sin enviarlo. Un 429 del API pausa el limitador hasta su
+	 * Retry-After y se reintenta (maxRetries) esperando ese turno, siempre que quepa en maxWait y en el
+	 * plazo; si no, se falla al momento con 429 y el Retry-After del API para que quien llama reintente.
+	 */
+	private <T> Mono<T> sendPost(String url, Object body, String authHeaderValue, String idempotencyKey,
+			Function<WebClient.ResponseSpec, Mono<T>> extract) {
+		return Mono.deferContextual(ctx -> {
+			Deadline deadline = Deadline.from(ctx);
+			Duration maxWait = deadline != null ? deadline.remaining() : limiter.getConfig().getMaxWait();
+			return limiter.acquire(maxWait).then(exchange(url, body, authHeaderValue, idempotencyKey, extract, deadline));
+		})
+				.retryWhen(Retry.max(limiter.getConfig().getMaxRetries())
+						.filter(e -> e instanceof RateLimitedException r && r.isFromDestination())
+						.onRetryExhaustedThrow((spec, s) -> s.failure()));
+	}
+
+	/** Un POST al API; {@code extract} decide cómo se lee la respuesta (String entero o entidad en streaming). */
+	private <T> Mono<T> exchange(String url, Object body, String authHeaderValue, String idempotencyKey,
+			Function<WebClient.ResponseSpec, Mono<T>> extract, Deadline deadline) {
+		return Mono.defer(() -> {
+			Timer.Sample sample = Timer.start(registry);
+			WebClient.ResponseSpec spec = webClient
+					.post()
+					.uri(url)
+					.contentType(MediaType.APPLICATION_JSON)
+					.accept(MediaType.APPLICATION_JSON)
+					.headers(h -> {
+						h.set(HttpHeaders.AUTHORIZATION, authHeaderValue); // ya viene "Bearer …"
+						if (idempotencyKey != null) {
+							h.set(IDEMPOTENCY_KEY, idempotencyKey);
+						}
+						if (deadline != null) { // el API de usuarios recibe lo que queda de plazo
+							h.set(Deadline.HEADER, Long.toString(deadline.remaining().toMillis()));
+						}
+					})
+					// JsonBody: bytes ya serializados, se envían tal cual (ByteArrayEncoder) sin pasar por Jackson
+					.bodyValue(body instanceof JsonBody json ? json.bytes() : body)
+					.retrieve()
+					// 401 se deja como WebClientResponseException.Unauthorized para que addUser reintente
+					.onStatus(s -> s.value() == HttpStatus.UNAUTHORIZED.value(), resp -> resp.createException())
+					.onStatus(s -> s.value() == HttpStatus.TOO_MANY_REQUESTS.value(),
+							resp -> resp.releaseBody().then(Mono.error(limiter.throttled(resp.headers().asHttpHeaders()))))
+					.onStatus(s -> s.isError(), resp -> resp.bodyToMono(String.class).defaultIfEmpty("")
+							.flatMap(b -> Mono.error(
+									new IllegalStateException("POST " + url + " -> " + resp.statusCode() + " : " + b))));
+			return extract.apply(spec)
+					.doOnSuccess(b -> stop(sample, "success"))
+					.doOnError(e -> stop(sample, "failure"));
+		});
+	}
+
+	private void stop(Timer.Sample sample, String outcome) {
+		long nanos = sample.stop(Timer.builder("users.client.post")
+				.description("Latencia del POST al API de usuarios")
+				.tag("outcome", outcome)
+				.publishPercentiles(0.5, 0.95, 0.99)
+				.publishPercentileHistogram()
+				.register(registry));
+		if ("success".equals(outcome)) {
+			recordLatency(nanos);
+		}
 	}
 
 }
@@ -1,10 +1,16 @@
 package com.example.demo;
 
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -13,25 +19,84 @@ import java.util.concurrent.atomic.AtomicInteger;
 @RequestMapping("/api/users")
 public class UsersController {
 
+	/** Cabeceras de la respuesta del API de usuarios que se reenvían en modo passthrough. */
+	static final List<String> PASSTHROUGH_HEADERS = List.of(HttpHeaders.CONTENT_TYPE, HttpHeaders.CONTENT_LENGTH,
+			HttpHeaders.LOCATION, HttpHeaders.ETAG, HttpHeaders.CACHE_CONTROL);
+
 	private final UsersClient client;
+	private final UsersProperties usersProperties;
+	private final IdempotentResponses idempotent;
 	private final AtomicInteger idx = new AtomicInteger(0);
 
+	// fijos: se serializan una vez y cada alta reenvía los mismos bytes
+	private final List<JsonBody> PAYLOADS;
+
 
-	public UsersController(UsersClient client) {
+	public UsersController(UsersClient client, UsersProperties usersProperties, IdempotentResponses idempotent,
+			ObjectMapper objectMapper) {
 		this.client = client;
+		this.usersProperties = usersProperties;
+		this.idempotent = idempotent;
+		this.PAYLOADS = List.of(
+				JsonBody.of(objectMapper, Map.of("firstName", "Muhammad", "lastName", "Ovi", "age", 25)),
+				JsonBody.of(objectMapper, Map.of("firstName", "Ada", "lastName", "Lovelace", "age", 36)),
+				JsonBody.of(objectMapper, Map.of("firstName", "Linus", "lastName", "Torvalds", "age", 54)));
 	}
-	
-	private final List<Map<String, Object>> PAYLOADS = List.of(
-			Map.of("firstName", "Muhammad", "lastName", "Ovi", "age", 25),
-			Map.of("firstName", "Ada", "lastName", "Lovelace", "age", 36),
-			Map.of("firstName", "Linus", "lastName", "Torvalds", "age", 54));
 
 
+	/**
+	 * Con {@value Deadline#HEADER} la llamada al API de usuarios se corta al agotar ese plazo (504);
+	 * con {@value UsersClient#IDEMPOTENCY_KEY} el alta es idempotente y admite hedging, y los reintentos
+	 * con la misma clave reciben la respuesta de la primera (ver {@link IdempotentResponses}).
+	 * Con {@code app.users.passthrough} la respuesta del API se reenvía en streaming (mismo estado,
+	 * {@link #PASSTHROUGH_HEADERS} y los DataBuffer del cuerpo sin pasar por String).
+	 */
 	@PostMapping(value = "/add-rotating", produces = MediaType.APPLICATION_JSON_VALUE)
-	public Mono<ResponseEntity<String>> addRotating() {
+	public Mono<ResponseEntity<Flux<DataBuffer>>> addRotating(
+			@RequestHeader(value = Deadline.HEADER, required = false) String timeout,
+			@RequestHeader(value = UsersClient.IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
 		int i = Math.floorMod(idx.getAndIncrement(), PAYLOADS.size());
-		Map<String, Object> payload = PAYLOADS.get(i);
-		return client.addUser(payload).map(ResponseEntity::ok);
+		JsonBody payload = PAYLOADS.get(i);
+		Mono<ResponseEntity<Flux<DataBuffer>>> response = idempotent.applies(idempotencyKey)
+				// para poder repetirla, la respuesta se lee entera (hasta maxBodySize) también en passthrough
+				? idempotent.execute(idempotencyKey, () -> add(payload, idempotencyKey))
+				: add(payload, idempotencyKey);
+		return response.contextWrite(Deadline.propagate(timeout));
+	}
+
+	private Mono<ResponseEntity<Flux<DataBuffer>>> add(JsonBody payload, String idempotencyKey) {
+		return usersProperties.isPassthrough()
+				? client.addUserStreaming(payload, idempotencyKey).map(UsersController::relay)
+				: client.addUser(payload, idempotencyKey).map(UsersController::buffered);
+	}
+
+	private static ResponseEntity<Flux<DataBuffer>> relay(ResponseEntity<Flux<DataBuffer>> downstream) {
+		HttpHeaders headers = new HttpHeaders();
+		for (String name : PASSTHROUGH_HEADERS) {
+			List<String> values = downstream.getHeaders().get(name);
+			if (values != null) {
+				headers.put(name, values);
+			}
+		}
+		return new ResponseEntity<>(downstream.getBody(), headers, downstream.getStatusCode());
+	}
+
+	/** Modo sin passthrough: el cuerpo ya leído como String, con 200 y JSON como hasta ahora. */
+	private static ResponseEntity<Flux<DataBuffer>> buffered(String body) {
+		DataBuffer buffer = DefaultDataBufferFactory.sharedInstance.wrap(body.getBytes(StandardCharsets.UTF_8));
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(Flux.just(buffer));
+	}
+
+	/**
+	 * Alta en lote: acepta NDJSON o un array JSON (ambos se leen en streaming) y devuelve en NDJSON
+	 * el resultado de cada elemento según va terminando.
+	 */
+	@PostMapping(value = "/batch",
+			consumes = { MediaType.APPLICATION_NDJSON_VALUE, MediaType.APPLICATION_JSON_VALUE },
+			produces = MediaType.APPLICATION_NDJSON_VALUE)
+	public Flux<UserBatchResult> addBatch(@RequestBody Flux<Map<String, Object>> payloads,
+			@RequestHeader(value = Deadline.HEADER, required = false) String timeout) {
+		return client.addUsers(payloads).contextWrite(Deadline.propagate(timeout));
 	}
 	
 	
@@ -0,0 +1,130 @@
+package com.example.demo;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import java.time.Duration;
+
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.DecimalMax;
+import jakarta.validation.constraints.DecimalMin;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.NotNull;
+import lombok.Getter;
+import lombok.Setter;
+
+@Getter
+@Setter
+@Configuration
+@ConfigurationProperties(prefix = "app.users")
+@Validated
+public class UsersProperties {
+
+  /** URL del POST de alta de usuarios. Si no se indica se usa app.auth.url (comportamiento anterior). */
+  private String addUrl;
+
+  /** Altas en vuelo a la vez por cada lote de POST /api/users/batch (el resto espera: backpressure). */
+  @Min(1)
+  private int batchConcurrency = 64;
+
+  /**
+   * Reenviar la respuesta del API de usuarios en streaming (estado, cabeceras seleccionadas y DataBuffer
+   * del cuerpo) en lugar de leerla entera como String.
+   */
+  private boolean passthrough = false;
+
+  /** Plazo de cada alta si la petición entrante no trae X-Request-Timeout (vacío = sin plazo). */
+  private Duration defaultDeadline;
+
+  @Valid
+  private Hedge hedge = new Hedge();
+
+  @Valid
+  private MinTokenTtl minTokenTtl = new MinTokenTtl();
+
+  @Valid
+  private Idempotency idempotency = new Idempotency();
+
+  /**
+   * Altas con Idempotency-Key en POST /api/users/add-rotating: las peticiones simultáneas con la misma
+   * clave comparten una sola llamada al API y las que lleguen después (reintentos del cliente tras un
+   * timeout) reciben la respuesta guardada sin repetir el POST. Solo se guardan las respuestas correctas.
+   */
+  @Getter
+  @Setter
+  public static class Idempotency {
+
+    private boolean enabled = true;
+
+    /** Tiempo que se guarda cada respuesta desde que llega. */
+    @NotNull
+    private Duration ttl = Duration.ofMinutes(10);
+
+    /** Máximo de respuestas guardadas. */
+    @Min(1)
+    private int maximumSize = 10_000;
+
+    /** Memoria máxima de las respuestas guardadas (cuerpo y cabeceras aproximadas). */
+    @NotNull
+    private DataSize maximumWeight = DataSize.ofMegabytes(16);
+
+    /**
+     * Cuerpo máximo que se lee en memoria para guardarlo; una respuesta mayor se reenvía en streaming
+     * sin guardarse (el API recibe igualmente la Idempotency-Key).
+     */
+    @NotNull
+    private DataSize maxBodySize = DataSize.ofKilobytes(256);
+
+  }
+
+  /**
+   * Vida mínima que se exige al token antes de cada POST: la latencia esperada (media móvil
+   * exponencial de las últimas llamadas) por {@code latencyFactor}, sin pasar de {@code max} ni del
+   * plazo de la petición. Un token que caducaría durante la llamada se refresca antes de hacerla.
+   */
+  @Getter
+  @Setter
+  public static class MinTokenTtl {
+
+    private boolean enabled = true;
+
+    /** Peso de la última muestra en la media (0-1]: más alto reacciona antes, más bajo suaviza. */
+    @DecimalMin(value = "0", inclusive = false)
+    @DecimalMax("1")
+    private double ewmaAlpha = 0.2;
+
+    @DecimalMin("1")
+    private double latencyFactor = 2.0;
+
+    /** Tope: evita refrescar sin parar si el API va muy lento o el IdP emite tokens cortos. */
+    @NotNull
+    private Duration max = Duration.ofSeconds(30);
+
+  }
+
+  /**
+   * Petición de cobertura ("hedging"): si el POST no ha respondido tras {@code delay}, se lanza un
+   * segundo igual; gana la primera respuesta y la otra se cancela. Solo para altas idempotentes
+   * (las que llegan con Idempotency-Key, que se reenvía para que el API descarte el duplicado).
+   */
+  @Getter
+  @Setter
+  public static class Hedge {
+
+    private boolean enabled = false;
+
+    /** Espera antes del segundo intento; con adaptive es el máximo. */
+    @NotNull
+    private Duration delay = Duration.ofMillis(500);
+
+    /** Usar el p95 observado de users.client.post (acotado entre minDelay y delay). */
+    private boolean adaptive = true;
+
+    @NotNull
+    private Duration minDelay = Duration.ofMillis(20);
+
+  }
+
+}
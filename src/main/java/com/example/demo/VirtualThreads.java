@@ -0,0 +1,67 @@
+package com.example.demo;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ejecutores de hilos virtuales sin depender de compilar con Java 21: se crean por reflexión si la JVM
+ * los tiene y, si no, se usa un pool fijo de hilos de plataforma.
+ */
+final class VirtualThreads {
+
+	private static final Method OF_VIRTUAL = method(Thread.class, "ofVirtual");
+	private static final Method PER_TASK = method(Executors.class, "newThreadPerTaskExecutor", ThreadFactory.class);
+	// se buscan en la interfaz pública Thread.Builder: la clase que devuelve ofVirtual() no es pública
+	// y sus métodos no se pueden invocar por reflexión (IllegalAccessException)
+	private static final Class<?> BUILDER = type("java.lang.Thread$Builder");
+	private static final Method NAME = BUILDER == null ? null : method(BUILDER, "name", String.class, long.class);
+	private static final Method FACTORY = BUILDER == null ? null : method(BUILDER, "factory");
+
+	private VirtualThreads() {
+	}
+
+	static boolean available() {
+		return OF_VIRTUAL != null && PER_TASK != null && NAME != null && FACTORY != null;
+	}
+
+	/** Un hilo virtual por tarea si se puede; si no, {@code platformThreads} hilos daemon. */
+	static ExecutorService newExecutor(String prefix, boolean virtual, int platformThreads) {
+		if (virtual && available()) {
+			try {
+				// Thread.ofVirtual().name(prefix, 0).factory()
+				Object builder = OF_VIRTUAL.invoke(null);
+				builder = NAME.invoke(builder, prefix, 0L);
+				ThreadFactory factory = (ThreadFactory) FACTORY.invoke(builder);
+				return (ExecutorService) PER_TASK.invoke(null, factory);
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("No se pudo crear el ejecutor de hilos virtuales", e);
+			}
+		}
+		AtomicInteger n = new AtomicInteger();
+		return Executors.newFixedThreadPool(platformThreads, r -> {
+			Thread t = new Thread(r, prefix + n.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	private static Class<?> type(String name) {
+		try {
+			return Class.forName(name);
+		} catch (ClassNotFoundException e) {
+			return null; // JVM anterior a 21
+		}
+	}
+
+	private static Method method(Class<?> type, String name, Class<?>... params) {
+		try {
+			return type.getMethod(name, params);
+		} catch (NoSuchMethodException e) {
+			return null; // JVM anterior a 21
+		}
+	}
+
+}
@@ -1,22 +1,91 @@
 package com.example.demo;
 
+import java.util.concurrent.TimeUnit;
+
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.client.reactive.ReactorClientHttpConnector;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
+
+import com.github.benmanes.caffeine.cache.Ticker;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.WriteTimeoutHandler;
+import reactor.netty.http.HttpProtocol;
 import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
 
 @Configuration
 public class WebClientConfig {
 
+	private static final String WRITE_TIMEOUT = "cachetoken.writeTimeout";
+
+	/** WebClient del endpoint de token (pool propio, pequeño y con timeouts cortos). */
+	@Bean
+	WebClient tokenWebClient(HttpClientProperties props) {
+		return webClient("token", props.getToken());
+	}
+
+	/** WebClient del API de usuarios. */
+	@Bean
+	WebClient apiWebClient(HttpClientProperties props) {
+		return webClient("api", props.getApi());
+	}
+
+	/** Límite de peticiones al endpoint de token (lo usa TokenService), aparte del del API. */
+	@Bean
+	RateLimiter tokenRateLimiter(HttpClientProperties props, Ticker ticker, MeterRegistry registry) {
+		return new RateLimiter("token", props.getToken().getRateLimit(), ticker, registry);
+	}
+
+	/** Límite de peticiones al API de usuarios (lo usa UsersClient). */
 	@Bean
-	WebClient webClient() {
+	RateLimiter apiRateLimiter(HttpClientProperties props, Ticker ticker, MeterRegistry registry) {
+		return new RateLimiter("api", props.getApi().getRateLimit(), ticker, registry);
+	}
+
+	static WebClient webClient(String name, HttpClientProperties.Destination cfg) {
 		ExchangeStrategies strategies = ExchangeStrategies.builder()
-				.codecs(cfg -> cfg.defaultCodecs().maxInMemorySize(2 * 1024 * 1024)).build();
+				.codecs(c -> c.defaultCodecs().maxInMemorySize(2 * 1024 * 1024)).build();
 
-		return WebClient.builder().clientConnector(new ReactorClientHttpConnector(HttpClient.create()))
+		return WebClient.builder().clientConnector(new ReactorClientHttpConnector(httpClient(name, cfg)))
 				.exchangeStrategies(strategies).build();
 	}
 
+	static HttpClient httpClient(String name, HttpClientProperties.Destination cfg) {
+		return httpClient(connectionProvider(name, cfg), cfg);
+	}
+
+	static ConnectionProvider connectionProvider(String name, HttpClientProperties.Destination cfg) {
+		// metrics(true): reactor.netty.connection.provider.* en el registro global de Micrometer
+		return ConnectionProvider.builder(name)
+				.maxConnections(cfg.getMaxConnections())
+				.pendingAcquireMaxCount(cfg.getPendingAcquireMaxCount())
+				.pendingAcquireTimeout(cfg.getPendingAcquireTimeout())
+				.maxIdleTime(cfg.getMaxIdleTime())
+				.maxLifeTime(cfg.getMaxLifeTime())
+				.evictInBackground(cfg.getEvictInBackground())
+				.metrics(true)
+				.build();
+	}
+
+	static HttpClient httpClient(ConnectionProvider provider, HttpClientProperties.Destination cfg) {
+		long writeMillis = cfg.getWriteTimeout().toMillis();
+
+		// Los timeouts solo viven mientras dura cada petición: un handler fijo en la conexión del pool
+		// seguiría activo con ella ociosa y la cerraría. responseTimeout ya cubre la lectura.
+		return HttpClient.create(provider)
+				.option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) cfg.getConnectTimeout().toMillis())
+				.option(ChannelOption.SO_KEEPALIVE, cfg.isKeepAlive())
+				.responseTimeout(cfg.getResponseTimeout())
+				.doOnRequest((req, conn) -> conn.addHandlerLast(WRITE_TIMEOUT,
+						new WriteTimeoutHandler(writeMillis, TimeUnit.MILLISECONDS)))
+				.doAfterRequest((req, conn) -> conn.removeHandler(WRITE_TIMEOUT))
+				.protocol(cfg.isHttp2()
+						? new HttpProtocol[] { HttpProtocol.H2, HttpProtocol.HTTP11 }
+						: new HttpProtocol[] { HttpProtocol.HTTP11 });
+	}
+
 }
@@ -32,7 +32,7 @@ class AuthControllerTest {
 
 				TestPropertyValues
 						.of("app.auth.url=" + server.url("/auth/login"), "app.auth.username=emilys",
-								"app.auth.password=emilyspass", "app.auth.expiresInMins=30",
+								"app.auth.password=emilyspass", "app.auth.ttl.skew=30s",
 								"app.auth.tokenJsonKey=accessToken", "app.users.add-url=" + server.url("/users/add"))
 						.applyTo(ctx.getEnvironment());
 
@@ -0,0 +1,127 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.condition.EnabledForJreRange;
+import org.junit.jupiter.api.condition.JRE;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+class BlockingFacadeTest {
+
+	MockWebServer server;
+	final AtomicInteger tokenRequests = new AtomicInteger();
+	TokenService svc;
+	BlockingTokenService blockingTokens;
+	BlockingUsersClient blockingUsers;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				MockResponse response = new MockResponse().setResponseCode(200)
+						.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE);
+				if (request.getPath().startsWith("/connect/token")) {
+					return response.setHeadersDelay(100, TimeUnit.MILLISECONDS)
+							.setBody("{\"access_token\":\"TOKEN-" + tokenRequests.incrementAndGet() + "\",\"expires_in\":3600}");
+				}
+				return response.setBody("{\"id\":1}");
+			}
+		});
+		server.start();
+
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+		var usersProps = new UsersProperties();
+		usersProps.setAddUrl(server.url("/users/add").toString());
+		var blockingProps = new BlockingProperties();
+
+		var registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		var webClient = WebClient.builder().build();
+		svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		blockingTokens = new BlockingTokenService(svc, blockingProps);
+		blockingUsers = new BlockingUsersClient(new UsersClient(webClient, props, usersProps, svc, registry), blockingProps);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		blockingUsers.close();
+		server.shutdown();
+	}
+
+	@Test
+	void sharesCacheWithTheReactiveApi() {
+		Assertions.assertEquals("Bearer TOKEN-1", blockingTokens.getValidToken());
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer TOKEN-1").verifyComplete();
+		Assertions.assertEquals("Bearer TOKEN-1", blockingTokens.getValidToken());
+		Assertions.assertEquals(1, tokenRequests.get());
+	}
+
+	@Test
+	void concurrentBlockingCallersShareOneRefresh() {
+		List<CompletableFuture<String>> calls = IntStream.range(0, 50)
+				.mapToObj(i -> blockingUsers.submitAddUser(Map.of("firstName", "User" + i)))
+				.toList();
+
+		calls.forEach(c -> Assertions.assertEquals("{\"id\":1}", c.join()));
+		Assertions.assertEquals(1, tokenRequests.get());
+	}
+
+	@Test
+	@EnabledForJreRange(min = JRE.JAVA_21)
+	void usesVirtualThreadsOnJava21() throws Exception {
+		Assertions.assertTrue(VirtualThreads.available());
+		var executor = VirtualThreads.newExecutor("vt-", true, 1);
+		try {
+			Thread thread = executor.submit(Thread::currentThread).get(5, TimeUnit.SECONDS);
+			Assertions.assertTrue((Boolean) Thread.class.getMethod("isVirtual").invoke(thread));
+			Assertions.assertEquals("vt-0", thread.getName());
+		} finally {
+			executor.shutdown();
+		}
+		Assertions.assertEquals("{\"id\":1}", blockingUsers.submitAddUser(Map.of("firstName", "Ada")).get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void refusesToBlockAnEventLoopThread() {
+		Mono<String> onParallel = Mono.fromCallable(blockingTokens::getValidToken).subscribeOn(Schedulers.parallel());
+
+		StepVerifier.create(onParallel)
+				.expectErrorSatisfies(e -> {
+					Assertions.assertInstanceOf(IllegalStateException.class, e);
+					Assertions.assertTrue(e.getMessage().contains("usa la API reactiva"), e.getMessage());
+				})
+				.verify();
+		Assertions.assertEquals(0, tokenRequests.get());
+	}
+
+	@Test
+	void batchReturnsOneResultPerPayload() {
+		List<UserBatchResult> results = blockingUsers.addUsers(List.of(Map.of("a", 1), Map.of("b", 2), Map.of("c", 3)));
+
+		Assertions.assertEquals(3, results.size());
+		Assertions.assertTrue(results.stream().allMatch(UserBatchResult::isOk));
+	}
+}
@@ -1,13 +1,25 @@
 package com.example.demo;
 
+import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 
 @SpringBootTest
 class CachetokenApplicationTests {
 
+	@Autowired
+	private UsersProperties usersProperties;
+
 	@Test
 	void contextLoads() {
 	}
 
+	@Test
+	void applicationYmlKeepsTheUsersDefaults() {
+		var defaults = new UsersProperties();
+		Assertions.assertEquals(defaults.isPassthrough(), usersProperties.isPassthrough());
+		Assertions.assertEquals(defaults.getDefaultDeadline(), usersProperties.getDefaultDeadline());
+	}
+
 }
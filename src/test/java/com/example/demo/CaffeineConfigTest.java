@@ -1,42 +1,43 @@
 package com.example.demo;
 
-
-
-
-import static org.junit.jupiter.api.Assertions.*;
 import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
-import java.time.Duration;
 import java.time.Instant;
 import java.util.concurrent.TimeUnit;
 
 import static org.awaitility.Awaitility.await;
-import static org.junit.Assert.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
 
 class CaffeineConfigTest {
 
     private CaffeineConfig config;
+    private AuthProperties props;
 
     @BeforeEach
     void setUp() {
         config = new CaffeineConfig();
+        props = new AuthProperties();
+    }
+
+    private static TokenCacheValue token(Instant expiresAt) {
+        return TokenCacheValue.builder().token("Bearer T").expires(expiresAt, Ticker.systemTicker()).build();
     }
 
     @Test
     void testBeanCreation() {
-        Cache<String, TokenCacheValue> cache = config.tokenCache();
+        Cache<String, TokenCacheValue> cache = config.tokenCache(props);
         assertNotNull(cache, "El cache no debería ser null");
     }
 
     @Test
     void testEntryIsStoredAndRetrieved() {
-        Cache<String, TokenCacheValue> cache = config.tokenCache();
+        Cache<String, TokenCacheValue> cache = config.tokenCache(props);
 
-        Instant expiresAt = Instant.now().plusSeconds(10);
-        TokenCacheValue value = new TokenCacheValue(null, expiresAt);
+        TokenCacheValue value = token(Instant.now().plusSeconds(10));
 
         cache.put("token1", value);
 
@@ -45,37 +46,36 @@ class CaffeineConfigTest {
 
     @Test
     void testEntryExpiresAccordingToExpiresAt() {
-        Cache<String, TokenCacheValue> cache = config.tokenCache();
+        Cache<String, TokenCacheValue> cache = config.tokenCache(props);
 
-        // Expira en ~6 segundos (5 + 1 mínimo)
-        Instant expiresAt = Instant.now().plusSeconds(6);
-        TokenCacheValue value = new TokenCacheValue(expiresAt);
+        // Expira en ~2 segundos (sin gracia)
+        TokenCacheValue value = token(Instant.now().plusSeconds(2));
 
         cache.put("token2", value);
 
         // Al inicio debe existir
         assertNotNull(cache.getIfPresent("token2"));
 
-        // Después de ~7 segundos ya debe expirar
+        // Después de ~2 segundos ya debe expirar
         await()
-            .atMost(8, TimeUnit.SECONDS)
+            .atMost(4, TimeUnit.SECONDS)
             .until(() -> cache.getIfPresent("token2") == null);
     }
 
     @Test
     void testMinimumOneSecondExpiry() {
-        Cache<String, TokenCacheValue> cache = config.tokenCache();
+        Cache<String, TokenCacheValue> cache = config.tokenCache(props);
 
         // expiresAt ya, pero debería durar mínimo 1 segundo
-        Instant expiresAt = Instant.now().plusMillis(10);
-        TokenCacheValue value = new TokenCacheValue(expiresAt);
+        TokenCacheValue value = token(Instant.now().plusMillis(10));
 
         cache.put("token3", value);
 
         // Justo después de meterlo debe estar presente
         assertNotNull(cache.getIfPresent("token3"));
 
-        // Menos de un segundo después debería seguir ahí
-        assertNotNull(cache.getIfPresent("token3"));
+        // Pasado expiresAt, pero antes del segundo mínimo, debería seguir ahí
+        await().pollDelay(100, TimeUnit.MILLISECONDS).atMost(1, TimeUnit.SECONDS)
+            .until(() -> cache.getIfPresent("token3") != null);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,212 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class CredentialsReloadTest {
+
+	MockWebServer server;
+	AuthProperties props;
+	SimpleMeterRegistry registry;
+	TokenService svc;
+	CredentialsReloader reloader;
+
+	@TempDir
+	Path dir;
+	Path file;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		file = dir.resolve("credentials.yml");
+		props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("old-secret");
+		props.setScope("api");
+		props.getReload().setFile(file.toString());
+		props.getReload().setInterval(Duration.ofMillis(100));
+
+		registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		TokenMetrics metrics = new TokenMetrics(registry, cache);
+		svc = new TokenService(WebClient.builder().build(), props, cache, metrics);
+		reloader = new CredentialsReloader(props, svc, metrics);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		reloader.stop();
+		server.shutdown();
+	}
+
+	private static MockResponse token(String value) {
+		return new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"" + value + "\",\"expires_in\":3600}");
+	}
+
+	private void writeSecret(String secret) throws IOException {
+		Files.writeString(file, "app:\n  auth:\n    clientSecret: " + secret + "\n");
+	}
+
+	private double reloads(String result) {
+		return registry.get("auth.credentials.reloads").tag("result", result).counter().count();
+	}
+
+	@Test
+	void rotationPrefetchesWithNewCredentialsWhileTheOldTokenIsStillServed() throws Exception {
+		server.enqueue(token("OLD"));
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+		server.takeRequest();
+
+		writeSecret("new-secret");
+		server.enqueue(token("NEW").setHeadersDelay(300, TimeUnit.MILLISECONDS));
+		Mono<List<String>> rotation = reloader.reload().cache();
+		rotation.subscribe();
+
+		// mientras se pide el token nuevo se sigue sirviendo el anterior, sin esperar
+		RecordedRequest prefetch = server.takeRequest(1, TimeUnit.SECONDS);
+		Assertions.assertTrue(prefetch.getBody().readUtf8().contains("client_secret=new-secret"));
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+
+		StepVerifier.create(rotation).expectNext(List.of("default")).verifyComplete();
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer NEW").verifyComplete();
+		Assertions.assertEquals("new-secret", svc.profile("default").getClientSecret());
+		Assertions.assertEquals(1, reloads("rotated"));
+
+		// los refrescos siguientes ya usan las credenciales nuevas
+		server.enqueue(token("NEWER"));
+		StepVerifier.create(svc.forceRefresh("default")).expectNext("Bearer NEWER").verifyComplete();
+		Assertions.assertTrue(server.takeRequest().getBody().readUtf8().contains("client_secret=new-secret"));
+	}
+
+	@Test
+	void rejectedNewCredentialsAreNotSwappedIn() throws Exception {
+		server.enqueue(token("OLD"));
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+
+		writeSecret("wrong-secret");
+		server.enqueue(new MockResponse().setResponseCode(401).setBody("invalid_client"));
+		StepVerifier.create(reloader.reload()).expectError(TokenEndpointException.class).verify();
+
+		Assertions.assertEquals("old-secret", svc.profile("default").getClientSecret());
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+		Assertions.assertEquals(1, reloads("failed"));
+	}
+
+	private AuthProfile withSecret(String profile, String secret) {
+		AuthProfile p = svc.profile(profile);
+		return AuthProfile.builder().name(p.getName()).url(p.getUrl()).clientId(p.getClientId())
+				.clientSecret(secret).scope(p.getScope()).audience(p.getAudience()).build();
+	}
+
+	@Test
+	void failureOfOneProfileLeavesEveryProfileAsItWas() {
+		var reports = new AuthProperties.Profile();
+		reports.setClientId("reports");
+		reports.setClientSecret("old-reports");
+		props.getProfiles().put("reports", reports);
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				String body = request.getBody().readUtf8();
+				if (body.contains("client_secret=wrong-reports")) {
+					// llega después del token nuevo de default
+					return new MockResponse().setResponseCode(401).setBody("invalid_client")
+							.setHeadersDelay(200, TimeUnit.MILLISECONDS);
+				}
+				if (body.contains("client_secret=new-secret")) {
+					return token("NEW");
+				}
+				return token(body.contains("client_id=reports") ? "OLD-REPORTS" : "OLD");
+			}
+		});
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+		StepVerifier.create(svc.getValidToken("reports")).expectNext("Bearer OLD-REPORTS").verifyComplete();
+
+		StepVerifier.create(svc.rotateCredentials(Map.of(
+						"default", withSecret("default", "new-secret"),
+						"reports", withSecret("reports", "wrong-reports"))))
+				.expectError(TokenEndpointException.class)
+				.verify();
+
+		// ni credenciales ni tokens: el de default pedido con las nuevas no llega a la caché
+		Assertions.assertEquals("old-secret", svc.profile("default").getClientSecret());
+		Assertions.assertEquals("old-reports", svc.profile("reports").getClientSecret());
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+		StepVerifier.create(svc.getValidToken("reports")).expectNext("Bearer OLD-REPORTS").verifyComplete();
+		Assertions.assertEquals(4, server.getRequestCount());
+	}
+
+	@Test
+	void refreshWithTheOldCredentialsInFlightDoesNotOverwriteTheRotatedToken() throws Exception {
+		AtomicInteger oldRequests = new AtomicInteger();
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				if (request.getBody().readUtf8().contains("client_secret=new-secret")) {
+					return token("NEW").setHeadersDelay(200, TimeUnit.MILLISECONDS);
+				}
+				return oldRequests.incrementAndGet() == 1 ? token("OLD")
+						: token("STALE").setHeadersDelay(600, TimeUnit.MILLISECONDS);
+			}
+		});
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+		server.takeRequest();
+
+		Mono<List<String>> rotation = svc.rotateCredentials(Map.of("default", withSecret("default", "new-secret"))).cache();
+		rotation.subscribe();
+		server.takeRequest(1, TimeUnit.SECONDS);
+		// refresco con las credenciales anteriores que empieza después (generación más alta) y acaba después
+		Mono<String> stale = svc.forceRefresh("default").cache();
+		stale.subscribe();
+		server.takeRequest(1, TimeUnit.SECONDS);
+
+		StepVerifier.create(rotation).expectNext(List.of("default")).verifyComplete();
+		StepVerifier.create(stale).expectNext("Bearer NEW").verifyComplete();
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer NEW").verifyComplete();
+	}
+
+	@Test
+	void watchedFileChangesAreAppliedAndUnchangedContentIsIgnored() throws Exception {
+		writeSecret("old-secret"); // mismas credenciales que la configuración: nada que rotar
+		props.getReload().setEnabled(true);
+		reloader.start();
+		Awaitility.await().atMost(Duration.ofSeconds(2)).until(() -> registry.find("auth.credentials.reloads")
+				.tag("result", "unchanged").counter() != null);
+		Assertions.assertEquals(0, server.getRequestCount());
+
+		server.enqueue(token("NEW"));
+		writeSecret("new-secret");
+		Awaitility.await().atMost(Duration.ofSeconds(2)).until(() -> "new-secret".equals(svc.profile("default").getClientSecret()));
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer NEW").verifyComplete();
+
+		Thread.sleep(300); // varias comprobaciones más con el mismo contenido
+		Assertions.assertEquals(1, server.getRequestCount());
+		Assertions.assertEquals(1, reloads("rotated"));
+		Assertions.assertEquals(1, reloads("unchanged"));
+	}
+}
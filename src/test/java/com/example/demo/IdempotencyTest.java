@@ -0,0 +1,235 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.*;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.util.unit.DataSize;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntFunction;
+
+class IdempotencyTest {
+
+	MockWebServer server;
+	UsersProperties usersProps;
+	SimpleMeterRegistry registry;
+	AsyncCache<String, IdempotentResponse> responses;
+	UsersController controller;
+	WebTestClient web;
+
+	final AtomicInteger posts = new AtomicInteger();
+	final AtomicLong nanos = new AtomicLong();
+	volatile IntFunction<MockResponse> usersApi = n -> created(n);
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				if (request.getPath().startsWith("/connect/token")) {
+					return new MockResponse().setResponseCode(200)
+							.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+							.setBody("{\"access_token\":\"AAA\",\"expires_in\":3600}");
+				}
+				return usersApi.apply(posts.incrementAndGet());
+			}
+		});
+		server.start();
+
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+
+		usersProps = new UsersProperties();
+		usersProps.setAddUrl(server.url("/users/add").toString());
+		usersProps.setPassthrough(true);
+		usersProps.getIdempotency().setMaximumSize(2);
+
+		registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		var webClient = WebClient.builder().build();
+		var svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		Ticker ticker = nanos::get;
+		responses = new CaffeineConfig().idempotencyCache(usersProps, ticker);
+		controller = new UsersController(new UsersClient(webClient, props, usersProps, svc, registry), usersProps,
+				new IdempotentResponses(responses, usersProps, registry), new ObjectMapper());
+		web = WebTestClient.bindToController(controller).configureClient().responseTimeout(Duration.ofSeconds(10)).build();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private static MockResponse created(int n) {
+		return new MockResponse().setResponseCode(201)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setHeader("Location", "/users/" + n)
+				.setBody("{\"id\":" + n + "}");
+	}
+
+	private WebTestClient.ResponseSpec add(String key) {
+		var request = web.post().uri("/api/users/add-rotating");
+		if (key != null) {
+			request = request.header(UsersClient.IDEMPOTENCY_KEY, key);
+		}
+		return request.exchange();
+	}
+
+	/** Caffeine apunta peso y hora de escritura al completarse el futuro, que puede ser justo después de responder. */
+	private void awaitStored(String key) {
+		Awaitility.await().atMost(Duration.ofSeconds(2))
+				.until(() -> responses.synchronous().policy().eviction().orElseThrow().weightOf(key).orElse(0) > 0);
+	}
+
+	private double gets(String result) {
+		return registry.get("cache.gets").tags("cache", "idempotencyCache", "result", result).functionCounter().count();
+	}
+
+	@Test
+	void retryWithTheSameKeyIsReplayedWithoutASecondPost() {
+		add("k-1").expectStatus().isCreated()
+				.expectHeader().valueEquals("Location", "/users/1")
+				.expectHeader().doesNotExist(IdempotentResponse.REPLAYED)
+				.expectBody(String.class).isEqualTo("{\"id\":1}");
+
+		add("k-1").expectStatus().isCreated()
+				.expectHeader().valueEquals("Location", "/users/1")
+				.expectHeader().valueEquals(IdempotentResponse.REPLAYED, "true")
+				.expectBody(String.class).isEqualTo("{\"id\":1}");
+
+		Assertions.assertEquals(1, posts.get());
+		Assertions.assertEquals(1, gets("miss"));
+		Assertions.assertEquals(1, gets("hit"));
+	}
+
+	@Test
+	void concurrentRequestsWithTheSameKeyShareOneCall() {
+		usersApi = n -> created(n).setHeadersDelay(300, TimeUnit.MILLISECONDS);
+
+		List<String> bodies = Flux.range(0, 5)
+				.flatMap(i -> controller.addRotating(null, "k-1"))
+				.flatMap(entity -> entity.getBody().map(b -> b.toString(StandardCharsets.UTF_8)))
+				.collectList()
+				.block(Duration.ofSeconds(5));
+
+		Assertions.assertEquals(List.of("{\"id\":1}", "{\"id\":1}", "{\"id\":1}", "{\"id\":1}", "{\"id\":1}"), bodies);
+		Assertions.assertEquals(1, posts.get());
+	}
+
+	@Test
+	void failuresAreNotCachedSoTheRetryGoesThrough() {
+		usersApi = n -> n == 1 ? new MockResponse().setResponseCode(503).setBody("down") : created(n);
+
+		add("k-1").expectStatus().is5xxServerError();
+		add("k-1").expectStatus().isCreated().expectHeader().doesNotExist(IdempotentResponse.REPLAYED);
+
+		Assertions.assertEquals(2, posts.get());
+	}
+
+	@Test
+	void requestsWithoutOrWithOtherKeysAreNotDeduplicated() {
+		add(null).expectStatus().isCreated();
+		add(null).expectStatus().isCreated();
+		add("k-1").expectStatus().isCreated();
+		add("k-2").expectStatus().isCreated().expectHeader().valueEquals("Location", "/users/4");
+
+		Assertions.assertEquals(4, posts.get());
+	}
+
+	@Test
+	void responsesExpireAfterTheTtl() {
+		add("k-1").expectStatus().isCreated();
+		awaitStored("k-1");
+		nanos.addAndGet(usersProps.getIdempotency().getTtl().plusSeconds(1).toNanos());
+
+		add("k-1").expectStatus().isCreated().expectHeader().valueEquals("Location", "/users/2");
+		Assertions.assertEquals(2, posts.get());
+	}
+
+	@Test
+	void bodiesOverTheLimitAreStreamedButNotCached() {
+		usersProps.getIdempotency().setMaxBodySize(DataSize.ofBytes(1000));
+		String big = "{\"id\":1,\"blob\":\"" + "x".repeat(10_000) + "\"}";
+		usersApi = n -> new MockResponse().setResponseCode(201)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setChunkedBody(big, 512);
+
+		add("k-big").expectStatus().isCreated().expectBody(String.class).isEqualTo(big);
+		add("k-big").expectStatus().isCreated()
+				.expectHeader().doesNotExist(IdempotentResponse.REPLAYED)
+				.expectBody(String.class).isEqualTo(big);
+
+		Assertions.assertEquals(2, posts.get());
+		Assertions.assertNull(responses.getIfPresent("k-big"));
+
+		// las simultáneas que esperaban esa respuesta hacen su propia llamada
+		List<String> bodies = Flux.range(0, 3)
+				.flatMap(i -> controller.addRotating(null, "k-big-2"))
+				.flatMap(entity -> DataBufferUtils.join(entity.getBody()).map(b -> b.toString(StandardCharsets.UTF_8)))
+				.collectList()
+				.block(Duration.ofSeconds(5));
+		Assertions.assertEquals(List.of(big, big, big), bodies);
+	}
+
+	@Test
+	void joinersWaitOnlyUntilTheirOwnDeadline() {
+		usersApi = n -> created(n).setHeadersDelay(1500, TimeUnit.MILLISECONDS);
+		var first = controller.addRotating(null, "k-1").toFuture(); // sin plazo
+		Awaitility.await().atMost(Duration.ofSeconds(2)).until(() -> posts.get() == 1);
+
+		long start = System.nanoTime();
+		web.post().uri("/api/users/add-rotating")
+				.header(UsersClient.IDEMPOTENCY_KEY, "k-1")
+				.header(Deadline.HEADER, "200")
+				.exchange()
+				.expectStatus().isEqualTo(HttpStatus.GATEWAY_TIMEOUT);
+		Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() < 1000, "no esperó a la primera");
+
+		Assertions.assertEquals(HttpStatus.CREATED, first.join().getStatusCode());
+		Assertions.assertEquals(1, posts.get());
+	}
+
+	@Test
+	void cacheIsBoundedByCountAndBytes() {
+		add("k-1").expectStatus().isCreated();
+		add("k-2").expectStatus().isCreated();
+		add("k-3").expectStatus().isCreated();
+		Awaitility.await().atMost(Duration.ofSeconds(2)).until(() -> {
+			responses.synchronous().cleanUp();
+			return responses.synchronous().estimatedSize() <= 2; // maximumSize = 2
+		});
+
+		// una respuesta más grande que la memoria permitida no se queda en la caché
+		usersProps.getIdempotency().setMaximumWeight(DataSize.ofKilobytes(1));
+		AsyncCache<String, IdempotentResponse> small = new CaffeineConfig().idempotencyCache(usersProps, Ticker.systemTicker());
+		IdempotentResponse big = new IdempotentResponse(HttpStatus.OK, new HttpHeaders(), new byte[4096]);
+		small.synchronous().put("big", big);
+		small.synchronous().cleanUp();
+		Assertions.assertNull(small.getIfPresent("big"));
+	}
+}
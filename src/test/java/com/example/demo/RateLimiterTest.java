@@ -0,0 +1,276 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.*;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+class RateLimiterTest {
+
+	final AtomicLong nanos = new AtomicLong();
+	final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	private RateLimiter limiter(double permitsPerSecond, int burst) {
+		var cfg = new HttpClientProperties.RateLimit();
+		cfg.setEnabled(true);
+		cfg.setPermitsPerSecond(permitsPerSecond);
+		cfg.setBurst(burst);
+		return new RateLimiter("api", cfg, nanos::get, registry);
+	}
+
+	private static long millis(long n) {
+		return Duration.ofMillis(n).toNanos();
+	}
+
+	private double count(String result) {
+		return count(result, "api");
+	}
+
+	private double count(String result, String destination) {
+		return registry.get("http.client.ratelimit").tags("destination", destination, "result", result).counter().count();
+	}
+
+	@Test
+	void burstGoesAtOnceThenCallsQueueAtTheConfiguredRate() {
+		RateLimiter limiter = limiter(10, 3);
+		long maxWait = millis(1000);
+
+		Assertions.assertEquals(0, limiter.reserve(maxWait));
+		Assertions.assertEquals(0, limiter.reserve(maxWait));
+		Assertions.assertEquals(0, limiter.reserve(maxWait));
+		Assertions.assertEquals(millis(100), limiter.reserve(maxWait));
+		Assertions.assertEquals(millis(200), limiter.reserve(maxWait));
+
+		nanos.addAndGet(millis(1000)); // el bucket se rellena
+		Assertions.assertEquals(0, limiter.reserve(maxWait));
+	}
+
+	@Test
+	void callsThatWouldWaitTooLongAreShedWithoutReservingATurn() {
+		RateLimiter limiter = limiter(10, 1);
+		limiter.reserve(0);
+
+		Assertions.assertEquals(-millis(100), limiter.reserve(millis(50)));
+		Assertions.assertEquals(millis(100), limiter.reserve(millis(100))); // el descartado no consumió turno
+
+		StepVerifier.create(limiter.acquire(Duration.ofMillis(50)))
+				.expectErrorSatisfies(e -> {
+					RateLimitedException r = (RateLimitedException) e;
+					Assertions.assertFalse(r.isFromDestination());
+					Assertions.assertEquals(Duration.ofMillis(200), r.getRetryAfter());
+					Assertions.assertEquals("1", r.getHeaders().getFirst(HttpHeaders.RETRY_AFTER));
+				})
+				.verify();
+		Assertions.assertEquals(1, count("shed"));
+	}
+
+	@Test
+	void retryAfterPausesTheDestinationThenResumesWithoutABurst() {
+		RateLimiter limiter = limiter(10, 5);
+
+		limiter.pause(Duration.ofSeconds(2));
+		Assertions.assertEquals(-millis(2000), limiter.reserve(millis(1000)));
+		Assertions.assertEquals(millis(2000), limiter.reserve(millis(5000)));
+
+		nanos.addAndGet(millis(2000));
+		Assertions.assertEquals(millis(100), limiter.reserve(millis(1000)));
+		Assertions.assertEquals(1, count("throttled"));
+	}
+
+	@Test
+	void unlimitedDestinationsStillHonorRetryAfter() {
+		var cfg = new HttpClientProperties.RateLimit();
+		RateLimiter limiter = new RateLimiter("api", cfg, nanos::get, registry);
+		for (int i = 0; i < 1000; i++) {
+			Assertions.assertEquals(0, limiter.reserve(0));
+		}
+
+		limiter.pause(Duration.ofMillis(500));
+		Assertions.assertEquals(millis(500), limiter.reserve(millis(1000)));
+		Assertions.assertEquals(millis(500), limiter.reserve(millis(1000)));
+
+		limiter.pause(Duration.ofHours(1)); // acotado por maxRetryAfter
+		Assertions.assertEquals(-cfg.getMaxRetryAfter().toNanos(), limiter.reserve(millis(1000)));
+	}
+
+	@Test
+	void parsesRetryAfterAsSecondsOrHttpDate() {
+		RateLimiter limiter = limiter(10, 1);
+		HttpHeaders headers = new HttpHeaders();
+
+		Assertions.assertEquals(Duration.ofSeconds(1), limiter.retryAfter(headers)); // defaultRetryAfter
+		headers.set(HttpHeaders.RETRY_AFTER, "7");
+		Assertions.assertEquals(Duration.ofSeconds(7), limiter.retryAfter(headers));
+		headers.set(HttpHeaders.RETRY_AFTER, DateTimeFormatter.RFC_1123_DATE_TIME
+				.format(ZonedDateTime.now(ZoneOffset.UTC).plusSeconds(30)));
+		long seconds = limiter.retryAfter(headers).toSeconds();
+		Assertions.assertTrue(seconds >= 28 && seconds <= 30, "fecha HTTP: " + seconds);
+		headers.set(HttpHeaders.RETRY_AFTER, "pronto");
+		Assertions.assertEquals(Duration.ofSeconds(1), limiter.retryAfter(headers));
+	}
+
+	@Nested
+	class WithDownstreams {
+
+		MockWebServer server;
+		AuthProperties props;
+		UsersProperties usersProps;
+		RateLimiter tokenLimiter;
+		RateLimiter apiLimiter;
+		TokenService svc;
+		UsersClient client;
+
+		@BeforeEach
+		void setUp() throws IOException {
+			server = new MockWebServer();
+			server.start();
+
+			props = new AuthProperties();
+			props.setUrl(server.url("/connect/token").toString());
+			props.setClientId("m2m");
+			props.setClientSecret("secret");
+			props.setScope("api");
+			props.getResilience().setMaxRetries(1);
+			props.getResilience().setMinBackoff(Duration.ofMillis(10));
+
+			usersProps = new UsersProperties();
+			usersProps.setAddUrl(server.url("/users/add").toString());
+			usersProps.setPassthrough(true);
+
+			var http = new HttpClientProperties();
+			http.getApi().getRateLimit().setMaxWait(Duration.ofSeconds(2));
+			http.getToken().getRateLimit().setMaxWait(Duration.ofSeconds(2));
+			tokenLimiter = new RateLimiter("token", http.getToken().getRateLimit(), Ticker.systemTicker(), registry);
+			apiLimiter = new RateLimiter("api", http.getApi().getRateLimit(), Ticker.systemTicker(), registry);
+
+			Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+			var webClient = WebClient.builder().build();
+			svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache), TokenStore.NONE,
+					new DefaultTokenTtlPolicy(props), Ticker.systemTicker(), tokenLimiter);
+			client = new UsersClient(webClient, props, usersProps, svc, registry, apiLimiter);
+		}
+
+		@AfterEach
+		void tearDown() throws IOException {
+			server.shutdown();
+		}
+
+		private MockResponse token() {
+			return new MockResponse().setResponseCode(200)
+					.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+					.setBody("{\"access_token\":\"AAA\",\"expires_in\":3600}");
+		}
+
+		private MockResponse tooManyRequests(String retryAfter) {
+			return new MockResponse().setResponseCode(429).setHeader(HttpHeaders.RETRY_AFTER, retryAfter).setBody("slow down");
+		}
+
+		private MockResponse ok() {
+			return new MockResponse().setResponseCode(200)
+					.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"id\":1}");
+		}
+
+		@Test
+		void usersApi429IsRetriedAfterItsRetryAfter() {
+			server.enqueue(token());
+			server.enqueue(tooManyRequests("1"));
+			server.enqueue(ok());
+
+			long start = System.nanoTime();
+			StepVerifier.create(client.addUser(Map.of("firstName", "Ada"))).expectNext("{\"id\":1}").verifyComplete();
+
+			Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 900, "esperó el Retry-After");
+			Assertions.assertEquals(3, server.getRequestCount());
+			Assertions.assertEquals(1, registry.get("http.client.ratelimit").tags("destination", "api", "result", "throttled")
+					.counter().count());
+		}
+
+		@Test
+		void longRetryAfterIsShedAndRelayedToTheCaller() {
+			server.enqueue(token());
+			server.enqueue(tooManyRequests("30"));
+			WebTestClient web = WebTestClient.bindToController(new UsersController(client, usersProps,
+					new IdempotentResponses(new CaffeineConfig().idempotencyCache(usersProps, Ticker.systemTicker()), usersProps, registry), new ObjectMapper()))
+					.build();
+
+			web.post().uri("/api/users/add-rotating").exchange()
+					.expectStatus().isEqualTo(429)
+					.expectHeader().value(HttpHeaders.RETRY_AFTER, v -> Assertions.assertTrue(Long.parseLong(v) >= 29, v));
+			// mientras dura la pausa ni siquiera se envía
+			web.post().uri("/api/users/add-rotating").exchange().expectStatus().isEqualTo(429);
+
+			Assertions.assertEquals(2, server.getRequestCount()); // token + el único POST
+		}
+
+		@Test
+		void tokenEndpointHasItsOwnLimiterAndHonorsRetryAfter() {
+			server.enqueue(tooManyRequests("1"));
+			server.enqueue(token());
+
+			long start = System.nanoTime();
+			StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+
+			Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 900, "esperó el Retry-After");
+			Assertions.assertEquals(1, registry.get("http.client.ratelimit").tags("destination", "token", "result", "throttled")
+					.counter().count());
+			Assertions.assertEquals(0, registry.get("http.client.ratelimit").tags("destination", "api", "result", "throttled")
+					.counter().count());
+		}
+
+		@Test
+		void retryAfterLongerThanMaxWaitDefersTheTokenRetry() {
+			tokenLimiter.getConfig().setMaxWait(Duration.ofMillis(100));
+			server.enqueue(tooManyRequests("2"));
+			server.enqueue(token());
+
+			long start = System.nanoTime();
+			StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+
+			Assertions.assertTrue(Duration.ofNanos(System.nanoTime() - start).toMillis() >= 1900, "esperó el Retry-After");
+			Assertions.assertEquals(2, server.getRequestCount());
+			Assertions.assertEquals(0, count("shed", "token"));
+		}
+
+		@Test
+		void shedPermitsDoNotCountForTheCircuitBreaker() {
+			props.getResilience().setMaxRetries(0);
+			props.getResilience().getCircuitBreaker().setFailureThreshold(2);
+			var cfg = new HttpClientProperties.RateLimit();
+			cfg.setEnabled(true);
+			cfg.setPermitsPerSecond(1);
+			cfg.setBurst(1);
+			cfg.setMaxWait(Duration.ZERO);
+			Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+			var limited = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(registry, cache),
+					TokenStore.NONE, new DefaultTokenTtlPolicy(props), Ticker.systemTicker(),
+					new RateLimiter("token", cfg, nanos::get, registry));
+			server.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+			server.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+
+			StepVerifier.create(limited.getValidToken()).expectErrorMatches(e -> e instanceof TokenEndpointException).verify();
+			// sin permiso: no llega al IdP ni reinicia la cuenta de fallos del circuito
+			StepVerifier.create(limited.getValidToken()).expectError(RateLimitedException.class).verify();
+			nanos.addAndGet(millis(1000));
+			StepVerifier.create(limited.getValidToken()).expectErrorMatches(e -> e instanceof TokenEndpointException).verify();
+
+			Assertions.assertEquals(2, server.getRequestCount());
+			Assertions.assertEquals(TokenCircuitBreaker.State.OPEN, limited.circuitState(AuthProperties.DEFAULT_PROFILE));
+		}
+	}
+}
@@ -0,0 +1,113 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.PropertyNamingStrategies;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+class RequestBodyEncodingTest {
+
+	MockWebServer server;
+	AuthProperties props;
+	TokenService svc;
+	UsersClient client;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("s&e=c rét");
+		props.setScope("api");
+
+		var usersProps = new UsersProperties();
+		usersProps.setAddUrl(server.url("/users/add").toString());
+
+		var registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		var webClient = WebClient.builder().build();
+		svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		client = new UsersClient(webClient, props, usersProps, svc, registry);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private static MockResponse json(String body) {
+		return new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody(body);
+	}
+
+	@Test
+	void tokenFormIsUrlEncodedLikeSpringFormWriter() throws InterruptedException {
+		server.enqueue(json("{\"access_token\":\"AAA\",\"expires_in\":3600}"));
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+
+		RecordedRequest request = server.takeRequest();
+		Assertions.assertEquals("application/x-www-form-urlencoded;charset=UTF-8", request.getHeader("Content-Type"));
+		Assertions.assertEquals("grant_type=client_credentials&client_id=m2m&client_secret=s%26e%3Dc+r%C3%A9t&scope=api",
+				request.getBody().readUtf8());
+	}
+
+	@Test
+	void tokenFormIsEncodedOnceUntilCredentialsChange() {
+		byte[] first = svc.formBody(props.profile(AuthProperties.DEFAULT_PROFILE));
+		Assertions.assertSame(first, svc.formBody(props.profile(AuthProperties.DEFAULT_PROFILE)));
+
+		props.setClientSecret("rotated");
+		byte[] rotated = svc.formBody(props.profile(AuthProperties.DEFAULT_PROFILE));
+
+		Assertions.assertNotSame(first, rotated);
+		Assertions.assertTrue(new String(rotated, StandardCharsets.UTF_8).contains("client_secret=rotated"));
+	}
+
+	@Test
+	void preEncodedJsonIsSentAsIs() throws InterruptedException {
+		server.enqueue(json("{\"access_token\":\"AAA\",\"expires_in\":3600}"));
+		server.enqueue(json("{\"id\":1}"));
+		server.enqueue(json("{\"id\":2}"));
+		JsonBody body = JsonBody.of(new ObjectMapper(), Map.of("firstName", "Ada"));
+
+		StepVerifier.create(client.addUser(body)).expectNext("{\"id\":1}").verifyComplete();
+		StepVerifier.create(client.addUser(body)).expectNext("{\"id\":2}").verifyComplete();
+
+		server.takeRequest(); // token
+		for (int i = 0; i < 2; i++) {
+			RecordedRequest post = server.takeRequest();
+			Assertions.assertEquals(MediaType.APPLICATION_JSON_VALUE, post.getHeader("Content-Type"));
+			Assertions.assertEquals("{\"firstName\":\"Ada\"}", post.getBody().readUtf8());
+		}
+	}
+
+	record NewUser(String firstName) {
+	}
+
+	@Test
+	void preEncodedJsonUsesTheGivenMapperSettings() {
+		ObjectMapper snakeCase = Jackson2ObjectMapperBuilder.json()
+				.propertyNamingStrategy(PropertyNamingStrategies.SNAKE_CASE)
+				.build();
+
+		JsonBody body = JsonBody.of(snakeCase, new NewUser("Ada"));
+
+		Assertions.assertEquals("{\"first_name\":\"Ada\"}", new String(body.bytes(), StandardCharsets.UTF_8));
+	}
+}
@@ -0,0 +1,127 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.util.Map;
+
+class TokenMetricsTest {
+
+	MockWebServer server;
+	SimpleMeterRegistry registry;
+	TokenService svc;
+	UsersClient client;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+
+		registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		var webClient = WebClient.builder().build();
+		svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		client = new UsersClient(webClient, props, new UsersProperties(), svc, registry);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private static MockResponse token(String value) {
+		return new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"" + value + "\",\"expires_in\":3600}");
+	}
+
+	private double lookups(String result) {
+		return registry.get("auth.token.lookups").tag("result", result).counter().count();
+	}
+
+	@Test
+	void countsHitsMissesAndRefreshes() {
+		server.enqueue(token("AAA"));
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+
+		Assertions.assertEquals(1, lookups("miss"));
+		Assertions.assertEquals(1, lookups("hit"));
+		Assertions.assertEquals(1, registry.get("auth.token.refresh")
+				.tags("outcome", "success", "status", "200").counter().count());
+		Assertions.assertEquals(1, registry.get("auth.token.fetch").timer().count());
+		Assertions.assertNull(registry.get("auth.token.fetch").timer().getId().getTag("profile"), "Sin perfil en el histograma");
+		Assertions.assertEquals(1, registry.get("auth.token.refresh").tag("profile", "default").counter().count());
+		Assertions.assertTrue(registry.get("auth.token.ttl.remaining").tag("profile", "default").gauge().value() > 3200); // 3600 s menos margen y jitter
+		Assertions.assertEquals(1, registry.get("cache.gets").tags("cache", "tokenCache", "result", "hit").functionCounter().count());
+	}
+
+	@Test
+	void onlyListedProfilesGetTheirOwnSeries() {
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		for (String name : new String[] { "billing", "tenant-42" }) {
+			var profile = new AuthProperties.Profile();
+			profile.setClientId(name);
+			profile.setClientSecret("s");
+			props.getProfiles().put(name, profile);
+		}
+		props.getMetricsProfiles().add("billing");
+		var registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		var tokens = new TokenService(WebClient.builder().build(), props, cache,
+				new TokenMetrics(registry, cache, Ticker.systemTicker(), props));
+		server.enqueue(token("B"));
+		server.enqueue(token("T"));
+
+		StepVerifier.create(tokens.getValidToken("billing")).expectNext("Bearer B").verifyComplete();
+		StepVerifier.create(tokens.getValidToken("tenant-42")).expectNext("Bearer T").verifyComplete();
+
+		Assertions.assertEquals(1, registry.get("auth.token.refresh").tag("profile", "billing").counter().count());
+		Assertions.assertEquals(1, registry.get("auth.token.refresh").tag("profile", "other").counter().count());
+		Assertions.assertTrue(registry.find("auth.token.refresh").tag("profile", "tenant-42").meters().isEmpty());
+		Assertions.assertNotNull(registry.find("auth.token.ttl.remaining").tag("profile", "billing").gauge());
+		Assertions.assertEquals(1, registry.find("auth.token.ttl.remaining").gauges().size());
+		Assertions.assertEquals(1, registry.find("auth.token.circuit.state").gauges().size());
+	}
+
+	@Test
+	void countsRefreshFailuresByStatus() {
+		server.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+
+		StepVerifier.create(svc.getValidToken()).expectError(TokenEndpointException.class).verify();
+
+		Assertions.assertEquals(1, registry.get("auth.token.refresh")
+				.tags("outcome", "failure", "status", "503").counter().count());
+	}
+
+	@Test
+	void countsUnauthorizedRetriesAndDownstreamLatency() {
+		server.enqueue(token("AAA"));
+		server.enqueue(new MockResponse().setResponseCode(401));
+		server.enqueue(token("BBB")); // el 401 invalida AAA y fuerza un token nuevo
+		server.enqueue(new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"id\":1}"));
+
+		StepVerifier.create(client.addUser(Map.of("firstName", "Ada"))).expectNext("{\"id\":1}").verifyComplete();
+
+		Assertions.assertEquals(1, registry.get("users.client.unauthorized.retries").counter().count());
+		Assertions.assertEquals(1, registry.get("users.client.post").tag("outcome", "failure").timer().count());
+		Assertions.assertEquals(1, registry.get("users.client.post").tag("outcome", "success").timer().count());
+	}
+}
@@ -0,0 +1,147 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+class TokenMinTtlTest {
+
+	MockWebServer server;
+	AuthProperties props;
+	SimpleMeterRegistry registry;
+	Cache<String, TokenCacheValue> cache;
+	TokenService svc;
+	UsersClient client;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+
+		var usersProps = new UsersProperties();
+		usersProps.setAddUrl(server.url("/users/add").toString());
+
+		registry = new SimpleMeterRegistry();
+		cache = new CaffeineConfig().tokenCache(props);
+		var webClient = WebClient.builder().build();
+		svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		client = new UsersClient(webClient, props, usersProps, svc, registry);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private static MockResponse token(String value, long expiresIn) {
+		return new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"" + value + "\",\"expires_in\":" + expiresIn + "}");
+	}
+
+	/** Token de una hora al que solo le queda {@code remaining}. */
+	private void cacheToken(String token, Duration remaining) {
+		Instant expiresAt = Instant.now().plus(remaining);
+		cache.put(AuthProperties.DEFAULT_PROFILE, TokenCacheValue.builder().token(token)
+				.issuedAt(expiresAt.minus(Duration.ofHours(1))).expires(expiresAt, Ticker.systemTicker()).build());
+	}
+
+	@Test
+	void tokenThatWouldExpireDuringTheCallIsRefreshedFirst() {
+		cacheToken("Bearer SHORT", Duration.ofMillis(500));
+		server.enqueue(token("LONG", 3600));
+
+		// sin vida mínima se sigue sirviendo el actual
+		StepVerifier.create(svc.getValidToken("default")).expectNext("Bearer SHORT").verifyComplete();
+		StepVerifier.create(svc.getValidToken("default", Duration.ofSeconds(2))).expectNext("Bearer LONG").verifyComplete();
+
+		Assertions.assertEquals(1, server.getRequestCount());
+		Assertions.assertEquals(1, registry.get("auth.token.lookups").tag("result", "expiring").counter().count());
+	}
+
+	@Test
+	void tokenWithEnoughLifeLeftIsServedFromCache() {
+		cacheToken("Bearer OK", Duration.ofMinutes(5));
+
+		StepVerifier.create(svc.getValidToken("default", Duration.ofSeconds(2))).expectNext("Bearer OK").verifyComplete();
+		Assertions.assertEquals(0, server.getRequestCount());
+	}
+
+	@Test
+	void failedEarlyRefreshFallsBackToTheStillValidToken() {
+		cacheToken("Bearer SHORT", Duration.ofSeconds(5)); // sobrevive a los reintentos contra el IdP
+		server.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+
+		StepVerifier.create(svc.getValidToken("default", Duration.ofSeconds(10))).expectNext("Bearer SHORT").verifyComplete();
+	}
+
+	@Test
+	void minTtlLongerThanTheTokenLifetimeDoesNotRefreshOnEveryCall() {
+		props.getTtl().setSkew(Duration.ZERO);
+		props.getTtl().setJitter(0);
+		server.enqueue(token("A", 60));
+		server.enqueue(token("B", 60));
+
+		// la llamada dice necesitar 2 min con tokens de 1 min: se conforma con media vida del token
+		for (int i = 0; i < 5; i++) {
+			StepVerifier.create(svc.getValidToken("default", Duration.ofMinutes(2))).expectNext("Bearer A").verifyComplete();
+		}
+		Assertions.assertEquals(1, server.getRequestCount());
+	}
+
+	@Test
+	void expiredTokenWithinGraceIsServedWhileRevalidating() throws InterruptedException {
+		props.getStale().setGrace(Duration.ofMinutes(1));
+		cacheToken("Bearer OLD", Duration.ofSeconds(-1));
+		server.enqueue(token("NEW", 3600).setHeadersDelay(200, TimeUnit.MILLISECONDS));
+
+		StepVerifier.create(svc.getValidToken("default", Duration.ofSeconds(2))).expectNext("Bearer OLD").verifyComplete();
+		Assertions.assertEquals(1, registry.get("auth.token.lookups").tag("result", "stale").counter().count());
+		Assertions.assertNotNull(server.takeRequest(1, TimeUnit.SECONDS), "Revalidación en segundo plano");
+	}
+
+	@Test
+	void usersClientAsksForItsObservedLatency() throws InterruptedException {
+		props.getTtl().setSkew(Duration.ZERO); // sin margen ni jitter: el token dura exactamente expires_in
+		props.getTtl().setJitter(0);
+		server.enqueue(token("A", 1));
+		server.enqueue(new MockResponse().setResponseCode(200).setHeadersDelay(300, TimeUnit.MILLISECONDS)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"id\":1}"));
+		StepVerifier.create(client.addUser(Map.of("firstName", "Ada"))).expectNext("{\"id\":1}").verifyComplete();
+
+		Duration minTtl = client.minTokenTtl(null);
+		Assertions.assertTrue(minTtl.toMillis() >= 550, "2 x latencia observada: " + minTtl);
+		Assertions.assertTrue(client.minTokenTtl(Deadline.after(Duration.ofMillis(100))).toMillis() <= 100);
+
+		// a A le quedan menos de 2 x 300 ms: se renueva antes del POST, no tras un 401
+		Thread.sleep(250);
+		server.enqueue(token("B", 3600));
+		server.enqueue(new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"id\":2}"));
+		StepVerifier.create(client.addUser(Map.of("firstName", "Linus"))).expectNext("{\"id\":2}").verifyComplete();
+
+		server.takeRequest();
+		server.takeRequest();
+		Assertions.assertTrue(server.takeRequest().getPath().startsWith("/connect/token"));
+		Assertions.assertEquals("Bearer B", server.takeRequest().getHeader("Authorization"));
+		Assertions.assertEquals(0, registry.get("users.client.unauthorized.retries").counter().count());
+	}
+}
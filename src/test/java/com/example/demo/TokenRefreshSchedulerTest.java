@@ -0,0 +1,101 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+class TokenRefreshSchedulerTest {
+
+	MockWebServer server;
+	AuthProperties props;
+	TokenService svc;
+	TokenRefreshScheduler scheduler;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+		props.getTtl().setSkew(Duration.ZERO); // sin margen ni jitter: expires_in=2 -> TTL de 2s
+		props.getTtl().setJitter(0);
+		props.getRefreshAhead().setRatio(0.5);
+		props.getRefreshAhead().setMinBackoff(Duration.ofMillis(100));
+		props.getRefreshAhead().setMaxBackoff(Duration.ofMillis(200));
+
+		Cache<String, TokenCacheValue> cache = Caffeine.newBuilder().maximumSize(1).build();
+		svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+		scheduler = new TokenRefreshScheduler(svc, props);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		scheduler.stop();
+		server.shutdown();
+	}
+
+	private static MockResponse token(String value, long expiresIn) {
+		return new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"" + value + "\",\"expires_in\":" + expiresIn + "}");
+	}
+
+	@Test
+	void refreshesInBackgroundBeforeExpiry() {
+		server.enqueue(token("AAA", 2));
+		server.enqueue(token("BBB", 3600));
+		scheduler.start();
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+
+		// hasta que llegue el nuevo se sigue sirviendo el actual sin ir al IdP
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+
+		Awaitility.await().atMost(Duration.ofSeconds(3)).until(() -> server.getRequestCount() == 2);
+		Awaitility.await().atMost(Duration.ofSeconds(1))
+				.until(() -> "Bearer BBB".equals(svc.getValidToken().block()));
+		Assertions.assertEquals(2, server.getRequestCount());
+	}
+
+	@Test
+	void retriesWithBackoffWhenBackgroundRefreshFails() {
+		server.enqueue(token("AAA", 2));
+		server.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+		server.enqueue(token("BBB", 3600));
+		scheduler.start();
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+
+		Awaitility.await().atMost(Duration.ofSeconds(3)).until(() -> server.getRequestCount() == 3);
+		Awaitility.await().atMost(Duration.ofSeconds(1))
+				.until(() -> "Bearer BBB".equals(svc.getValidToken().block()));
+	}
+
+	@Test
+	void delayIsAFractionOfTheTokenLifetime() {
+		Instant issuedAt = Instant.parse("2024-01-01T00:00:00Z");
+		TokenCacheValue value = TokenCacheValue.builder().token("Bearer X")
+				.issuedAt(issuedAt).expires(issuedAt.plusSeconds(100), Ticker.systemTicker()).build();
+
+		// recién emitido le quedan 100 s; refresco al 50%
+		Assertions.assertEquals(Duration.ofSeconds(50), scheduler.delayFor(value, Duration.ofSeconds(100).toNanos()));
+		Assertions.assertEquals(Duration.ofSeconds(10), scheduler.delayFor(value, Duration.ofSeconds(60).toNanos()));
+		Assertions.assertEquals(Duration.ZERO, scheduler.delayFor(value, Duration.ofSeconds(10).toNanos()));
+	}
+}
@@ -0,0 +1,116 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+class TokenResponseParserTest {
+
+	private static AuthResponse parse(TokenResponseParser parser, String json) {
+		return parser.parse(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void readsStandardFieldsAndSkipsUnrelatedOnes() {
+		var parser = new TokenResponseParser("access_token", "expires_in", "token_type");
+		String json = "{\"id_token\":\"" + "x".repeat(100_000) + "\",\"claims\":{\"access_token\":\"NOPE\",\"roles\":[1,2,{\"a\":[]}]},"
+				+ "\"access_token\":\"AAA\",\"token_type\":\"Bearer\",\"expires_in\":3600}";
+
+		AuthResponse r = parse(parser, json);
+
+		Assertions.assertEquals("AAA", r.getAccessToken());
+		Assertions.assertEquals(3600L, r.getExpiresIn());
+		Assertions.assertEquals("Bearer", r.getTokenType());
+	}
+
+	@Test
+	void stopsReadingOnceAllFieldsAreFound() {
+		var parser = new TokenResponseParser("access_token", "expires_in", "token_type");
+		// lo que sigue a los tres campos ni se mira (aquí ni siquiera es JSON válido)
+		AuthResponse r = parse(parser, "{\"access_token\":\"AAA\",\"expires_in\":60,\"token_type\":\"Bearer\",\"junk\": ???");
+
+		Assertions.assertEquals("AAA", r.getAccessToken());
+		Assertions.assertEquals(60L, r.getExpiresIn());
+	}
+
+	@Test
+	void followsDottedPathsAndAcceptsNumericStrings() {
+		var parser = new TokenResponseParser("data.auth.token", "data.ttl", "type");
+		AuthResponse r = parse(parser, "{\"data\":{\"user\":{\"token\":\"NO\"},\"auth\":{\"token\":\"XYZ\"},\"ttl\":\"120\"}}");
+
+		Assertions.assertEquals("XYZ", r.getAccessToken());
+		Assertions.assertEquals(120L, r.getExpiresIn());
+		Assertions.assertNull(r.getTokenType());
+	}
+
+	@Test
+	void rejectsInvalidJson() {
+		var parser = new TokenResponseParser("access_token", "expires_in", "token_type");
+		Assertions.assertThrows(IllegalStateException.class, () -> parse(parser, "{\"access_token\": "));
+	}
+
+	@Nested
+	class WithTokenService {
+
+		MockWebServer server;
+		AuthProperties props;
+		TokenService svc;
+
+		@BeforeEach
+		void setUp() throws IOException {
+			server = new MockWebServer();
+			server.start();
+			props = new AuthProperties();
+			props.setUrl(server.url("/connect/token").toString());
+			props.setClientId("m2m");
+			props.setClientSecret("secret");
+			props.setScope("api");
+			Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+			svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+		}
+
+		@AfterEach
+		void tearDown() throws IOException {
+			server.shutdown();
+		}
+
+		private void respond(String body) {
+			server.enqueue(new MockResponse().setResponseCode(200)
+					.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody(body));
+		}
+
+		@Test
+		void honorsConfiguredTokenKey() {
+			props.setTokenJsonKey("result.token");
+			respond("{\"result\":{\"token\":\"XYZ\"},\"expires_in\":3600}");
+
+			StepVerifier.create(svc.getValidToken()).expectNext("Bearer XYZ").verifyComplete();
+		}
+
+		@Test
+		void alwaysUsesTheBearerScheme() {
+			// un token_type distinto (p. ej. DPoP) no cambia el header: necesitaría configurarse aparte
+			respond("{\"access_token\":\"XYZ\",\"token_type\":\"DPoP\",\"expires_in\":3600}");
+
+			StepVerifier.create(svc.getValidToken()).expectNext("Bearer XYZ").verifyComplete();
+		}
+
+		@Test
+		void missingTokenNamesTheConfiguredKey() {
+			props.setTokenJsonKey("token");
+			respond("{\"access_token\":\"XYZ\"}");
+
+			StepVerifier.create(svc.getValidToken())
+					.expectErrorMatches(e -> e.getMessage().contains("'token'"))
+					.verify();
+		}
+	}
+}
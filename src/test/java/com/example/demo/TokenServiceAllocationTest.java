@@ -0,0 +1,50 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.*;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+
+class TokenServiceAllocationTest {
+
+	static final int CALLS = 200_000;
+
+	@Test
+	void cacheHitDoesNotAllocate() {
+		var threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		Assumptions.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+
+		var props = new AuthProperties();
+		props.setUrl("http://localhost:1/connect/token"); // nunca se llama
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		cache.put(AuthProperties.DEFAULT_PROFILE, TokenCacheValue.builder()
+				.token("Bearer AAA").expires(Instant.now().plusSeconds(3600), Ticker.systemTicker()).build());
+		var svc = new TokenService(WebClient.builder().build(), props, cache,
+				new TokenMetrics(new SimpleMeterRegistry(), cache));
+
+		Mono<String> first = svc.getValidToken();
+		for (int i = 0; i < CALLS; i++) { // calentamiento (JIT)
+			Assertions.assertSame(first, svc.getValidToken());
+		}
+
+		long tid = Thread.currentThread().getId();
+		long before = threads.getThreadAllocatedBytes(tid);
+		Mono<String> last = null;
+		for (int i = 0; i < CALLS; i++) {
+			last = svc.getValidToken();
+		}
+		long allocated = threads.getThreadAllocatedBytes(tid) - before;
+
+		Assertions.assertSame(first, last, "Se reutiliza el mismo Mono del token");
+		// margen para asignaciones puntuales de la propia medición / mantenimiento de Caffeine
+		Assertions.assertTrue(allocated < CALLS / 100,
+				"Bytes reservados en " + CALLS + " aciertos: " + allocated);
+	}
+}
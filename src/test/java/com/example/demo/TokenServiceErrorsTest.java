@@ -2,6 +2,7 @@ package com.example.demo;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import org.junit.jupiter.api.*;
@@ -9,21 +10,22 @@ import org.springframework.web.reactive.function.client.WebClient;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
+import java.time.Duration;
 
 class TokenServiceErrorsTest {
-	static MockWebServer server;
+	MockWebServer server;
 	WebClient webClient;
 	AuthProperties props;
 	Cache<String, TokenCacheValue> cache;
 
-	@BeforeAll
-	static void start() throws IOException {
+	@BeforeEach
+	void startServer() throws IOException {
 		server = new MockWebServer();
 		server.start();
 	}
 
-	@AfterAll
-	static void stop() throws IOException {
+	@AfterEach
+	void stopServer() throws IOException {
 		server.shutdown();
 	}
 
@@ -32,9 +34,9 @@ class TokenServiceErrorsTest {
 		webClient = WebClient.builder().build();
 		props = new AuthProperties();
 		props.setUrl(server.url("/auth/login").toString());
-		props.setUsername("u");
-		props.setPassword("p");
-		props.setExpiresInMins(30);
+		props.setClientId("u");
+		props.setClientSecret("p");
+		props.getTtl().setSkew(Duration.ofSeconds(30));
 		props.setTokenJsonKey("accessToken");
 		cache = Caffeine.newBuilder().maximumSize(1).build();
 	}
@@ -42,7 +44,7 @@ class TokenServiceErrorsTest {
 	@Test
 	void auth401MapsToIllegalState() {
 		server.enqueue(new MockResponse().setResponseCode(401).setBody("bad creds"));
-		TokenService svc = new TokenService(webClient, props, cache);
+		TokenService svc = tokenService(webClient, props, cache);
 
 		StepVerifier.create(svc.refreshToken())
 				.expectErrorMatches(
@@ -54,9 +56,13 @@ class TokenServiceErrorsTest {
 	@Test
 	void auth500MapsToIllegalState() {
 		server.enqueue(new MockResponse().setResponseCode(500).setBody("boom"));
-		TokenService svc = new TokenService(webClient, props, cache);
+		TokenService svc = tokenService(webClient, props, cache);
 
 		StepVerifier.create(svc.refreshToken())
 				.expectErrorMatches(e -> e instanceof IllegalStateException && e.getMessage().contains("500")).verify();
 	}
+
+	private static TokenService tokenService(WebClient webClient, AuthProperties props, Cache<String, TokenCacheValue> cache) {
+		return new TokenService(webClient, props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+	}
 }
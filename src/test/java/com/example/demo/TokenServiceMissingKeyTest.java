@@ -1,6 +1,8 @@
 package com.example.demo;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.mockwebserver.*;
 import org.junit.jupiter.api.*;
 import org.springframework.http.MediaType;
@@ -8,18 +10,19 @@ import org.springframework.web.reactive.function.client.WebClient;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
+import java.time.Duration;
 
 class TokenServiceMissingKeyTest {
-	static MockWebServer server;
+	MockWebServer server;
 
-	@BeforeAll
-	static void start() throws IOException {
+	@BeforeEach
+	void startServer() throws IOException {
 		server = new MockWebServer();
 		server.start();
 	}
 
-	@AfterAll
-	static void stop() throws IOException {
+	@AfterEach
+	void stopServer() throws IOException {
 		server.shutdown();
 	}
 
@@ -28,20 +31,24 @@ class TokenServiceMissingKeyTest {
 		var webClient = WebClient.builder().build();
 		var props = new AuthProperties();
 		props.setUrl(server.url("/auth/login").toString());
-		props.setUsername("u");
-		props.setPassword("p");
-		props.setExpiresInMins(30);
+		props.setClientId("u");
+		props.setClientSecret("p");
+		props.getTtl().setSkew(Duration.ofSeconds(30));
 		props.setTokenJsonKey("accessToken");
 
 		// Respuesta sin 'accessToken'
 		server.enqueue(new MockResponse().setResponseCode(200)
 				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"token\":\"abc\"}"));
 
-		var svc = new TokenService(webClient, props, Caffeine.newBuilder().maximumSize(1).build());
+		var svc = tokenService(webClient, props, Caffeine.newBuilder().maximumSize(1).build());
 
 		StepVerifier.create(svc.refreshToken())
 				.expectErrorMatches(
-						e -> e instanceof IllegalStateException && e.getMessage().contains("No se encontró la clave"))
+						e -> e instanceof IllegalStateException && e.getMessage().contains("No se encontró 'accessToken'"))
 				.verify();
 	}
+
+	private static TokenService tokenService(WebClient webClient, AuthProperties props, Cache<String, TokenCacheValue> cache) {
+		return new TokenService(webClient, props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+	}
 }
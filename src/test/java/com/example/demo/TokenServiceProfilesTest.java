@@ -0,0 +1,110 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+class TokenServiceProfilesTest {
+
+	MockWebServer server;
+	TokenService svc;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		// devuelve un token distinto según el client_id del formulario
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				String form = request.getBody().clone().readUtf8();
+				String client = form.replaceAll(".*client_id=([^&]+).*", "$1");
+				return new MockResponse().setResponseCode(200)
+						.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+						.setBody("{\"access_token\":\"TOK-" + client + "\",\"expires_in\":3600}");
+			}
+		});
+		server.start();
+
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+
+		var billing = new AuthProperties.Profile();
+		billing.setClientId("billing");
+		billing.setClientSecret("s1");
+		billing.setAudience("https://billing");
+		props.getProfiles().put("billing", billing);
+
+		var crm = new AuthProperties.Profile();
+		crm.setClientId("crm");
+		crm.setClientSecret("s2");
+		crm.setScope("crm.write");
+		props.getProfiles().put("crm", crm);
+
+		Cache<String, TokenCacheValue> cache = Caffeine.newBuilder().maximumSize(10).build();
+		svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	@Test
+	void eachProfileHasItsOwnToken() {
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer TOK-m2m").verifyComplete();
+		StepVerifier.create(svc.getValidToken("billing")).expectNext("Bearer TOK-billing").verifyComplete();
+		StepVerifier.create(svc.getValidToken("crm")).expectNext("Bearer TOK-crm").verifyComplete();
+
+		// segunda ronda desde caché
+		StepVerifier.create(svc.getValidToken("billing")).expectNext("Bearer TOK-billing").verifyComplete();
+		Assertions.assertEquals(3, server.getRequestCount());
+	}
+
+	@Test
+	void sendsProfileScopeAndAudience() throws InterruptedException {
+		StepVerifier.create(svc.getValidToken("billing")).expectNextCount(1).verifyComplete();
+		String form = server.takeRequest().getBody().readUtf8();
+		Assertions.assertTrue(form.contains("audience=https%3A%2F%2Fbilling"), form);
+		Assertions.assertFalse(form.contains("scope="), form);
+
+		StepVerifier.create(svc.getValidToken("crm")).expectNextCount(1).verifyComplete();
+		Assertions.assertTrue(server.takeRequest().getBody().readUtf8().contains("scope=crm.write"));
+	}
+
+	@Test
+	void singleFlightIsPerProfile() {
+		StepVerifier.create(Flux.range(0, 40)
+						.flatMap(i -> svc.getValidToken(i % 2 == 0 ? "billing" : "crm")
+								.subscribeOn(Schedulers.parallel()))
+						.collect(Collectors.toSet()))
+				.expectNext(Set.of("Bearer TOK-billing", "Bearer TOK-crm"))
+				.verifyComplete();
+
+		Assertions.assertEquals(2, server.getRequestCount(), "Un POST por perfil");
+	}
+
+	@Test
+	void unknownProfileFails() {
+		StepVerifier.create(svc.getValidToken("nope"))
+				.expectErrorMatches(e -> e instanceof IllegalArgumentException && e.getMessage().contains("nope"))
+				.verify();
+		Assertions.assertEquals(0, server.getRequestCount());
+	}
+}
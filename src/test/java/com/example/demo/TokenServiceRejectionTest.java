@@ -0,0 +1,124 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TokenServiceRejectionTest {
+
+	static final int CALLERS = 20;
+
+	MockWebServer server;
+	Cache<String, TokenCacheValue> cache;
+	TokenService svc;
+	UsersClient client;
+	final AtomicInteger tokenRequests = new AtomicInteger();
+	volatile String revoked = "Bearer TOKEN-1";
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		// IdP lento (para que los 401 lleguen con el refresco en vuelo) y API que rechaza el token revocado
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				if (request.getPath().startsWith("/connect/token")) {
+					return new MockResponse().setResponseCode(200)
+							.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+							.setBody("{\"access_token\":\"TOKEN-" + tokenRequests.incrementAndGet() + "\",\"expires_in\":3600}")
+							.setBodyDelay(200, TimeUnit.MILLISECONDS);
+				}
+				if (revoked.equals(request.getHeader("Authorization"))) {
+					return new MockResponse().setResponseCode(401);
+				}
+				return new MockResponse().setResponseCode(200)
+						.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"id\":1}");
+			}
+		});
+		server.start();
+
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+
+		var usersProps = new UsersProperties();
+		usersProps.setAddUrl(server.url("/users/add").toString());
+
+		var registry = new SimpleMeterRegistry();
+		cache = new CaffeineConfig().tokenCache(props);
+		var webClient = WebClient.builder().build();
+		svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		client = new UsersClient(webClient, props, usersProps, svc, registry);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	@Test
+	void burstOfRejectionsTriggersOneRefresh() {
+		TokenCacheValue first = svc.getValidTokenValue(AuthProperties.DEFAULT_PROFILE).block();
+		Assertions.assertEquals("Bearer TOKEN-1", first.getToken());
+
+		StepVerifier.create(Flux.range(0, CALLERS)
+						.flatMap(i -> svc.refreshRejected(first.getProfile(), first.getGeneration())
+								.subscribeOn(Schedulers.parallel()))
+						.collectList())
+				.expectNextMatches(values -> values.size() == CALLERS
+						&& values.stream().allMatch(v -> "Bearer TOKEN-2".equals(v.getToken())
+								&& v.getGeneration() > first.getGeneration()))
+				.verifyComplete();
+		Assertions.assertEquals(2, tokenRequests.get());
+
+		// un rechazo tardío del token antiguo no vuelve a ir al IdP
+		StepVerifier.create(svc.refreshRejected(first.getProfile(), first.getGeneration()))
+				.expectNextMatches(v -> "Bearer TOKEN-2".equals(v.getToken()))
+				.verifyComplete();
+		Assertions.assertEquals(2, tokenRequests.get());
+	}
+
+	@Test
+	void olderGenerationNeverReplacesNewerToken() {
+		// mientras sale la petición al IdP aparece en la caché un token de una generación posterior
+		var fetch = svc.forceRefresh().subscribeOn(Schedulers.parallel()).toFuture();
+		TokenCacheValue newer = TokenCacheValue.builder().token("Bearer NEWER")
+				.expires(Instant.now().plusSeconds(3600), Ticker.systemTicker()).generation(Long.MAX_VALUE).build();
+		cache.put(AuthProperties.DEFAULT_PROFILE, newer);
+
+		Assertions.assertEquals("Bearer NEWER", fetch.join());
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer NEWER").verifyComplete();
+	}
+
+	@Test
+	void concurrentUnauthorizedCallsShareOneRefreshAndRetryWithTheNewToken() {
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer TOKEN-1").verifyComplete();
+
+		StepVerifier.create(Flux.range(0, CALLERS)
+						.flatMap(i -> client.addUser(Map.of("firstName", "Ada")).subscribeOn(Schedulers.parallel()))
+						.collectList())
+				.expectNextMatches(bodies -> bodies.size() == CALLERS
+						&& bodies.stream().allMatch("{\"id\":1}"::equals))
+				.verifyComplete();
+
+		Assertions.assertEquals(2, tokenRequests.get(), "Un solo refresco para toda la ráfaga de 401");
+	}
+}
@@ -0,0 +1,144 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+
+class TokenServiceResilienceTest {
+
+	MockWebServer server;
+	AuthProperties props;
+	SimpleMeterRegistry registry;
+	TokenService svc;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+		props.getResilience().setAttemptTimeout(Duration.ofSeconds(5)); // holgado: el primer test paga el arranque de Netty
+		props.getResilience().setMaxRetries(2);
+		props.getResilience().setMinBackoff(Duration.ofMillis(10));
+		props.getResilience().setMaxBackoff(Duration.ofMillis(20));
+		props.getResilience().getCircuitBreaker().setFailureThreshold(3);
+		props.getResilience().getCircuitBreaker().setOpenDuration(Duration.ofMillis(300));
+
+		registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(registry, cache));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private static MockResponse token(String value) {
+		return new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"" + value + "\",\"expires_in\":3600}");
+	}
+
+	private static MockResponse status(int code) {
+		return new MockResponse().setResponseCode(code).setBody("err");
+	}
+
+	@Test
+	void transientErrorsAreRetriedWithBackoff() {
+		server.enqueue(status(503));
+		server.enqueue(status(429));
+		server.enqueue(token("OK"));
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OK").verifyComplete();
+		Assertions.assertEquals(3, server.getRequestCount());
+		Assertions.assertEquals(2, registry.get("auth.token.retries").counter().count());
+	}
+
+	@Test
+	void clientErrorsAreNotRetried() {
+		server.enqueue(status(401));
+
+		StepVerifier.create(svc.getValidToken()).expectError(TokenEndpointException.class).verify();
+		Assertions.assertEquals(1, server.getRequestCount());
+		Assertions.assertEquals(TokenCircuitBreaker.State.CLOSED, svc.circuitState(AuthProperties.DEFAULT_PROFILE));
+	}
+
+	@Test
+	void hangingIdpTimesOutPerAttempt() {
+		props.getResilience().setMaxRetries(1);
+		props.getResilience().setAttemptTimeout(Duration.ofMillis(300));
+		server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+		server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.NO_RESPONSE));
+
+		StepVerifier.create(svc.getValidToken())
+				.expectError(TimeoutException.class)
+				.verify(Duration.ofSeconds(3));
+		Assertions.assertEquals(2, server.getRequestCount());
+	}
+
+	@Test
+	void circuitOpensFailsFastAndClosesAfterASuccessfulTrial() {
+		List<TokenCircuitBreaker.Transition> transitions = new CopyOnWriteArrayList<>();
+		svc.circuitTransitions().subscribe(transitions::add);
+		server.enqueue(status(503));
+		server.enqueue(status(503));
+		server.enqueue(status(503));
+
+		StepVerifier.create(svc.getValidToken()).expectError(TokenEndpointException.class).verify();
+		Assertions.assertEquals(TokenCircuitBreaker.State.OPEN, svc.circuitState(AuthProperties.DEFAULT_PROFILE));
+		Assertions.assertEquals(1.0, registry.get("auth.token.circuit.state").gauge().value());
+
+		// abierto: falla al momento sin llamar al IdP
+		StepVerifier.create(svc.getValidToken()).expectError(CircuitOpenException.class).verify();
+		Assertions.assertEquals(3, server.getRequestCount());
+
+		// pasado openDuration se deja pasar una llamada de prueba
+		server.enqueue(token("BACK"));
+		StepVerifier.create(svc.getValidToken().delaySubscription(Duration.ofMillis(350)))
+				.expectNext("Bearer BACK").verifyComplete();
+		Assertions.assertEquals(TokenCircuitBreaker.State.CLOSED, svc.circuitState(AuthProperties.DEFAULT_PROFILE));
+
+		Assertions.assertEquals(List.of(
+				new TokenCircuitBreaker.Transition("default", TokenCircuitBreaker.State.CLOSED, TokenCircuitBreaker.State.OPEN),
+				new TokenCircuitBreaker.Transition("default", TokenCircuitBreaker.State.OPEN, TokenCircuitBreaker.State.HALF_OPEN),
+				new TokenCircuitBreaker.Transition("default", TokenCircuitBreaker.State.HALF_OPEN, TokenCircuitBreaker.State.CLOSED)),
+				transitions);
+		Assertions.assertEquals(1, registry.get("auth.token.circuit.transitions")
+				.tags("from", "CLOSED", "to", "OPEN").counter().count());
+	}
+
+	@Test
+	void transitionsAreAnnouncedOutsideTheBreakerLock() {
+		var cfg = new AuthProperties.Resilience.CircuitBreaker();
+		cfg.setFailureThreshold(1);
+		AtomicReference<TokenCircuitBreaker> ref = new AtomicReference<>();
+		List<String> seen = new CopyOnWriteArrayList<>();
+		var breaker = new TokenCircuitBreaker("default", cfg, t -> seen.add(t.to() + " lock=" + Thread.holdsLock(ref.get())
+				+ " state=" + ref.get().getState()));
+		ref.set(breaker);
+
+		StepVerifier.create(breaker.protect(Mono.error(new TimeoutException()), e -> true))
+				.expectError(TimeoutException.class).verify();
+
+		Assertions.assertEquals(List.of("OPEN lock=false state=OPEN"), seen);
+	}
+}
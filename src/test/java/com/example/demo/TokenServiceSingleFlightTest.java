@@ -0,0 +1,132 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.*;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.ClientResponse;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class TokenServiceSingleFlightTest {
+
+	static final int CALLERS = 50;
+
+	MockWebServer server;
+	TokenService svc;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+		props.getTtl().setSkew(Duration.ofSeconds(30));
+
+		Cache<String, TokenCacheValue> cache = Caffeine.newBuilder().maximumSize(1).build();
+		svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	@Test
+	void busyRefreshSubscriberDoesNotFailAnotherProfilesRefresh() throws Exception {
+		var props = new AuthProperties();
+		props.setUrl("http://idp/connect/token");
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		var billing = new AuthProperties.Profile();
+		billing.setClientId("billing");
+		billing.setClientSecret("s1");
+		props.getProfiles().put("billing", billing);
+		// el IdP responde en el mismo hilo que se suscribe: cada refresco emite desde su propio hilo
+		WebClient idp = WebClient.builder().exchangeFunction(req -> Mono.just(ClientResponse.create(HttpStatus.OK)
+				.header("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.body("{\"access_token\":\"T\",\"expires_in\":3600}").build())).build();
+		Cache<String, TokenCacheValue> cache = Caffeine.newBuilder().maximumSize(10).build();
+		var tokens = new TokenService(idp, props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+
+		CountDownLatch inSubscriber = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		tokens.refreshes().subscribe(v -> {
+			if (v.getProfile().equals("default")) {
+				inSubscriber.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		CompletableFuture<String> first = tokens.getValidToken().subscribeOn(Schedulers.boundedElastic()).toFuture();
+		Assertions.assertTrue(inSubscriber.await(5, TimeUnit.SECONDS));
+		try {
+			// el aviso de billing coincide con el de default, aún en curso: se pierde, el token no
+			StepVerifier.create(tokens.forceRefresh("billing")).expectNext("Bearer T").expectComplete()
+					.verify(Duration.ofSeconds(1));
+		} finally {
+			release.countDown();
+		}
+		Assertions.assertEquals("Bearer T", first.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	void concurrentCallersShareOneTokenRequest() {
+		// respuesta lenta para que todos los callers lleguen con el refresco en vuelo
+		server.enqueue(new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"AAA\",\"expires_in\":3600}")
+				.setBodyDelay(300, TimeUnit.MILLISECONDS));
+
+		StepVerifier.create(Flux.range(0, CALLERS)
+						.flatMap(i -> svc.getValidToken().subscribeOn(Schedulers.parallel()))
+						.collectList())
+				.expectNextMatches(tokens -> tokens.size() == CALLERS
+						&& tokens.stream().allMatch("Bearer AAA"::equals))
+				.verifyComplete();
+
+		Assertions.assertEquals(1, server.getRequestCount(), "Solo un POST al endpoint de token");
+
+		// con el token ya en caché no se vuelve a pedir
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+		Assertions.assertEquals(1, server.getRequestCount());
+	}
+
+	@Test
+	void concurrentCallersShareTheSameError() {
+		server.enqueue(new MockResponse().setResponseCode(500).setBody("boom")
+				.setBodyDelay(300, TimeUnit.MILLISECONDS));
+
+		StepVerifier.create(Flux.range(0, CALLERS)
+						.flatMap(i -> svc.refreshToken()
+								.subscribeOn(Schedulers.parallel())
+								.map(t -> "ok")
+								.onErrorResume(IllegalStateException.class, e -> Mono.just("error")))
+						.collectList())
+				.expectNextMatches(results -> results.size() == CALLERS
+						&& results.stream().allMatch("error"::equals))
+				.verifyComplete();
+
+		Assertions.assertEquals(1, server.getRequestCount(), "Un único intento compartido por todos");
+	}
+}
@@ -0,0 +1,102 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+class TokenServiceStaleTest {
+
+	MockWebServer server;
+	AuthProperties props;
+	Cache<String, TokenCacheValue> cache;
+	TokenService svc;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+		props.getStale().setGrace(Duration.ofSeconds(30));
+		props.getStale().setRetryInterval(Duration.ofMillis(200));
+
+		cache = new CaffeineConfig().tokenCache(props);
+		svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private void cacheToken(String token, Instant expiresAt) {
+		cache.put(AuthProperties.DEFAULT_PROFILE, TokenCacheValue.builder()
+				.token(token).issuedAt(expiresAt.minusSeconds(60)).expires(expiresAt, Ticker.systemTicker()).build());
+	}
+
+	@Test
+	void servesStaleTokenWhileIdpIsDown() {
+		server.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+		server.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+		cacheToken("Bearer OLD", Instant.now().minusSeconds(1));
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+		Awaitility.await().atMost(Duration.ofSeconds(2)).until(() -> server.getRequestCount() == 1);
+
+		// pasado el intervalo se reintenta en segundo plano, y se sigue sirviendo el anterior
+		Awaitility.await().pollDelay(Duration.ofMillis(250)).atMost(Duration.ofSeconds(2)).until(() -> {
+			svc.getValidToken().block();
+			return server.getRequestCount() == 2;
+		});
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+		Assertions.assertTrue(svc.staleServedCount() >= 3);
+	}
+
+	@Test
+	void backgroundRevalidationReplacesStaleToken() {
+		server.enqueue(new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"NEW\",\"expires_in\":3600}"));
+		cacheToken("Bearer OLD", Instant.now().minusSeconds(1));
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+		Awaitility.await().atMost(Duration.ofSeconds(2))
+				.until(() -> "Bearer NEW".equals(svc.getValidToken().block()));
+		Assertions.assertEquals(1, server.getRequestCount());
+	}
+
+	@Test
+	void refreshFailureFallsBackToStaleToken() {
+		server.enqueue(new MockResponse().setResponseCode(500).setBody("boom"));
+		cacheToken("Bearer OLD", Instant.now().minusSeconds(1));
+
+		StepVerifier.create(svc.refreshToken()).expectNext("Bearer OLD").verifyComplete();
+		Assertions.assertEquals(1, svc.staleServedCount());
+	}
+
+	@Test
+	void failsOnceGraceWindowIsOver() {
+		server.enqueue(new MockResponse().setResponseCode(500).setBody("boom"));
+		cacheToken("Bearer OLD", Instant.now().minusSeconds(31));
+
+		StepVerifier.create(svc.getValidToken())
+				.expectErrorMatches(e -> e instanceof IllegalStateException && e.getMessage().contains("500"))
+				.verify();
+		Assertions.assertEquals(0, svc.staleServedCount());
+	}
+}
@@ -2,6 +2,7 @@ package com.example.demo;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import org.junit.jupiter.api.*;
@@ -14,19 +15,19 @@ import java.time.Duration;
 
 class TokenServiceTest {
 
-	static MockWebServer server;
+	MockWebServer server;
 	WebClient webClient;
 	AuthProperties props;
 	Cache<String, TokenCacheValue> cache;
 
-	@BeforeAll
-	static void beforeAll() throws IOException {
+	@BeforeEach
+	void startServer() throws IOException {
 		server = new MockWebServer();
 		server.start();
 	}
 
-	@AfterAll
-	static void afterAll() throws IOException {
+	@AfterEach
+	void stopServer() throws IOException {
 		server.shutdown();
 	}
 
@@ -35,9 +36,9 @@ class TokenServiceTest {
 		webClient = WebClient.builder().build();
 		props = new AuthProperties();
 		props.setUrl(server.url("/auth/login").toString());
-		props.setUsername("emilys");
-		props.setPassword("emilyspass");
-		props.setExpiresInMins(30);
+		props.setClientId("emilys");
+		props.setClientSecret("emilyspass");
+		props.getTtl().setSkew(Duration.ofSeconds(30));
 		props.setTokenJsonKey("accessToken");
 		cache = Caffeine.newBuilder().maximumSize(1).build();
 	}
@@ -48,15 +49,15 @@ class TokenServiceTest {
 		server.enqueue(new MockResponse().setResponseCode(200)
 				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"accessToken\":\"AAA\"}"));
 
-		TokenService svc = new TokenService(webClient, props, cache);
+		TokenService svc = tokenService(webClient, props, cache);
 
 		// Primer refresh obtiene AAA
-		StepVerifier.create(svc.refreshToken()).expectNext("AAA").verifyComplete();
+		StepVerifier.create(svc.refreshToken()).expectNext("Bearer AAA").verifyComplete();
 
 		// Llamada posterior NO debe pegar al server si cache válido
-		StepVerifier.create(svc.getValidToken()).expectNext("AAA").verifyComplete();
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
 
-		Assertions.assertEquals(3, server.getRequestCount(), "Solo un login debía ocurrir");
+		Assertions.assertEquals(1, server.getRequestCount(), "Solo un login debía ocurrir");
 	}
 
 	@Test
@@ -69,17 +70,21 @@ class TokenServiceTest {
 				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"accessToken\":\"BBB\"}"));
 
 		// TTL corto para simular expiración
-		props.setExpiresInMins(0); // 0 -> usaremos margen en Caffeine, simularemos vencido forzando el cache
+		props.getTtl().setSkew(Duration.ZERO); // 0 -> usaremos margen en Caffeine, simularemos vencido forzando el cache
 
-		TokenService svc = new TokenService(webClient, props, cache);
+		TokenService svc = tokenService(webClient, props, cache);
 
-		StepVerifier.create(svc.refreshToken()).expectNext("AAA").verifyComplete();
+		StepVerifier.create(svc.refreshToken()).expectNext("Bearer AAA").verifyComplete();
 
 		// Forzar expiración: limpiar cache para simular caducado
 		cache.invalidateAll();
 
-		StepVerifier.create(svc.getValidToken()).expectNext("BBB").verifyComplete();
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer BBB").verifyComplete();
 
 		Assertions.assertEquals(2, server.getRequestCount(), "Debe loguear dos veces");
 	}
+
+	private static TokenService tokenService(WebClient webClient, AuthProperties props, Cache<String, TokenCacheValue> cache) {
+		return new TokenService(webClient, props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+	}
 }
@@ -0,0 +1,193 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.awaitility.Awaitility;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+
+class TokenSnapshotStoreTest {
+
+	static final String KEY = Base64.getEncoder().encodeToString(new byte[32]);
+
+	@TempDir
+	Path dir;
+
+	MockWebServer server;
+	AuthProperties props;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+		props.getSnapshot().setEnabled(true);
+		props.getSnapshot().setPath(dir.resolve("tokens.bin").toString());
+		props.getSnapshot().setKey(KEY);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	/** Un "pod": caché, servicio y snapshot nuevos sobre el mismo fichero. */
+	private TokenService startPod(List<TokenSnapshotStore> stores) {
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		TokenService svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+		TokenSnapshotStore store = new TokenSnapshotStore(props, cache, svc);
+		store.start();
+		stores.add(store);
+		return svc;
+	}
+
+	@Test
+	void restartedPodServesRestoredTokenWithoutCallingTheIdp() {
+		server.enqueue(new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"AAA\",\"expires_in\":3600}"));
+		List<TokenSnapshotStore> stores = new ArrayList<>();
+
+		TokenService first = startPod(stores);
+		StepVerifier.create(first.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+		Path file = Path.of(props.getSnapshot().getPath());
+		Awaitility.await().atMost(Duration.ofSeconds(2)).until(() -> Files.exists(file));
+		stores.forEach(TokenSnapshotStore::stop);
+
+		Assertions.assertFalse(new String(readAll(file), StandardCharsets.ISO_8859_1).contains("AAA"), "Cifrado en disco");
+
+		TokenService restarted = startPod(stores);
+		StepVerifier.create(restarted.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+		Assertions.assertEquals(1, server.getRequestCount());
+		stores.forEach(TokenSnapshotStore::stop);
+	}
+
+	@Test
+	void tokensCloseToExpiryAreNotRestored() {
+		var billing = new AuthProperties.Profile();
+		billing.setClientId("billing");
+		billing.setClientSecret("s1");
+		props.getProfiles().put("billing", billing);
+		var codec = new TokenSnapshotCodec(KEY);
+		Instant now = Instant.now();
+		byte[] data = codec.encode(List.of(
+				entry(TokenCacheValue.builder().profile("default").token("Bearer SOON").issuedAt(now.minusSeconds(3000))
+						.expires(now.plusSeconds(10), Ticker.systemTicker()).build()),
+				entry(TokenCacheValue.builder().profile("billing").token("Bearer LATER").issuedAt(now)
+						.expires(now.plusSeconds(600), Ticker.systemTicker()).build()),
+				entry(TokenCacheValue.builder().profile("gone").token("Bearer GONE").issuedAt(now)
+						.expires(now.plusSeconds(600), Ticker.systemTicker()).build(), "x")));
+		write(Path.of(props.getSnapshot().getPath()), data);
+
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		TokenService svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+		TokenSnapshotStore store = new TokenSnapshotStore(props, cache, svc);
+		store.start();
+		store.stop();
+
+		Assertions.assertNull(cache.getIfPresent("default"));
+		Assertions.assertEquals("Bearer LATER", cache.getIfPresent("billing").getToken());
+		Assertions.assertEquals(0, cache.getIfPresent("billing").getGeneration());
+		Assertions.assertNull(cache.getIfPresent("gone"), "Perfil que ya no existe");
+	}
+
+	@Test
+	void tokensIssuedWithOtherCredentialsAreNotRestored() {
+		server.enqueue(new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"AAA\",\"expires_in\":3600}"));
+		server.enqueue(new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"BBB\",\"expires_in\":3600}"));
+		List<TokenSnapshotStore> stores = new ArrayList<>();
+
+		TokenService first = startPod(stores);
+		StepVerifier.create(first.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+		Path file = Path.of(props.getSnapshot().getPath());
+		Awaitility.await().atMost(Duration.ofSeconds(2)).until(() -> Files.exists(file));
+		stores.forEach(TokenSnapshotStore::stop);
+
+		props.setScope("api admin"); // se redespliega con otro scope
+		TokenService restarted = startPod(stores);
+		StepVerifier.create(restarted.getValidToken()).expectNext("Bearer BBB").verifyComplete();
+		Assertions.assertEquals(2, server.getRequestCount());
+		stores.forEach(TokenSnapshotStore::stop);
+	}
+
+	@Test
+	void tamperedOrForeignSnapshotIsRejected() {
+		var codec = new TokenSnapshotCodec(KEY);
+		Instant now = Instant.now();
+		byte[] data = codec.encode(List.of(entry(TokenCacheValue.builder().token("Bearer X").issuedAt(now)
+				.expires(now.plusSeconds(600), Ticker.systemTicker()).build())));
+
+		Assertions.assertEquals("Bearer X", codec.decode(data).get(0).value().getToken());
+
+		byte[] tampered = data.clone();
+		tampered[tampered.length - 1] ^= 1;
+		Assertions.assertThrows(IllegalStateException.class, () -> codec.decode(tampered));
+
+		var otherKey = new TokenSnapshotCodec(Base64.getEncoder().encodeToString(new byte[16]));
+		Assertions.assertThrows(IllegalStateException.class, () -> otherKey.decode(data));
+		Assertions.assertThrows(IllegalStateException.class, () -> new TokenSnapshotCodec(null));
+	}
+
+	@Test
+	void tokensLongerThan64KbRoundTrip() {
+		var codec = new TokenSnapshotCodec(KEY);
+		String big = "Bearer " + "x".repeat(100_000) + "ñ"; // JWT con muchos claims/grupos
+		Instant now = Instant.now();
+
+		byte[] data = codec.encode(List.of(entry(TokenCacheValue.builder().token(big).issuedAt(now)
+				.expires(now.plusSeconds(600), Ticker.systemTicker()).build())));
+
+		TokenCacheValue decoded = codec.decode(data).get(0).value();
+		Assertions.assertEquals(big, decoded.getToken());
+		Assertions.assertEquals(now.toEpochMilli(), decoded.getIssuedAt().toEpochMilli());
+	}
+
+	private TokenSnapshotCodec.Entry entry(TokenCacheValue value) {
+		return entry(value, props.profile(value.getProfile()).fingerprint());
+	}
+
+	private static TokenSnapshotCodec.Entry entry(TokenCacheValue value, String credentials) {
+		return new TokenSnapshotCodec.Entry(value, credentials);
+	}
+
+	private static byte[] readAll(Path file) {
+		try {
+			return Files.readAllBytes(file);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void write(Path file, byte[] data) {
+		try {
+			Files.write(file, data);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
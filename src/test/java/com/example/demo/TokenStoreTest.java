@@ -0,0 +1,156 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class TokenStoreTest {
+
+	MockWebServer server;
+	AuthProperties props;
+	InMemoryTokenStore shared;
+	final AtomicInteger tokenRequests = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				return new MockResponse().setResponseCode(200)
+						.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+						.setBody("{\"access_token\":\"TOKEN-" + tokenRequests.incrementAndGet() + "\",\"expires_in\":3600}")
+						.setBodyDelay(200, TimeUnit.MILLISECONDS);
+			}
+		});
+		server.start();
+
+		props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+		props.getStore().setLeaseWait(Duration.ofSeconds(2));
+		props.getStore().setPollInterval(Duration.ofMillis(20));
+
+		shared = new InMemoryTokenStore();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	/** Una réplica: su propia caché L1 y su TokenService, con la L2 compartida. */
+	private TokenService replica(SimpleMeterRegistry registry, TokenStore store) {
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		return new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(registry, cache), store);
+	}
+
+	private static double store(SimpleMeterRegistry registry, String result) {
+		var counter = registry.find("auth.token.store").tag("result", result).counter();
+		return counter != null ? counter.count() : 0;
+	}
+
+	@Test
+	void replicasShareOneTokenRequest() {
+		var registry = new SimpleMeterRegistry();
+		TokenService a = replica(registry, shared);
+		TokenService b = replica(registry, shared);
+
+		StepVerifier.create(Flux.merge(
+								a.getValidToken().subscribeOn(Schedulers.parallel()),
+								b.getValidToken().subscribeOn(Schedulers.parallel()))
+						.collectList())
+				.expectNextMatches(tokens -> tokens.size() == 2 && tokens.stream().allMatch("Bearer TOKEN-1"::equals))
+				.verifyComplete();
+		Assertions.assertEquals(1, tokenRequests.get());
+
+		// una réplica que arranca después adopta el token sin ir al IdP
+		TokenService c = replica(registry, shared);
+		StepVerifier.create(c.getValidToken()).expectNext("Bearer TOKEN-1").verifyComplete();
+		Assertions.assertEquals(1, tokenRequests.get());
+		Assertions.assertEquals(1, store(registry, "fetched"));
+		Assertions.assertEquals(2, store(registry, "adopted"));
+	}
+
+	@Test
+	void refreshAheadOnOneReplicaIsAdoptedByTheOthers() {
+		var registry = new SimpleMeterRegistry();
+		TokenService a = replica(registry, shared);
+		TokenService b = replica(registry, shared);
+		StepVerifier.create(a.getValidToken()).expectNext("Bearer TOKEN-1").verifyComplete();
+		StepVerifier.create(b.getValidToken()).expectNext("Bearer TOKEN-1").verifyComplete();
+
+		StepVerifier.create(a.forceRefresh()).expectNext("Bearer TOKEN-2").verifyComplete();
+		StepVerifier.create(b.forceRefresh()).expectNext("Bearer TOKEN-2").verifyComplete();
+		Assertions.assertEquals(2, tokenRequests.get());
+	}
+
+	@Test
+	void rejectedTokenIsNotAdoptedFromTheSharedStore() {
+		TokenService a = replica(new SimpleMeterRegistry(), shared);
+		TokenCacheValue first = a.getValidTokenValue(AuthProperties.DEFAULT_PROFILE).block();
+
+		StepVerifier.create(a.refreshRejected(first.getProfile(), first.getGeneration()))
+				.expectNextMatches(v -> "Bearer TOKEN-2".equals(v.getToken()))
+				.verifyComplete();
+		Assertions.assertEquals(2, tokenRequests.get());
+	}
+
+	@Test
+	void fetchesDirectlyWhenTheLeaseOwnerNeverPublishes() {
+		props.getStore().setLeaseWait(Duration.ofMillis(300));
+		var registry = new SimpleMeterRegistry();
+		shared.tryLease(AuthProperties.DEFAULT_PROFILE, "otro-nodo", Duration.ofMinutes(1)).block();
+
+		StepVerifier.create(replica(registry, shared).getValidToken()).expectNext("Bearer TOKEN-1").verifyComplete();
+		Assertions.assertEquals(1, store(registry, "fallback"));
+	}
+
+	@Test
+	void fileStoreSharesTokensAndLeasesThroughTheFileSystem(@TempDir Path dir) {
+		String key = Base64.getEncoder().encodeToString(new byte[32]);
+		var store1 = new FileTokenStore(dir, key);
+		var store2 = new FileTokenStore(dir, key);
+
+		StepVerifier.create(store1.tryLease("default", "n1", Duration.ofSeconds(10))).expectNext(true).verifyComplete();
+		StepVerifier.create(store2.tryLease("default", "n2", Duration.ofSeconds(10))).expectNext(false).verifyComplete();
+		StepVerifier.create(store1.release("default", "n1")).verifyComplete();
+		StepVerifier.create(store2.tryLease("default", "n2", Duration.ofSeconds(10))).expectNext(true).verifyComplete();
+		StepVerifier.create(store2.release("default", "n2")).verifyComplete();
+
+		Instant now = Instant.now();
+		StepVerifier.create(store1.put(TokenCacheValue.builder().token("Bearer F").issuedAt(now)
+				.expires(now.plusSeconds(600), Ticker.systemTicker()).build())).verifyComplete();
+		StepVerifier.create(store2.get("default")).expectNextMatches(v -> "Bearer F".equals(v.getToken())).verifyComplete();
+		StepVerifier.create(store2.get("otro")).verifyComplete();
+
+		// dos réplicas sobre el directorio: un solo token pedido
+		var registry = new SimpleMeterRegistry();
+		StepVerifier.create(replica(registry, new FileTokenStore(dir.resolve("r"), key)).getValidToken())
+				.expectNext("Bearer TOKEN-1").verifyComplete();
+		StepVerifier.create(replica(registry, new FileTokenStore(dir.resolve("r"), key)).getValidToken())
+				.expectNext("Bearer TOKEN-1").verifyComplete();
+		Assertions.assertEquals(1, tokenRequests.get());
+	}
+}
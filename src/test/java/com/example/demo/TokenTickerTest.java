@@ -0,0 +1,138 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Expiración con un Ticker manual compartido por la caché y el servicio: sin esperas reales. */
+class TokenTickerTest {
+
+	MockWebServer server;
+	AuthProperties props;
+	SimpleMeterRegistry registry;
+	Cache<String, TokenCacheValue> cache;
+	TokenService svc;
+
+	final AtomicLong nanos = new AtomicLong();
+	final Ticker ticker = nanos::get;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+		props.getTtl().setSkew(Duration.ZERO);
+		props.getTtl().setJitter(0);
+
+		registry = new SimpleMeterRegistry();
+		cache = new CaffeineConfig().tokenCache(props, ticker);
+		svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(registry, cache, ticker),
+				TokenStore.NONE, new DefaultTokenTtlPolicy(props), ticker, RateLimiter.unlimited("token"));
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private void advance(Duration d) {
+		nanos.addAndGet(d.toNanos());
+	}
+
+	private static MockResponse token(String value, long expiresIn) {
+		return new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"" + value + "\",\"expires_in\":" + expiresIn + "}");
+	}
+
+	@Test
+	void tokenExpiresWhenTheTickerSaysSo() {
+		server.enqueue(token("AAA", 3600));
+		server.enqueue(token("BBB", 3600));
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+		advance(Duration.ofSeconds(3599));
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+		Assertions.assertEquals(1, server.getRequestCount());
+		Assertions.assertEquals(1.0, registry.get("auth.token.ttl.remaining").gauge().value(), 0.001);
+
+		advance(Duration.ofSeconds(2));
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer BBB").verifyComplete();
+		Assertions.assertEquals(2, server.getRequestCount());
+	}
+
+	@Test
+	void wallClockIsIgnoredForExpiry() {
+		// expiresAt (reloj de pared) ya pasado, como si NTP hubiese adelantado la hora: manda el ticker
+		cache.put(AuthProperties.DEFAULT_PROFILE, TokenCacheValue.builder().token("Bearer OLD")
+				.issuedAt(Instant.now().minusSeconds(7200)).expiresAt(Instant.now().minusSeconds(3600))
+				.expiresAtNanos(nanos.get() + Duration.ofMinutes(10).toNanos()).build());
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer OLD").verifyComplete();
+		Assertions.assertEquals(0, server.getRequestCount());
+	}
+
+	@Test
+	void cacheEvictsOnTheSameTickerAfterTheGraceWindow() {
+		props.getStale().setGrace(Duration.ofSeconds(20));
+		server.enqueue(token("AAA", 60));
+		server.enqueue(new MockResponse().setResponseCode(503).setBody("down"));
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+
+		advance(Duration.ofSeconds(70)); // caducado pero dentro de la gracia: se sirve el anterior
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+
+		advance(Duration.ofSeconds(11));
+		cache.cleanUp();
+		Assertions.assertNull(cache.getIfPresent(AuthProperties.DEFAULT_PROFILE));
+	}
+
+	@Test
+	void builtValuesExpireOnTheGivenClock() {
+		nanos.set(Duration.ofDays(1).toNanos()); // lejos de System.nanoTime()
+		TokenCacheValue value = TokenCacheValue.builder().token("Bearer A")
+				.expires(Instant.now().plusSeconds(100), ticker).build();
+
+		long remaining = value.getExpiresAtNanos() - ticker.read();
+		Assertions.assertTrue(remaining > Duration.ofSeconds(99).toNanos() && remaining <= Duration.ofSeconds(100).toNanos(),
+				"remaining = " + remaining);
+		Assertions.assertThrows(NullPointerException.class,
+				() -> TokenCacheValue.builder().token("Bearer A").expiresAt(Instant.now().plusSeconds(100)).build(),
+				"Sin reloj no se adivina expiresAtNanos");
+	}
+
+	@Test
+	void minTtlAndRefreshAheadUseTheSameClock() {
+		server.enqueue(token("AAA", 100));
+
+		StepVerifier.create(svc.getValidToken()).expectNext("Bearer AAA").verifyComplete();
+		TokenCacheValue value = cache.getIfPresent(AuthProperties.DEFAULT_PROFILE);
+		var scheduler = new TokenRefreshScheduler(svc, props); // ratio 0.8
+
+		Assertions.assertEquals(Duration.ofSeconds(80), scheduler.delayFor(value, svc.remainingNanos(value)));
+		advance(Duration.ofSeconds(90));
+		Assertions.assertEquals(Duration.ZERO, scheduler.delayFor(value, svc.remainingNanos(value)));
+
+		server.enqueue(token("BBB", 100));
+		StepVerifier.create(svc.getValidToken(AuthProperties.DEFAULT_PROFILE, Duration.ofSeconds(30)))
+				.expectNext("Bearer BBB").verifyComplete();
+		Assertions.assertEquals(1, registry.get("auth.token.lookups").tag("result", "expiring").counter().count());
+	}
+}
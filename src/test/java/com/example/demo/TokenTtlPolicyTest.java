@@ -0,0 +1,166 @@
+package com.example.demo;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.HashSet;
+import java.util.Set;
+
+class TokenTtlPolicyTest {
+
+	AuthProperties props;
+
+	@BeforeEach
+	void setUp() {
+		props = new AuthProperties();
+		props.getTtl().setJitter(0);
+	}
+
+	private DefaultTokenTtlPolicy policy() {
+		return new DefaultTokenTtlPolicy(props);
+	}
+
+	/** JWT sin firmar válida: solo importa el payload. */
+	static String jwt(long exp) {
+		Base64.Encoder b64 = Base64.getUrlEncoder().withoutPadding();
+		String header = b64.encodeToString("{\"alg\":\"RS256\",\"typ\":\"JWT\"}".getBytes(StandardCharsets.UTF_8));
+		String payload = b64.encodeToString(("{\"sub\":\"m2m\",\"aud\":[\"api\"],\"exp\":" + exp + ",\"iat\":1}")
+				.getBytes(StandardCharsets.UTF_8));
+		return header + "." + payload + ".firma";
+	}
+
+	private static long inSeconds(long seconds) {
+		return Instant.now().getEpochSecond() + seconds;
+	}
+
+	@Test
+	void skewIsADurationNotMinutesAsSeconds() {
+		props.getTtl().setSkew(Duration.ofMinutes(1));
+
+		Assertions.assertEquals(Duration.ofSeconds(3540), policy().ttl("opaco", 3600L));
+	}
+
+	@Test
+	void proportionalSkewWinsWhenLarger() {
+		props.getTtl().setSkewRatio(0.1);
+
+		Assertions.assertEquals(Duration.ofSeconds(3240), policy().ttl("opaco", 3600L));
+		Assertions.assertEquals(Duration.ofSeconds(270), policy().ttl("opaco", 300L)); // 30 s fijos > 10%
+	}
+
+	@Test
+	void skewNeverTakesMoreThanHalfTheLifetime() {
+		// antes: expires_in <= margen -> 60 s fijos, más de lo que dura el token
+		Assertions.assertEquals(Duration.ofSeconds(10), policy().ttl("opaco", 20L));
+	}
+
+	@Test
+	void usesJwtExpWhenExpiresInIsMissing() {
+		Duration ttl = policy().ttl(jwt(inSeconds(600)), null);
+
+		Assertions.assertTrue(ttl.compareTo(Duration.ofSeconds(568)) > 0 && ttl.compareTo(Duration.ofSeconds(570)) <= 0,
+				"exp - 30 s: " + ttl);
+	}
+
+	@Test
+	void earliestOfExpiresInAndJwtExpWins() {
+		Duration ttl = policy().ttl(jwt(inSeconds(120)), 3600L);
+		Assertions.assertTrue(ttl.compareTo(Duration.ofSeconds(90)) <= 0, "manda el exp: " + ttl);
+
+		props.getTtl().setJwtExp(false);
+		Assertions.assertEquals(Duration.ofSeconds(3570), policy().ttl(jwt(inSeconds(120)), 3600L));
+	}
+
+	@Test
+	void fallsBackToDefaultLifetimeForOpaqueTokensWithoutExpiresIn() {
+		props.getTtl().setDefaultLifetime(Duration.ofMinutes(10));
+
+		Assertions.assertEquals(Duration.ofSeconds(570), policy().ttl("opaco", null));
+		Assertions.assertEquals(Duration.ofSeconds(570), policy().ttl("no.es-base64!.jwt", null));
+	}
+
+	@Test
+	void expiredTokensGetTheMinimumTtl() {
+		Assertions.assertEquals(Duration.ofSeconds(1), policy().ttl(jwt(inSeconds(-60)), null));
+	}
+
+	@Test
+	void jitterSpreadsExpiriesAcrossReplicas() {
+		props.getTtl().setJitter(0.1);
+		Assertions.assertEquals(Duration.ofMillis(3_570_000 - 178_500), // 3570 s - 0.1 x 0.5 x 3570 s
+				new DefaultTokenTtlPolicy(props, () -> 0.5).ttl("opaco", 3600L));
+
+		Set<Duration> ttls = new HashSet<>();
+		for (int i = 0; i < 20; i++) {
+			Duration ttl = policy().ttl("opaco", 3600L);
+			Assertions.assertTrue(ttl.compareTo(Duration.ofSeconds(3213)) >= 0 && ttl.compareTo(Duration.ofSeconds(3570)) <= 0, "" + ttl);
+			ttls.add(ttl);
+		}
+		Assertions.assertTrue(ttls.size() > 1, "cada réplica con su TTL");
+	}
+
+	@Test
+	void cacheKeepsEntriesUntilExpiryPlusGrace() {
+		props.getStale().setGrace(Duration.ofSeconds(20));
+		long now = System.nanoTime();
+		TokenCacheValue value = TokenCacheValue.builder().token("Bearer A").expiresAt(Instant.now().plusSeconds(10))
+				.expiresAtNanos(now + Duration.ofSeconds(10).toNanos()).build();
+
+		Assertions.assertEquals(Duration.ofSeconds(30).toNanos(), policy().retainNanos(value, now));
+		props.getStale().setGrace(Duration.ZERO);
+		Assertions.assertEquals(Duration.ofSeconds(10).toNanos(), policy().retainNanos(value, now));
+	}
+
+	@Nested
+	class WithTokenService {
+
+		MockWebServer server;
+		TokenService svc;
+
+		@BeforeEach
+		void setUp() throws IOException {
+			server = new MockWebServer();
+			server.start();
+			props.setUrl(server.url("/connect/token").toString());
+			props.setClientId("m2m");
+			props.setClientSecret("secret");
+			props.setScope("api");
+
+			Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+			svc = new TokenService(WebClient.builder().build(), props, cache, new TokenMetrics(new SimpleMeterRegistry(), cache));
+		}
+
+		@AfterEach
+		void tearDown() throws IOException {
+			server.shutdown();
+		}
+
+		@Test
+		void jwtWithoutExpiresInIsCachedUntilItsExp() {
+			String token = jwt(inSeconds(900));
+			server.enqueue(new MockResponse().setResponseCode(200)
+					.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+					.setBody("{\"access_token\":\"" + token + "\",\"token_type\":\"Bearer\"}"));
+
+			StepVerifier.create(svc.getValidTokenValue(AuthProperties.DEFAULT_PROFILE))
+					.assertNext(v -> {
+						long ttl = Duration.between(v.getIssuedAt(), v.getExpiresAt()).toSeconds();
+						Assertions.assertTrue(ttl >= 868 && ttl <= 870, "exp - 30 s, no 60 s: " + ttl);
+					})
+					.verifyComplete();
+			StepVerifier.create(svc.getValidToken()).expectNext("Bearer " + token).verifyComplete();
+			Assertions.assertEquals(1, server.getRequestCount());
+		}
+	}
+}
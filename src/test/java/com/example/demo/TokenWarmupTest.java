@@ -34,7 +34,7 @@ class TokenWarmupTest {
 
 				TestPropertyValues
 						.of("app.auth.url=" + server.url("/auth/login"), "app.auth.username=u", "app.auth.password=p",
-								"app.auth.expiresInMins=30", "app.auth.tokenJsonKey=accessToken")
+								"app.auth.ttl.skew=30s", "app.auth.tokenJsonKey=accessToken")
 						.applyTo(ctx.getEnvironment());
 
 			} catch (IOException e) {
@@ -0,0 +1,121 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+class UsersBatchTest {
+
+	MockWebServer server;
+	WebTestClient web;
+	final AtomicInteger tokenRequests = new AtomicInteger();
+	final AtomicInteger active = new AtomicInteger();
+	final AtomicInteger maxActive = new AtomicInteger();
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) throws InterruptedException {
+				if (request.getPath().startsWith("/connect/token")) {
+					return new MockResponse().setResponseCode(200)
+							.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+							.setBody("{\"access_token\":\"TOKEN-" + tokenRequests.incrementAndGet() + "\",\"expires_in\":3600}");
+				}
+				String body = request.getBody().readUtf8();
+				maxActive.accumulateAndGet(active.incrementAndGet(), Math::max);
+				try {
+					Thread.sleep(50);
+				} finally {
+					active.decrementAndGet();
+				}
+				if (body.contains("fail")) {
+					return new MockResponse().setResponseCode(500).setBody("boom");
+				}
+				return new MockResponse().setResponseCode(200)
+						.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"id\":1}");
+			}
+		});
+		server.start();
+
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+
+		var usersProps = new UsersProperties();
+		usersProps.setAddUrl(server.url("/users/add").toString());
+		usersProps.setBatchConcurrency(3);
+
+		var registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		var webClient = WebClient.builder().build();
+		var svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		web = WebTestClient.bindToController(new UsersController(new UsersClient(webClient, props, usersProps, svc, registry), usersProps,
+				new IdempotentResponses(new CaffeineConfig().idempotencyCache(usersProps, Ticker.systemTicker()), usersProps, registry), new ObjectMapper()))
+				.build();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private List<UserBatchResult> post(MediaType contentType, String body) {
+		return web.post().uri("/api/users/batch")
+				.contentType(contentType)
+				.accept(MediaType.APPLICATION_NDJSON)
+				.bodyValue(body)
+				.exchange()
+				.expectStatus().isOk()
+				.returnResult(UserBatchResult.class)
+				.getResponseBody()
+				.collectList()
+				.block();
+	}
+
+	@Test
+	void jsonArrayIsFannedOutWithOneTokenAndBoundedConcurrency() {
+		String body = IntStream.range(0, 12).mapToObj(i -> "{\"firstName\":\"user" + i + "\"}")
+				.collect(Collectors.joining(",", "[", "]"));
+
+		List<UserBatchResult> results = post(MediaType.APPLICATION_JSON, body);
+
+		Assertions.assertEquals(12, results.size());
+		Assertions.assertTrue(results.stream().allMatch(UserBatchResult::isOk));
+		Assertions.assertEquals(IntStream.range(0, 12).boxed().map(Long::valueOf).collect(Collectors.toSet()),
+				results.stream().map(UserBatchResult::getIndex).collect(Collectors.toSet()));
+		Assertions.assertEquals(1, tokenRequests.get(), "Un solo token por lote");
+		Assertions.assertTrue(maxActive.get() <= 3, "Como mucho batchConcurrency altas en vuelo: " + maxActive.get());
+	}
+
+	@Test
+	void ndjsonItemFailuresDoNotStopTheBatch() {
+		String body = "{\"firstName\":\"a\"}\n{\"firstName\":\"fail\"}\n{\"firstName\":\"c\"}\n";
+
+		List<UserBatchResult> results = post(MediaType.APPLICATION_NDJSON, body);
+
+		Assertions.assertEquals(3, results.size());
+		Set<Long> failed = results.stream().filter(r -> !r.isOk()).map(UserBatchResult::getIndex).collect(Collectors.toSet());
+		Assertions.assertEquals(Set.of(1L), failed);
+		Assertions.assertTrue(results.stream().filter(r -> !r.isOk()).allMatch(r -> r.getError().contains("500")));
+	}
+}
@@ -0,0 +1,178 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.jupiter.api.*;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+class UsersClientHedgingTest {
+
+	MockWebServer server;
+	SimpleMeterRegistry registry;
+	UsersProperties usersProps;
+	UsersClient client;
+	final AtomicInteger posts = new AtomicInteger();
+	final List<RecordedRequest> received = new CopyOnWriteArrayList<>();
+	/** Respuesta del API de usuarios según el número de POST (1, 2, ...). */
+	volatile IntFunction<MockResponse> usersApi;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.setDispatcher(new Dispatcher() {
+			@Override
+			public MockResponse dispatch(RecordedRequest request) {
+				if (request.getPath().startsWith("/connect/token")) {
+					return new MockResponse().setResponseCode(200)
+							.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+							.setBody("{\"access_token\":\"AAA\",\"expires_in\":3600}");
+				}
+				received.add(request);
+				return usersApi.apply(posts.incrementAndGet());
+			}
+		});
+		server.start();
+
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+
+		usersProps = new UsersProperties();
+		usersProps.setAddUrl(server.url("/users/add").toString());
+		usersProps.getHedge().setEnabled(true);
+		usersProps.getHedge().setAdaptive(false);
+		usersProps.getHedge().setDelay(Duration.ofMillis(100));
+
+		registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		var webClient = WebClient.builder().build();
+		var svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		client = new UsersClient(webClient, props, usersProps, svc, registry);
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private static MockResponse ok(String body) {
+		return new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody(body);
+	}
+
+	private double hedges(String event) {
+		return registry.get("users.client.hedges").tag("event", event).counter().count();
+	}
+
+	@Test
+	void slowIdempotentPostIsHedgedAndTheFasterResponseWins() {
+		usersApi = n -> n == 1 ? ok("{\"id\":\"slow\"}").setHeadersDelay(2, TimeUnit.SECONDS) : ok("{\"id\":\"fast\"}");
+
+		StepVerifier.create(client.addUser(Map.of("firstName", "Ada"), "key-1"))
+				.expectNext("{\"id\":\"fast\"}")
+				.expectComplete()
+				.verify(Duration.ofSeconds(1));
+
+		Assertions.assertEquals(2, posts.get());
+		Assertions.assertEquals(1, hedges("fired"));
+		Assertions.assertEquals(1, hedges("won"));
+		// los dos llevan la misma clave para que el API descarte el duplicado
+		Assertions.assertTrue(received.stream().allMatch(r -> "key-1".equals(r.getHeader("Idempotency-Key"))));
+	}
+
+	@Test
+	void fastPostIsNotHedged() {
+		usersApi = n -> ok("{\"id\":1}");
+
+		StepVerifier.create(client.addUser(Map.of("firstName", "Ada"), "key-1")).expectNext("{\"id\":1}").verifyComplete();
+
+		Assertions.assertEquals(1, posts.get());
+		Assertions.assertEquals(0, hedges("fired"));
+	}
+
+	@Test
+	void postWithoutIdempotencyKeyIsNeverHedged() {
+		usersProps.getHedge().setDelay(Duration.ofMillis(50));
+		usersApi = n -> ok("{\"id\":1}").setHeadersDelay(300, TimeUnit.MILLISECONDS);
+
+		StepVerifier.create(client.addUser(Map.of("firstName", "Ada"))).expectNext("{\"id\":1}").verifyComplete();
+
+		Assertions.assertEquals(1, posts.get());
+		Assertions.assertEquals(0, hedges("fired"));
+	}
+
+	@Test
+	void errorBeforeTheHedgeDelayIsNotHedged() {
+		usersApi = n -> new MockResponse().setResponseCode(400).setBody("bad");
+
+		StepVerifier.create(client.addUser(Map.of("firstName", "Ada"), "key-1"))
+				.expectErrorMatches(e -> e.getMessage().contains("400"))
+				.verify();
+
+		Assertions.assertEquals(1, posts.get());
+		Assertions.assertEquals(0, hedges("fired"));
+	}
+
+	@Test
+	void inboundDeadlineCutsTheCallAndIsForwarded() {
+		usersProps.getHedge().setEnabled(false);
+		usersApi = n -> ok("{\"id\":1}").setHeadersDelay(2, TimeUnit.SECONDS);
+		WebTestClient web = WebTestClient.bindToController(new UsersController(client, usersProps,
+				new IdempotentResponses(new CaffeineConfig().idempotencyCache(usersProps, Ticker.systemTicker()), usersProps, registry), new ObjectMapper()))
+				.configureClient().responseTimeout(Duration.ofSeconds(5)).build();
+
+		long start = System.nanoTime();
+		web.post().uri("/api/users/add-rotating")
+				.header(Deadline.HEADER, "300")
+				.exchange()
+				.expectStatus().isEqualTo(504);
+
+		Assertions.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		long forwarded = Long.parseLong(received.get(0).getHeader(Deadline.HEADER));
+		Assertions.assertTrue(forwarded > 0 && forwarded <= 300, "plazo reenviado: " + forwarded);
+	}
+
+	@Test
+	void malformedDeadlineHeaderIsABadRequest() {
+		WebTestClient web = WebTestClient.bindToController(new UsersController(client, usersProps,
+				new IdempotentResponses(new CaffeineConfig().idempotencyCache(usersProps, Ticker.systemTicker()), usersProps, registry), new ObjectMapper()))
+				.build();
+
+		web.post().uri("/api/users/add-rotating").header(Deadline.HEADER, "pronto").exchange()
+				.expectStatus().isBadRequest();
+		web.post().uri("/api/users/batch").contentType(MediaType.APPLICATION_NDJSON).header(Deadline.HEADER, "-")
+				.bodyValue("{\"firstName\":\"Ada\"}\n").exchange()
+				.expectStatus().isBadRequest();
+		Assertions.assertEquals(0, posts.get());
+	}
+
+	@Test
+	void defaultDeadlineAppliesWithoutInboundHeader() {
+		usersProps.setDefaultDeadline(Duration.ofMillis(200));
+		usersApi = n -> ok("{\"id\":1}").setHeadersDelay(2, TimeUnit.SECONDS);
+
+		StepVerifier.create(client.addUser(Map.of("firstName", "Ada")))
+				.expectError(DeadlineExceededException.class)
+				.verify(Duration.ofSeconds(1));
+	}
+}
@@ -1,26 +1,30 @@
 package com.example.demo;
 
+import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.mockwebserver.*;
 import org.junit.jupiter.api.*;
 import org.springframework.http.MediaType;
 import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
+import java.time.Duration;
 import java.util.Map;
 
 class UsersClientRetryFailTest {
-	static MockWebServer server;
+	MockWebServer server;
 
-	@BeforeAll
-	static void start() throws IOException {
+	@BeforeEach
+	void startServer() throws IOException {
 		server = new MockWebServer();
 		server.start();
 	}
 
-	@AfterAll
-	static void stop() throws IOException {
+	@AfterEach
+	void stopServer() throws IOException {
 		server.shutdown();
 	}
 
@@ -30,9 +34,9 @@ class UsersClientRetryFailTest {
 
 		var props = new AuthProperties();
 		props.setUrl(server.url("/auth/login").toString());
-		props.setUsername("u");
-		props.setPassword("p");
-		props.setExpiresInMins(30);
+		props.setClientId("u");
+		props.setClientSecret("p");
+		props.getTtl().setSkew(Duration.ofSeconds(30));
 		props.setTokenJsonKey("accessToken");
 
 		// login -> AAA
@@ -46,15 +50,17 @@ class UsersClientRetryFailTest {
 		// segundo POST -> 401 otra vez => error
 		server.enqueue(new MockResponse().setResponseCode(401));
 
-		var tokenSvc = new TokenService(webClient, props, Caffeine.newBuilder().maximumSize(1).build());
-		var client = new UsersClient(webClient, tokenSvc);
+		var registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = Caffeine.newBuilder().maximumSize(1).build();
+		var tokenSvc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		var client = new UsersClient(webClient, props, new UsersProperties(), tokenSvc, registry);
 
 
 		StepVerifier.create(client.addUser(Map.of("firstName", "Ada")))
-	    .expectNextMatches(body -> body != null && !body.isBlank())
-	    .verifyComplete();
+	    .expectError(WebClientResponseException.Unauthorized.class)
+	    .verify();
 
 
-		Assertions.assertEquals(1, server.getRequestCount());
+		Assertions.assertEquals(4, server.getRequestCount(), "login, 401, relogin, 401 (sin más reintentos)");
 	}
 }
@@ -2,6 +2,7 @@ package com.example.demo;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import okhttp3.mockwebserver.MockResponse;
 import okhttp3.mockwebserver.MockWebServer;
 import org.junit.jupiter.api.*;
@@ -10,24 +11,24 @@ import org.springframework.web.reactive.function.client.WebClient;
 import reactor.test.StepVerifier;
 
 import java.io.IOException;
-import java.time.Instant;
+import java.time.Duration;
 import java.util.Map;
 
 class UsersClientTest {
 
-	static MockWebServer server;
+	MockWebServer server;
 	WebClient webClient;
 	AuthProperties props;
 	Cache<String, TokenCacheValue> cache;
 
-	@BeforeAll
-	static void beforeAll() throws IOException {
+	@BeforeEach
+	void startServer() throws IOException {
 		server = new MockWebServer();
 		server.start();
 	}
 
-	@AfterAll
-	static void afterAll() throws IOException {
+	@AfterEach
+	void stopServer() throws IOException {
 		server.shutdown();
 	}
 
@@ -36,9 +37,9 @@ class UsersClientTest {
 		webClient = WebClient.builder().build();
 		props = new AuthProperties();
 		props.setUrl(server.url("/auth/login").toString());
-		props.setUsername("u");
-		props.setPassword("p");
-		props.setExpiresInMins(30);
+		props.setClientId("u");
+		props.setClientSecret("p");
+		props.getTtl().setSkew(Duration.ofSeconds(30));
 		props.setTokenJsonKey("accessToken");
 		cache = Caffeine.newBuilder().maximumSize(1).build();
 	}
@@ -60,13 +61,14 @@ class UsersClientTest {
 		server.enqueue(new MockResponse().setResponseCode(200)
 				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"ok\":true}"));
 
-		TokenService tokenService = new TokenService(webClient, props, cache);
-		UsersClient client = new UsersClient(webClient, tokenService);
+		var registry = new SimpleMeterRegistry();
+		TokenService tokenService = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		UsersClient client = new UsersClient(webClient, props, new UsersProperties(), tokenService, registry);
 
 		StepVerifier.create(client.addUser(Map.of("firstName", "Ada")))
-	    .expectNextMatches(body -> body != null && !body.isBlank())
+	    .expectNext("{\"ok\":true}")
 	    .verifyComplete();
 
-		Assertions.assertEquals(1, server.getRequestCount(), "login, 401, relogin, 200");
+		Assertions.assertEquals(4, server.getRequestCount(), "login, 401, relogin, 200");
 	}
 }
@@ -0,0 +1,115 @@
+package com.example.demo;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Ticker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.*;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+
+import java.io.IOException;
+import java.time.Duration;
+
+class UsersPassthroughTest {
+
+	MockWebServer server;
+	UsersProperties usersProps;
+	WebTestClient web;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+
+		var props = new AuthProperties();
+		props.setUrl(server.url("/connect/token").toString());
+		props.setClientId("m2m");
+		props.setClientSecret("secret");
+		props.setScope("api");
+
+		usersProps = new UsersProperties();
+		usersProps.setAddUrl(server.url("/users/add").toString());
+		usersProps.setPassthrough(true);
+
+		var registry = new SimpleMeterRegistry();
+		Cache<String, TokenCacheValue> cache = new CaffeineConfig().tokenCache(props);
+		// mismo límite de 2 MB en memoria que el WebClient real
+		var webClient = WebClientConfig.webClient("api-passthrough", new HttpClientProperties().getApi());
+		var svc = new TokenService(webClient, props, cache, new TokenMetrics(registry, cache));
+		web = WebTestClient.bindToController(new UsersController(new UsersClient(webClient, props, usersProps, svc, registry), usersProps,
+				new IdempotentResponses(new CaffeineConfig().idempotencyCache(usersProps, Ticker.systemTicker()), usersProps, registry), new ObjectMapper()))
+				.configureClient().responseTimeout(Duration.ofSeconds(10)).build();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	private static MockResponse token(String value) {
+		return new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("{\"access_token\":\"" + value + "\",\"expires_in\":3600}");
+	}
+
+	@Test
+	void relaysStatusSelectedHeadersAndBodyBeyondTheInMemoryLimit() {
+		String big = "{\"data\":\"" + "x".repeat(3 * 1024 * 1024) + "\"}";
+		server.enqueue(token("AAA"));
+		server.enqueue(new MockResponse().setResponseCode(201)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setHeader("Location", "/users/42")
+				.setHeader("X-Backend", "node-7")
+				.setBody(big));
+
+		Long bytes = web.post().uri("/api/users/add-rotating").exchange()
+				.expectStatus().isCreated()
+				.expectHeader().valueEquals("Location", "/users/42")
+				.expectHeader().contentLength(big.length())
+				.expectHeader().doesNotExist("X-Backend")
+				.returnResult(DataBuffer.class).getResponseBody()
+				.map(b -> {
+					long n = b.readableByteCount();
+					DataBufferUtils.release(b);
+					return n;
+				})
+				.reduce(0L, Long::sum)
+				.block(Duration.ofSeconds(10));
+
+		Assertions.assertEquals(big.length(), bytes);
+	}
+
+	@Test
+	void retriesOnceWithAFreshTokenAfter401() throws InterruptedException {
+		server.enqueue(token("AAA"));
+		server.enqueue(new MockResponse().setResponseCode(401));
+		server.enqueue(token("BBB"));
+		server.enqueue(new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE).setBody("{\"id\":1}"));
+
+		web.post().uri("/api/users/add-rotating").exchange()
+				.expectStatus().isOk()
+				.expectBody(String.class).isEqualTo("{\"id\":1}");
+
+		server.takeRequest();
+		server.takeRequest();
+		server.takeRequest();
+		Assertions.assertEquals("Bearer BBB", server.takeRequest().getHeader("Authorization"));
+	}
+
+	@Test
+	void bufferedModeStillRejectsBodiesOverTheLimit() {
+		usersProps.setPassthrough(false);
+		server.enqueue(token("AAA"));
+		server.enqueue(new MockResponse().setResponseCode(200)
+				.setHeader("Content-Type", MediaType.APPLICATION_JSON_VALUE)
+				.setBody("\"" + "x".repeat(3 * 1024 * 1024) + "\""));
+
+		web.post().uri("/api/users/add-rotating").exchange().expectStatus().is5xxServerError();
+	}
+}
@@ -0,0 +1,138 @@
+package com.example.demo;
+
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import jakarta.validation.Validation;
+import jakarta.validation.Validator;
+import jakarta.validation.ValidatorFactory;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.jupiter.api.*;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import reactor.netty.resources.ConnectionProvider;
+import reactor.test.StepVerifier;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+class WebClientConfigTest {
+
+	MockWebServer server;
+
+	@BeforeEach
+	void setUp() throws IOException {
+		server = new MockWebServer();
+		server.start();
+	}
+
+	@AfterEach
+	void tearDown() throws IOException {
+		server.shutdown();
+	}
+
+	@Test
+	void destinationsHaveTheirOwnClient() {
+		var props = new HttpClientProperties();
+		var config = new WebClientConfig();
+
+		Assertions.assertNotSame(config.tokenWebClient(props), config.apiWebClient(props));
+	}
+
+	@Test
+	void eachPoolGetsItsOwnLimits() {
+		var props = new HttpClientProperties();
+		props.getApi().setPendingAcquireMaxCount(-1);
+		var registry = new SimpleMeterRegistry();
+		Metrics.addRegistry(registry); // reactor.netty publica las métricas del pool en el registro global
+		try {
+			assertPool("token-limits", props.getToken(), 10, 100, registry);
+			assertPool("api-limits", props.getApi(), 500, Integer.MAX_VALUE, registry); // -1: sin límite
+		} finally {
+			Metrics.removeRegistry(registry);
+		}
+	}
+
+	private void assertPool(String name, HttpClientProperties.Destination cfg, int maxConnections, int maxPending,
+			SimpleMeterRegistry registry) {
+		ConnectionProvider provider = WebClientConfig.connectionProvider(name, cfg);
+		try {
+			Assertions.assertEquals(maxConnections, provider.maxConnections());
+			server.enqueue(new MockResponse().setResponseCode(200).setBody("ok"));
+			WebClient client = WebClient.builder()
+					.clientConnector(new ReactorClientHttpConnector(WebClientConfig.httpClient(provider, cfg))).build();
+			StepVerifier.create(client.get().uri(server.url("/ok").toString()).retrieve().bodyToMono(String.class))
+					.expectNext("ok")
+					.verifyComplete();
+
+			Assertions.assertEquals(maxConnections, registry.get("reactor.netty.connection.provider.max.connections")
+					.tag("name", name).gauge().value());
+			Assertions.assertEquals(maxPending, registry.get("reactor.netty.connection.provider.max.pending.connections")
+					.tag("name", name).gauge().value());
+		} finally {
+			provider.dispose();
+		}
+	}
+
+	@Test
+	void pendingAcquireMaxCountIsUnlimitedOrPositive() {
+		try (ValidatorFactory factory = Validation.buildDefaultValidatorFactory()) {
+			Validator validator = factory.getValidator();
+			var cfg = new HttpClientProperties().getApi();
+
+			Assertions.assertTrue(validator.validate(cfg).isEmpty());
+			cfg.setPendingAcquireMaxCount(-1);
+			Assertions.assertTrue(validator.validate(cfg).isEmpty());
+			cfg.setPendingAcquireMaxCount(0);
+			Assertions.assertEquals(1, validator.validate(cfg).size());
+			cfg.setPendingAcquireMaxCount(-2);
+			Assertions.assertEquals(1, validator.validate(cfg).size());
+		}
+	}
+
+	@Test
+	void idleConnectionsOutliveTheRequestTimeouts() throws Exception {
+		var cfg = new HttpClientProperties().getApi();
+		cfg.setResponseTimeout(Duration.ofMillis(100));
+		cfg.setWriteTimeout(Duration.ofMillis(100));
+		WebClient client = WebClientConfig.webClient("idle-test", cfg);
+		server.enqueue(new MockResponse().setResponseCode(200).setBody("uno"));
+		server.enqueue(new MockResponse().setResponseCode(200).setBody("dos"));
+
+		StepVerifier.create(client.get().uri(server.url("/1").toString()).retrieve().bodyToMono(String.class))
+				.expectNext("uno").verifyComplete();
+		Thread.sleep(400); // ociosa bastante más que los timeouts de la petición
+		StepVerifier.create(client.get().uri(server.url("/2").toString()).retrieve().bodyToMono(String.class))
+				.expectNext("dos").verifyComplete();
+
+		server.takeRequest();
+		Assertions.assertEquals(1, server.takeRequest().getSequenceNumber(), "misma conexión del pool");
+	}
+
+	@Test
+	void responseTimeoutIsApplied() {
+		server.enqueue(new MockResponse().setResponseCode(200).setBody("tarde")
+				.setHeadersDelay(2, TimeUnit.SECONDS));
+
+		var cfg = new HttpClientProperties().getApi();
+		cfg.setResponseTimeout(Duration.ofMillis(200));
+		WebClient client = WebClientConfig.webClient("api-test", cfg);
+
+		StepVerifier.create(client.get().uri(server.url("/slow").toString()).retrieve().bodyToMono(String.class))
+				.expectError(WebClientRequestException.class)
+				.verify(Duration.ofSeconds(2));
+	}
+
+	@Test
+	void servesRequestsThroughTheTunedPool() {
+		server.enqueue(new MockResponse().setResponseCode(200).setBody("ok"));
+
+		WebClient client = WebClientConfig.webClient("token-test", new HttpClientProperties().getToken());
+
+		StepVerifier.create(client.get().uri(server.url("/ok").toString()).retrieve().bodyToMono(String.class))
+				.expectNext("ok")
+				.verifyComplete();
+	}
+}